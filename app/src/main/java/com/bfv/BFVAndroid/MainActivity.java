@@ -1,32 +1,63 @@
 package com.bfv.BFVAndroid;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.text.InputType;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.EditText;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
+import androidx.core.content.FileProvider;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.DividerItemDecoration;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.viewpager.widget.ViewPager;
 
+import com.bfv.BFVAndroid.audio.VarioTonePlayer;
 import com.bfv.BFVAndroid.bluetooth.BluetoothApplication;
 import com.bfv.BFVAndroid.bluetooth.BluetoothController;
 import com.bfv.BFVAndroid.bluetooth.BluetoothProvider;
+import com.bfv.BFVAndroid.bluetooth.RfcommTransport;
 import com.bfv.BFVAndroid.fragments.dashboard.DashboardFragment;
 import com.bfv.BFVAndroid.fragments.devices.DevicesFragment;
 import com.bfv.BFVAndroid.fragments.parameters.ParametersFragment;
+import com.bfv.BFVAndroid.ingest.PressureAltitude;
+import com.bfv.BFVAndroid.ingest.SampleClock;
+import com.bfv.BFVAndroid.parameters.ParameterProfile;
+import com.bfv.BFVAndroid.parameters.ProfileApplier;
+import com.bfv.BFVAndroid.parameters.ProfileCodec;
+import com.bfv.BFVAndroid.session.SessionManager;
+import com.bfv.BFVAndroid.telemetry.LinkStats;
+import com.bfv.BFVAndroid.telemetry.PipelineLatency;
+import com.bfv.BFVAndroid.transport.CommandFuture;
 import com.google.android.material.tabs.TabLayout;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 import java.util.TreeMap;
 
 import BFVLib.Command;
@@ -42,13 +73,16 @@ public class MainActivity extends AppCompatActivity implements BluetoothControll
     private static final int TAB_DASHBOARD = 1;
     private static final int TAB_PARAMETERS = 2;
 
+    private static final int REQUEST_IMPORT_PROFILE = 1;
+
     private BluetoothProvider bluetoothProvider;
+    private VarioTonePlayer varioTonePlayer;
     private SharedDataViewModel sharedData;
     private MenuItem sendCommand;
+    private MenuItem applyProfile;
     private TreeMap<String, Command> commands;
 
 
-    // TODO: add parameters save / reload / share
     // MAYBE: mark commands that are made for higher HW version different color
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -63,6 +97,7 @@ public class MainActivity extends AppCompatActivity implements BluetoothControll
         BluetoothApplication bluetoothApplication = (BluetoothApplication) getApplication();
         bluetoothProvider = bluetoothApplication.getBluetoothProvider();
         bluetoothProvider.setSharedData(sharedData);
+        varioTonePlayer = bluetoothApplication.getVarioTonePlayer();
 
         setContentView(R.layout.activity_main);
 
@@ -98,6 +133,9 @@ public class MainActivity extends AppCompatActivity implements BluetoothControll
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.settings_menu, menu);
         sendCommand = menu.findItem(R.id.settings_sendCommand);
+        applyProfile = menu.findItem(R.id.settings_applyProfile);
+        menu.findItem(R.id.settings_sound).setChecked(varioTonePlayer.isPlaying());
+        menu.findItem(R.id.settings_auto_reconnect).setChecked(bluetoothProvider.isAutoReconnect());
         return true;
     }
 
@@ -105,6 +143,8 @@ public class MainActivity extends AppCompatActivity implements BluetoothControll
     @Override
     public boolean onMenuOpened(int featureId, Menu menu) {
         sendCommand.setEnabled(getState() == BluetoothProvider.STATE_CONNECTED);
+        applyProfile.setEnabled(getState() == BluetoothProvider.STATE_CONNECTED
+                && sharedData.getSavedProfile() != null);
 
         return super.onMenuOpened(featureId, menu);
     }
@@ -126,6 +166,57 @@ public class MainActivity extends AppCompatActivity implements BluetoothControll
                 }
                 return true;
 
+            case R.id.settings_sound:
+                if(item.isChecked()) {
+                    varioTonePlayer.stop();
+                    item.setChecked(false);
+                } else {
+                    varioTonePlayer.start();
+                    item.setChecked(true);
+                }
+                return true;
+
+            case R.id.settings_auto_reconnect:
+                item.setChecked(! item.isChecked());
+                bluetoothProvider.setAutoReconnect(item.isChecked());
+                return true;
+
+            case R.id.settings_stall_timeout:
+                showStallTimeoutDialog();
+                return true;
+
+            case R.id.settings_qnh:
+                showQnhDialog();
+                return true;
+
+            case R.id.settings_saveProfile:
+                saveProfile();
+                return true;
+
+            case R.id.settings_applyProfile:
+                applyProfile();
+                return true;
+
+            case R.id.settings_exportProfile:
+                exportProfile();
+                return true;
+
+            case R.id.settings_importProfile:
+                Intent pick = new Intent(Intent.ACTION_GET_CONTENT)
+                        .setType("*/*")
+                        .addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(Intent.createChooser(pick, getString(R.string.importProfile)),
+                        REQUEST_IMPORT_PROFILE);
+                return true;
+
+            case R.id.settings_latency:
+                showLatencyDialog();
+                return true;
+
+            case R.id.settings_bench:
+                showBenchDialog();
+                return true;
+
             case R.id.settings_about:
                 showAboutDialog();
                 return true;
@@ -162,12 +253,9 @@ public class MainActivity extends AppCompatActivity implements BluetoothControll
                         }
                         else {
                             if( ! sharedData.getDryRun().getValue()) {
-                                if (bluetoothProvider.write(command.serializeCommand(editedValue))) {
-                                    Toast.makeText(this, "Sent " + commandName + " with value " + editedValue, Toast.LENGTH_SHORT).show();
-                                }
-                                else {
-                                    Toast.makeText(this, "Error sending " + commandName + " with value " + editedValue, Toast.LENGTH_LONG).show();
-                                }
+                                toastWhenWritten(bluetoothProvider.write(command.serializeCommand(editedValue)),
+                                        "Sent " + commandName + " with value " + editedValue,
+                                        "Error sending " + commandName + " with value " + editedValue);
                             }
                             else {
                                 Toast.makeText(this, "Dry Run is ON, no command sent!", Toast.LENGTH_LONG).show();
@@ -189,11 +277,8 @@ public class MainActivity extends AppCompatActivity implements BluetoothControll
                 dialogBuilder
                         //.setView(editParameter)
                         .setPositiveButton("Send", (dialog, whichButton) -> {
-                            if (bluetoothProvider.write(command.serializeCommand())) {
-                                Toast.makeText(this, "Sent " + commandName, Toast.LENGTH_SHORT).show();
-                            } else {
-                                Toast.makeText(this, "Error sending " + commandName, Toast.LENGTH_LONG).show();
-                            }
+                            toastWhenWritten(bluetoothProvider.write(command.serializeCommand()),
+                                    "Sent " + commandName, "Error sending " + commandName);
                         });
                 dialogBuilder.create().show();
             }
@@ -216,10 +301,29 @@ public class MainActivity extends AppCompatActivity implements BluetoothControll
     }
 
     @Override
-    public boolean writeToBT(String data) {
+    public CommandFuture writeToBT(String data) {
         return bluetoothProvider.write(data);
     }
 
+    @Override
+    public CommandFuture writeToBT(String key, String data) {
+        return bluetoothProvider.write(key, data);
+    }
+
+
+    /**
+     * Commands are written in the background, tell the user once the write finished
+     */
+    private void toastWhenWritten(CommandFuture future, String sent, String failed) {
+        future.addListener(result -> runOnUiThread(() -> {
+            if (result.isSuccess()) {
+                Toast.makeText(this, sent, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, failed, Toast.LENGTH_LONG).show();
+            }
+        }));
+    }
+
     @Override
     public int getState() {
         return bluetoothProvider.getState();
@@ -235,6 +339,164 @@ public class MainActivity extends AppCompatActivity implements BluetoothControll
         return bluetoothProvider.getPreviousConnectedDevice();
     }
 
+    @Override
+    public LinkStats getLinkStats() {
+        return bluetoothProvider.getLinkStats();
+    }
+
+    @Override
+    public int getWriterQueueDepth() {
+        return bluetoothProvider.getWriterQueueDepth();
+    }
+
+    @Override
+    public long getWriterAverageLatencyNanos() {
+        return bluetoothProvider.getWriterAverageLatencyNanos();
+    }
+
+    @Override
+    public long getIngestOverflowCount() {
+        return bluetoothProvider.getIngestOverflowCount();
+    }
+
+    @Override
+    public int getIngestHighWaterMark() {
+        return bluetoothProvider.getIngestHighWaterMark();
+    }
+
+    @Override
+    public SampleClock getSampleClock() {
+        return bluetoothProvider.getSampleClock();
+    }
+
+
+    /**
+     * Keeps the current parameter values as a profile to apply later
+     */
+    private void saveProfile() {
+        ParameterProfile profile = ParameterProfile.capture(sharedData.getParameters());
+        if (profile.size() == 0) {
+            Toast.makeText(this, R.string.profile_empty, Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        sharedData.setSavedProfile(profile);
+        Toast.makeText(this, getString(R.string.profile_saved, profile.size()), Toast.LENGTH_SHORT).show();
+    }
+
+
+    /**
+     * Sends the parameters of the saved profile that differ from the device in one batch
+     */
+    private void applyProfile() {
+        ParameterProfile profile = sharedData.getSavedProfile();
+
+        if (sharedData.getDryRun().getValue()) {
+            List<ProfileApplier.Change> changes = ProfileApplier.diff(sharedData.getParameters(), profile);
+            for (ProfileApplier.Change change : changes) {
+                Log.i("applyProfile: ", "Send command: " + change.getCommand());
+            }
+            Toast.makeText(this, getString(R.string.profile_dry_run, changes.size()), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        ProfileApplier applier = new ProfileApplier(sharedData.getParameterStore(),
+                bluetoothProvider::write, sharedData.getBfv().getAllCommands().get("getSettings"));
+
+        new Thread(() -> {
+            String message;
+            try {
+                ProfileApplier.Result result = applier.apply(profile);
+                long millis = result.getWallTimeNanos() / 1000000L;
+                message = result.isVerified()
+                        ? getString(R.string.profile_applied, result.getSent().size(), result.getBytesSent(), millis)
+                        : getString(R.string.profile_mismatch, result.getSent().size(), result.getBytesSent(), millis,
+                                TextUtils.join(", ", result.getMismatched()));
+                Log.i("applyProfile: ", message);
+            } catch (IOException | InterruptedException e) {
+                message = getString(R.string.profile_failed, e.getMessage());
+                Log.e("applyProfile: ", "failed", e);
+            }
+
+            final String toast = message;
+            runOnUiThread(() -> Toast.makeText(this, toast, Toast.LENGTH_LONG).show());
+        }, "ProfileApplyThread").start();
+    }
+
+
+    /**
+     * Shares the saved profile, or the current values if none was saved, as a profile file
+     */
+    private void exportProfile() {
+        ParameterProfile profile = sharedData.getSavedProfile();
+        if (profile == null) {
+            profile = ParameterProfile.capture(sharedData.getParameters());
+        }
+        if (profile.size() == 0) {
+            Toast.makeText(this, R.string.profile_empty, Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        // A few hundred bytes, written in place
+        File dir = new File(getFilesDir(), "exports");
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File file = new File(dir, "profile-" + name + ProfileCodec.FILE_EXTENSION);
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Can't create " + dir);
+            }
+            try (OutputStream out = new FileOutputStream(file)) {
+                ProfileCodec.write(profile, out);
+            }
+        } catch (IOException e) {
+            Log.e("exportProfile: ", "failed", e);
+            Toast.makeText(this, getString(R.string.profile_export_failed, e.getMessage()), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        Uri uri = FileProvider.getUriForFile(this, BuildConfig.APPLICATION_ID + ".fileprovider", file);
+        Intent share = new Intent(Intent.ACTION_SEND)
+                .setType(ProfileCodec.MIME_TYPE)
+                .putExtra(Intent.EXTRA_STREAM, uri)
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(share, getString(R.string.exportProfile)));
+    }
+
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if (requestCode == REQUEST_IMPORT_PROFILE && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            importProfile(data.getData());
+        }
+    }
+
+
+    /**
+     * Reads a profile file picked by the user and makes it the saved profile
+     */
+    private void importProfile(Uri uri) {
+        // Picked documents may come from a slow provider, read them off the UI thread
+        new Thread(() -> {
+            String message;
+            try (InputStream in = getContentResolver().openInputStream(uri)) {
+                if (in == null) {
+                    throw new IOException("Can't open " + uri);
+                }
+                ParameterProfile profile = ProfileCodec.read(in);
+                sharedData.setSavedProfile(profile);
+                message = getString(R.string.profile_imported, profile.size());
+            } catch (IOException e) {
+                Log.e("importProfile: ", "failed", e);
+                message = getString(R.string.profile_import_failed, e.getMessage());
+            }
+
+            final String toast = message;
+            runOnUiThread(() -> Toast.makeText(this, toast, Toast.LENGTH_LONG).show());
+        }, "ProfileImportThread").start();
+    }
+
 
     /**
      * Displays About Dialog when called
@@ -248,6 +510,215 @@ public class MainActivity extends AppCompatActivity implements BluetoothControll
     }
 
 
+    /**
+     * Lets the user pick how many missed samples make a silent link count as lost, shown as
+     * timeouts at the sample period measured on the last link
+     */
+    private void showStallTimeoutDialog() {
+        final int[] periods = {10, 25, 50, 100};
+        double periodNanos = bluetoothProvider.getSampleClock().getPeriodNanos();
+        CharSequence[] items = new CharSequence[periods.length];
+        int checked = -1;
+        for (int i = 0; i < periods.length; i++) {
+            items[i] = getString(R.string.stall_timeout_item, periods[i],
+                    periods[i] * periodNanos / 1e9, 1e9 / periodNanos);
+            if (periods[i] == bluetoothProvider.getStallPeriods()) {
+                checked = i;
+            }
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.stallTimeout)
+                .setSingleChoiceItems(items, checked, (dialogInterface, i) -> {
+                    bluetoothProvider.setStallPeriods(periods[i]);
+                    dialogInterface.dismiss();
+                })
+                .setNegativeButton("Close", (dialogInterface, i) -> dialogInterface.dismiss())
+                .show();
+    }
+
+
+    /**
+     * Lets the user set the sea level pressure altitudes are computed for, in hPa
+     */
+    private void showQnhDialog() {
+        EditText editQnh = new EditText(this);
+        editQnh.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        editQnh.setHint(R.string.qnh_hint);
+        editQnh.setText(String.format(Locale.US, "%.1f", sharedData.getQnh() / 100));
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.qnh)
+                .setView(editQnh)
+                .setPositiveButton(R.string.qnh_set, (dialogInterface, i) -> {
+                    double qnh;
+                    try {
+                        qnh = Double.parseDouble(editQnh.getText().toString()) * 100;
+                    } catch (NumberFormatException e) {
+                        qnh = Double.NaN;
+                    }
+                    if (qnh >= PressureAltitude.QNH_MIN && qnh <= PressureAltitude.QNH_MAX) {
+                        sharedData.setQnh(qnh);
+                    }
+                    else {
+                        Toast.makeText(this, getString(R.string.qnh_invalid,
+                                PressureAltitude.QNH_MIN / 100, PressureAltitude.QNH_MAX / 100),
+                                Toast.LENGTH_LONG).show();
+                    }
+                })
+                .setNegativeButton("Close", (dialogInterface, i) -> dialogInterface.dismiss())
+                .show();
+    }
+
+
+    /**
+     * Developer screen with the latency of every pipeline stage, refreshed while it is open
+     */
+    private void showLatencyDialog() {
+        View view = getLayoutInflater().inflate(R.layout.latency_dialog, null);
+        TextView text = view.findViewById(R.id.latencyText);
+        PipelineLatency latency = sharedData.getLatency();
+
+        Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                StringBuilder sb = new StringBuilder();
+                try {
+                    latency.writeSummary(sb);
+                } catch (IOException e) {
+                    // StringBuilder doesn't throw
+                }
+                text.setText(sb);
+                text.postDelayed(this, 500);
+            }
+        };
+
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.latency)
+                .setView(view)
+                .setPositiveButton(R.string.latency_dump, (dialogInterface, i) -> dumpLatency())
+                .setNeutralButton(R.string.latency_reset, (dialogInterface, i) -> latency.reset())
+                .setNegativeButton("Close", (dialogInterface, i) -> dialogInterface.dismiss())
+                .setOnDismissListener(dialogInterface -> text.removeCallbacks(refresh))
+                .create();
+        dialog.show();
+        refresh.run();
+    }
+
+
+    /**
+     * Lets the user pick paired devices to compare on the bench
+     */
+    private void showBenchDialog() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        List<BluetoothDevice> devices = new ArrayList<>();
+        if (adapter != null && adapter.isEnabled()) {
+            devices.addAll(adapter.getBondedDevices());
+        }
+        if (devices.isEmpty()) {
+            Toast.makeText(this, R.string.bench_no_devices, Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        CharSequence[] items = new CharSequence[devices.size()];
+        boolean[] checked = new boolean[devices.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = devices.get(i).getName() + "\n" + devices.get(i).getAddress();
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.bench)
+                .setMultiChoiceItems(items, checked, (dialogInterface, i, isChecked) -> checked[i] = isChecked)
+                .setPositiveButton(R.string.bench_connect, (dialogInterface, i) -> {
+                    List<BluetoothDevice> selected = new ArrayList<>();
+                    for (int j = 0; j < checked.length; j++) {
+                        if (checked[j]) {
+                            selected.add(devices.get(j));
+                        }
+                    }
+                    showBenchComparison(adapter, selected);
+                })
+                .setNegativeButton("Close", (dialogInterface, i) -> dialogInterface.dismiss())
+                .show();
+    }
+
+
+    /**
+     * Connects the devices side by side and shows how far they are from the first one,
+     * refreshed while it is open. Closing it disconnects them.
+     */
+    private void showBenchComparison(BluetoothAdapter adapter, List<BluetoothDevice> devices) {
+        SessionManager bench = ((BluetoothApplication) getApplication()).getBenchSessions();
+        bench.setQnh(sharedData.getQnh());
+        for (BluetoothDevice device : devices) {
+            try {
+                bench.add(new RfcommTransport(adapter, device));
+            } catch (IOException | IllegalStateException e) {
+                Toast.makeText(this, getString(R.string.bench_failed, device.getAddress(), e.getMessage()),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+
+        View view = getLayoutInflater().inflate(R.layout.latency_dialog, null);
+        TextView text = view.findViewById(R.id.latencyText);
+
+        Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                StringBuilder sb = new StringBuilder();
+                try {
+                    bench.compare(0).writeTable(sb);
+                } catch (IOException e) {
+                    // StringBuilder doesn't throw
+                }
+                text.setText(sb);
+                text.postDelayed(this, 500);
+            }
+        };
+
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.bench)
+                .setView(view)
+                .setNegativeButton("Close", (dialogInterface, i) -> dialogInterface.dismiss())
+                .setOnDismissListener(dialogInterface -> {
+                    text.removeCallbacks(refresh);
+                    bench.removeAll();
+                })
+                .create();
+        dialog.show();
+        refresh.run();
+    }
+
+
+    /**
+     * Writes the latency histograms to a text file and offers to share it
+     */
+    private void dumpLatency() {
+        File dir = new File(getFilesDir(), "exports");
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File file = new File(dir, "latency-" + name + ".txt");
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Can't create " + dir);
+            }
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+                sharedData.getLatency().dump(out);
+            }
+        } catch (IOException e) {
+            Log.e("dumpLatency: ", "failed", e);
+            Toast.makeText(this, getString(R.string.latency_dump_failed, e.getMessage()), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        Uri uri = FileProvider.getUriForFile(this, BuildConfig.APPLICATION_ID + ".fileprovider", file);
+        Intent share = new Intent(Intent.ACTION_SEND)
+                .setType("text/plain")
+                .putExtra(Intent.EXTRA_STREAM, uri)
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(share, getString(R.string.latency)));
+    }
+
+
     /**
      * Displays SendCommand Dialog when called
      */
@@ -1,49 +1,99 @@
 package com.bfv.BFVAndroid;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.bfv.BFVAndroid.bluetooth.BluetoothProvider;
-
-import java.util.ArrayList;
+import com.bfv.BFVAndroid.ingest.PressureAltitude;
+import com.bfv.BFVAndroid.kalmanFilteredVario.VarioFilterBank;
+import com.bfv.BFVAndroid.parameters.ParameterProfile;
+import com.bfv.BFVAndroid.parameters.ParameterSnapshot;
+import com.bfv.BFVAndroid.parameters.ParameterStore;
+import com.bfv.BFVAndroid.telemetry.PipelineLatency;
+import com.bfv.BFVAndroid.telemetry.RawDataLog;
+import com.bfv.BFVAndroid.telemetry.TelemetrySnapshot;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import BFVLib.BFV;
 
 public class SharedDataViewModel extends ViewModel{
     private final MutableLiveData<Integer> connectionState;
 
-    private final MutableLiveData<Double> vario;
+    private final MutableLiveData<TelemetrySnapshot> telemetry;
+    private volatile TelemetrySnapshot latestTelemetry;
+    private final PipelineLatency latency;
+    private final AtomicLong telemetrySequence;
+    private final AtomicBoolean telemetryFrameScheduled;
+    private final Handler mainHandler;
+    private final Choreographer.FrameCallback telemetryFrameCallback;
+    private final Runnable scheduleTelemetryFrame;
 
-    private final MutableLiveData<Double> deviceBattery;
     private final MutableLiveData<String> deviceHwVersion;
-    private final MutableLiveData<Double> deviceTemp;
-    private final MutableLiveData<Double> deviceAltitude;
 
-    private final MutableLiveData<String> rawDataObservable;
-    private final ArrayList<String> rawData;
+    private final ParameterStore parameterStore;
+    private volatile ParameterProfile savedProfile;
+    private final MutableLiveData<BitSet> parameterChanges;
+    private final BitSet pendingParameterChanges;
+    private final Runnable deliverParameterChanges;
+
+    private final MutableLiveData<RawDataLog> rawDataObservable;
+    private final RawDataLog rawData;
 
     private final MutableLiveData<Boolean> dryRun;
 
     private final BFV bfv;
+    private final VarioFilterBank varioFilterBank;
+    private volatile double qnh = PressureAltitude.QNH_STANDARD;
 
 
     // Cannot invoke setValue on a background thread, use postValue
     public SharedDataViewModel() {
-        rawDataObservable = new MutableLiveData<>();
-        rawData = new ArrayList<>();
+        rawData = new RawDataLog();
+        rawDataObservable = new MutableLiveData<>(rawData);
+
+        latestTelemetry = TelemetrySnapshot.EMPTY;
+        latency = new PipelineLatency();
+        telemetry = new MutableLiveData<>(latestTelemetry);
+        telemetrySequence = new AtomicLong();
+        telemetryFrameScheduled = new AtomicBoolean();
+        mainHandler = new Handler(Looper.getMainLooper());
 
-        vario = new MutableLiveData<>(0.0);
+        telemetryFrameCallback = frameTimeNanos -> {
+            telemetryFrameScheduled.set(false);
+            telemetry.setValue(latestTelemetry);
+        };
+
+        // Choreographer has to be used from the main thread
+        scheduleTelemetryFrame = () ->
+                Choreographer.getInstance().postFrameCallback(telemetryFrameCallback);
 
         deviceHwVersion = new MutableLiveData<>("");
-        deviceAltitude = new MutableLiveData<>(Double.NaN);
-        deviceBattery = new MutableLiveData<>(Double.NaN);
-        deviceTemp = new MutableLiveData<>(Double.NaN);
+
+        parameterChanges = new MutableLiveData<>(new BitSet());
+        pendingParameterChanges = new BitSet();
+        deliverParameterChanges = () -> {
+            BitSet changed;
+            synchronized (pendingParameterChanges) {
+                changed = (BitSet) pendingParameterChanges.clone();
+                pendingParameterChanges.clear();
+            }
+            parameterChanges.setValue(changed);
+        };
 
         connectionState = new MutableLiveData<>(BluetoothProvider.STATE_DISCONNECTED);
         dryRun = new MutableLiveData<>(Boolean.TRUE);
 
         bfv = new BFV();
+        varioFilterBank = VarioFilterBank.createDefault();
+        parameterStore = new ParameterStore(bfv.getAllParameters());
     }
 
 
@@ -54,28 +104,132 @@ public class SharedDataViewModel extends ViewModel{
         return this.bfv;
     }
 
+    public double getQnh() {return this.qnh;}
+
+    // Sets QNH in Pa from the QNH setting for BFV and for the processing thread's altitude table
+    public void setQnh(double qnh) {
+        this.qnh = qnh;
+        this.bfv.setQnh(qnh);
+    }
+
+
+    /**
+     * Telemetry
+     * Values are published from the processing thread on every sample, but observers get at
+     * most one snapshot per display frame, always the latest one.
+     */
+    public LiveData<TelemetrySnapshot> getTelemetry() {return this.telemetry;}
+
+    public TelemetrySnapshot getLatestTelemetry() {return this.latestTelemetry;}
+
+    public void publishTelemetry(long sampleTimeNanos, double vario, double altitude,
+                                 double battery, double temperature) {
+        publish(sampleTimeNanos, vario, altitude, battery, temperature);
+        latency.record(PipelineLatency.STAGE_PUBLISH, sampleTimeNanos);
+    }
+
+    private void publish(long sampleTimeNanos, double vario, double altitude,
+                         double battery, double temperature) {
+        latestTelemetry = new TelemetrySnapshot(telemetrySequence.incrementAndGet(),
+                sampleTimeNanos, vario, altitude, battery, temperature);
+
+        // Only the first sample after a frame schedules the next one
+        if (telemetryFrameScheduled.compareAndSet(false, true)) {
+            mainHandler.post(scheduleTelemetryFrame);
+        }
+    }
+
+    // Age of samples from their bytes being read to their vario being drawn
+    public PipelineLatency getLatency() {return this.latency;}
+
+    // Fed by the processing thread, the selected configuration is the one published as vario
+    public VarioFilterBank getVarioFilterBank() {return this.varioFilterBank;}
+
+    // Called by the processing thread when its connection ends, like every other publish
+    public void resetVario() {
+        TelemetrySnapshot latest = latestTelemetry;
+        publish(latest.getSampleTimeNanos(), 0.0, latest.getAltitude(),
+                latest.getBattery(), latest.getTemperature());
+    }
+
+
+    /**
+     * Parameters
+     * Values are read from an immutable snapshot, never from the BFV map the processing thread
+     * updates. Observers get the positions of the parameters whose values changed, changes
+     * published before the main thread gets to them are merged into one notification.
+     */
+    public ParameterSnapshot getParameters() {return this.parameterStore.getSnapshot();}
+
+    public ParameterStore getParameterStore() {return this.parameterStore;}
 
     /**
-     * Vario
+     * Profile saved with "Save profile", to be applied to this or another device
      */
-    public LiveData<Double> getVario() {return this.vario;}
+    public ParameterProfile getSavedProfile() {return this.savedProfile;}
 
-    public void setVario(Double vario) {this.vario.postValue(vario);}
+    public void setSavedProfile(ParameterProfile profile) {this.savedProfile = profile;}
+
+    public LiveData<BitSet> getParameterChanges() {return this.parameterChanges;}
+
+    /**
+     * Called by the processing thread after BFV parsed a settings line
+     *
+     * @param changed scratch set, cleared before use
+     * @return true if any value changed
+     */
+    public boolean updateParameters(BitSet changed) {
+        changed.clear();
+        if (parameterStore.update(bfv.getAllParameters(), changed)) {
+            publishParameterChanges(changed);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called by the processing thread to show a device's cached values until it sends its own
+     *
+     * @param changed scratch set, cleared before use
+     */
+    public void preloadParameters(ParameterProfile cached, BitSet changed) {
+        changed.clear();
+        if (parameterStore.preload(cached, changed)) {
+            publishParameterChanges(changed);
+        }
+    }
+
+    private void publishParameterChanges(BitSet changed) {
+        synchronized (pendingParameterChanges) {
+            boolean deliveryPending = !pendingParameterChanges.isEmpty();
+            pendingParameterChanges.or(changed);
+            if (!deliveryPending) {
+                mainHandler.post(deliverParameterChanges);
+            }
+        }
+    }
 
 
     /**
      * RawData
+     * Observers are notified with the log itself, postValue() coalesces lines that arrive
+     * before the main thread gets to them.
      */
-    public void setRawData(String rawData) {
-        this.rawData.add(rawData);
-        this.rawDataObservable.postValue(rawData);
+    public void appendRawData(int direction, byte[] line, int offset, int length) {
+        this.rawData.append(direction, line, offset, length);
+        this.rawDataObservable.postValue(this.rawData);
+    }
+
+    public void appendRawData(int direction, String line) {
+        this.rawData.append(direction, line);
+        this.rawDataObservable.postValue(this.rawData);
     }
 
-    public ArrayList<String> getRawDataArray() {
+    public RawDataLog getRawData() {
         return this.rawData;
     }
 
-    public MutableLiveData<String> getLastRawData() {
+    public LiveData<RawDataLog> getRawDataUpdates() {
         return this.rawDataObservable;
     }
 
@@ -93,19 +247,9 @@ public class SharedDataViewModel extends ViewModel{
     /**
      * Device
      */
-    public MutableLiveData<Double> getDeviceBattery() {
-        return this.deviceBattery;
-    }
-
-    public void setDeviceBattery(Double deviceBattery) {
-        this.deviceBattery.postValue(deviceBattery);
-    }
-
     public void resetDeviceData() {
-        this.deviceAltitude.postValue(Double.NaN);
-        this.deviceBattery.postValue(Double.NaN);
+        publishTelemetry(0, 0.0, Double.NaN, Double.NaN, Double.NaN);
         this.deviceHwVersion.postValue("");
-        this.deviceTemp.postValue(Double.NaN);
     }
 
 
@@ -118,23 +262,6 @@ public class SharedDataViewModel extends ViewModel{
     }
 
 
-    public MutableLiveData<Double> getDeviceAltitude() {
-        return this.deviceAltitude;
-    }
-
-    public void setDeviceAltitude(Double deviceAltitude) {
-        this.deviceAltitude.postValue(deviceAltitude);
-    }
-
-
-    public MutableLiveData<Double> getDeviceTemp() {
-        return this.deviceTemp;
-    }
-
-    public void setDeviceTemp(Double deviceTemp) {
-        this.deviceTemp.postValue(deviceTemp);
-    }
-
     public MutableLiveData<Boolean> getDryRun() {
         return dryRun;
     }
@@ -0,0 +1,159 @@
+package com.bfv.BFVAndroid.audio;
+
+
+/**
+ * Synthesizes the vario tone as 16 bit mono PCM.
+ *
+ * Climbing beeps, faster and higher the stronger the climb. Sinking hard gives a continuous
+ * low tone that drops with the sink rate. Anything in between is silent. Pitch and volume
+ * changes are continuous across buffers and every beep is ramped in and out, so there are no
+ * clicks however the vario changes.
+ *
+ * The vario is set from the thread that computes it and picked up at the start of the next
+ * buffer, buffers are filled on the audio thread. Nothing is allocated while filling.
+ */
+public class VarioToneGenerator {
+
+    public static final double CLIMB_THRESHOLD = 0.1;   // m/s, beeps from here up
+    public static final double SINK_THRESHOLD = -2.0;   // m/s, sink tone from here down
+
+    private static final double CLIMB_BASE_HZ = 700.0;
+    private static final double CLIMB_HZ_PER_MS = 100.0;
+    private static final double MAX_HZ = 2000.0;
+    private static final double SINK_BASE_HZ = 400.0;
+    private static final double SINK_HZ_PER_MS = 30.0;
+    private static final double MIN_HZ = 200.0;
+
+    private static final double BEEP_PERIOD = 0.6;       // s at the climb threshold
+    private static final double BEEP_PERIOD_PER_MS = 0.1;
+    private static final double MIN_BEEP_PERIOD = 0.15;
+    private static final double BEEP_DUTY = 0.5;
+
+    private static final double RAMP_SECONDS = 0.003;
+    private static final double AMPLITUDE = 0.6 * Short.MAX_VALUE;
+    private static final double TWO_PI = 2.0 * Math.PI;
+
+    private final int sampleRate;
+    private final double rampStep;  // gain change per frame
+
+    private volatile double vario;
+    private volatile long varioTimeNanos;
+    private volatile long varioSequence;
+
+    // Audio thread only
+    private double phase;       // of the tone, radians
+    private double beepPhase;   // of the cadence, 0..1
+    private double gain;        // 0..1, ramps towards the target
+    private long usedSequence;
+    private long usedTimeNanos;
+
+
+    /**
+     * @param sampleRate output rate in Hz
+     */
+    public VarioToneGenerator(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.rampStep = 1.0 / (RAMP_SECONDS * sampleRate);
+    }
+
+
+    /**
+     * Sets the vario to sound, called for every sample.
+     *
+     * @param vario vertical speed in m/s
+     * @param sampleTimeNanos System.nanoTime() when the sample was read, for latency measurement
+     */
+    public void setVario(double vario, long sampleTimeNanos) {
+        this.vario = vario;
+        this.varioTimeNanos = sampleTimeNanos;
+        this.varioSequence++;  // single writer, the thread processing the link
+    }
+
+
+    /**
+     * Fills a buffer with the tone for the current vario.
+     *
+     * @param buffer destination
+     * @param offset first frame to write
+     * @param frames number of frames
+     * @return true if this buffer is the first one using a newly set vario
+     */
+    public boolean fill(short[] buffer, int offset, int frames) {
+        // Sequence first, the vario read after it is at least as new
+        long sequence = varioSequence;
+        final double v = vario;
+        boolean updated = sequence != usedSequence;
+        if (updated) {
+            usedSequence = sequence;
+            usedTimeNanos = varioTimeNanos;
+        }
+
+        final boolean climbing = v >= CLIMB_THRESHOLD;
+        final boolean sinking = v <= SINK_THRESHOLD;
+        final double frequency = frequency(v);
+        final double phaseStep = TWO_PI * frequency / sampleRate;
+        final double beepStep = climbing ? 1.0 / (beepPeriod(v) * sampleRate) : 0.0;
+
+        double p = phase;
+        double b = beepPhase;
+        double g = gain;
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            boolean on = sinking || (climbing && b < BEEP_DUTY);
+            if (on) {
+                g = Math.min(1.0, g + rampStep);
+            }
+            else {
+                g = Math.max(0.0, g - rampStep);
+            }
+
+            buffer[i] = g > 0.0 ? (short) (AMPLITUDE * g * Math.sin(p)) : 0;
+
+            p += phaseStep;
+            if (p >= TWO_PI) {
+                p -= TWO_PI;
+            }
+            b += beepStep;
+            if (b >= 1.0) {
+                b -= 1.0;
+            }
+        }
+        phase = p;
+        // Silence restarts the cadence, the next climb starts with a beep
+        beepPhase = climbing ? b : 0.0;
+        gain = g;
+
+        return updated;
+    }
+
+
+    /**
+     * @return sample time of the vario used by the last filled buffer
+     */
+    public long getUsedSampleTimeNanos() {
+        return usedTimeNanos;
+    }
+
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+
+    /**
+     * @return tone frequency in Hz for a vario, climb and sink tone
+     */
+    public static double frequency(double vario) {
+        if (vario >= 0) {
+            return Math.min(MAX_HZ, CLIMB_BASE_HZ + CLIMB_HZ_PER_MS * vario);
+        }
+        return Math.max(MIN_HZ, SINK_BASE_HZ + SINK_HZ_PER_MS * vario);
+    }
+
+
+    /**
+     * @return seconds from one climb beep to the next
+     */
+    public static double beepPeriod(double vario) {
+        return Math.max(MIN_BEEP_PERIOD, BEEP_PERIOD - BEEP_PERIOD_PER_MS * vario);
+    }
+}
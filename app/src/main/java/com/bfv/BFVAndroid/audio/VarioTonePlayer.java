@@ -0,0 +1,248 @@
+package com.bfv.BFVAndroid.audio;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+
+/**
+ * Plays the vario tone through a streaming AudioTrack.
+ *
+ * The processing thread hands every vario value straight to {@link #setVario(double, long)}.
+ * An audio thread fills one preallocated buffer of a few milliseconds at a time and writes it
+ * to a track whose buffer is as small as the device allows, so a new vario is heard after
+ * little more than that buffer. On Android 8 and later the track asks for the low latency
+ * output path.
+ *
+ * Sample-to-sound latency is measured for every vario change that reaches a buffer: from the
+ * time the sample was read from the device to the time the first frame using it is presented,
+ * estimated from the track's playback position. On Android 4.4 and later that position comes
+ * with its presentation time and includes the output path, before it only covers the track
+ * buffer.
+ */
+public class VarioTonePlayer {
+    private static final String TAG = "VarioTonePlayer";
+
+    private static final int CHUNK_MILLIS = 5;
+
+    private final int sampleRate;
+    private final VarioToneGenerator generator;
+    private Thread audioThread;
+    private volatile boolean running;
+
+    // Latency of the sound, written by the audio thread
+    private volatile long lastLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile long latencyCount;
+    private volatile long latencySumNanos;
+    private volatile int bufferFrames;
+
+
+    public VarioTonePlayer() {
+        sampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+        generator = new VarioToneGenerator(sampleRate);
+    }
+
+
+    /**
+     * Starts the tone, does nothing if it is already playing
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        // The audio thread of a track that failed is ending by itself
+        join();
+        running = true;
+        audioThread = new Thread(this::play, "VarioAudioThread");
+        audioThread.start();
+    }
+
+
+    /**
+     * Stops the tone and waits for the track to be released
+     */
+    public synchronized void stop() {
+        if (audioThread == null) {
+            return;
+        }
+        running = false;
+        audioThread.interrupt();
+        join();
+    }
+
+
+    private void join() {
+        if (audioThread == null) {
+            return;
+        }
+        try {
+            audioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        audioThread = null;
+    }
+
+
+    public boolean isPlaying() {
+        return running;
+    }
+
+
+    /**
+     * Called from the processing thread for every sample, and with 0 when its link ends
+     *
+     * @param vario vertical speed in m/s
+     * @param sampleTimeNanos System.nanoTime() when the sample was read
+     */
+    public void setVario(double vario, long sampleTimeNanos) {
+        generator.setVario(vario, sampleTimeNanos);
+    }
+
+
+    private void play() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+        final int chunkFrames = sampleRate * CHUNK_MILLIS / 1000;
+        final int minBytes = AudioTrack.getMinBufferSize(sampleRate,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        final int bufferBytes = Math.max(minBytes, chunkFrames * 2);
+        bufferFrames = bufferBytes / 2;
+
+        AudioTrack track;
+        try {
+            track = createTrack(bufferBytes);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            Log.e(TAG, "AudioTrack not created", e);
+            running = false;
+            return;
+        }
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            Log.e(TAG, "AudioTrack not initialized");
+            track.release();
+            running = false;
+            return;
+        }
+
+        final short[] buffer = new short[chunkFrames];
+        final AudioTimestamp timestamp =
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? new AudioTimestamp() : null;
+        long framesWritten = 0;
+
+        try {
+            track.play();
+            while (running) {
+                boolean updated = generator.fill(buffer, 0, chunkFrames);
+                if (updated) {
+                    recordLatency(track, timestamp, framesWritten);
+                }
+
+                int written = track.write(buffer, 0, chunkFrames);
+                if (written < 0) {
+                    Log.e(TAG, "AudioTrack write failed: " + written);
+                    break;
+                }
+                framesWritten += written;
+            }
+        } finally {
+            track.pause();
+            track.flush();
+            track.release();
+            running = false;
+        }
+    }
+
+
+    private AudioTrack createTrack(int bufferBytes) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return new AudioTrack.Builder()
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                            .build())
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setSampleRate(sampleRate)
+                            .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                            .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+                            .build())
+                    .setBufferSizeInBytes(bufferBytes)
+                    .setTransferMode(AudioTrack.MODE_STREAM)
+                    .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                    .build();
+        }
+        return new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, AudioFormat.CHANNEL_OUT_MONO,
+                AudioFormat.ENCODING_PCM_16BIT, bufferBytes, AudioTrack.MODE_STREAM);
+    }
+
+
+    /**
+     * Estimates when frame framesWritten, the first one of the buffer about to be written,
+     * will be heard
+     */
+    private void recordLatency(AudioTrack track, AudioTimestamp timestamp, long framesWritten) {
+        long now = System.nanoTime();
+        long presentNanos;
+        if (timestamp != null && track.getTimestamp(timestamp)) {
+            presentNanos = timestamp.nanoTime
+                    + (framesWritten - timestamp.framePosition) * 1000000000L / sampleRate;
+        }
+        else {
+            // Head position is a 32 bit frame counter
+            long head = track.getPlaybackHeadPosition() & 0xffffffffL;
+            long queued = Math.max(0, (framesWritten & 0xffffffffL) - head);
+            presentNanos = now + queued * 1000000000L / sampleRate;
+        }
+
+        long latency = Math.max(0, presentNanos - generator.getUsedSampleTimeNanos());
+        lastLatencyNanos = latency;
+        if (latency > maxLatencyNanos) {
+            maxLatencyNanos = latency;
+        }
+        latencySumNanos += latency;
+        latencyCount++;
+    }
+
+
+    /**
+     * @return sample-to-sound latency of the last vario change, in ns
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+
+    /**
+     * @return average sample-to-sound latency since the app started, in ns
+     */
+    public long getAverageLatencyNanos() {
+        long count = latencyCount;
+        return count == 0 ? 0 : latencySumNanos / count;
+    }
+
+
+    /**
+     * @return highest sample-to-sound latency since the app started, in ns
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+
+    /**
+     * @return size of the track buffer in frames, 0 before the first start
+     */
+    public int getBufferFrames() {
+        return bufferFrames;
+    }
+
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+}
@@ -1,21 +1,49 @@
 package com.bfv.BFVAndroid.bluetooth;
 
 import android.app.Application;
+import android.os.Debug;
+
+import com.bfv.BFVAndroid.audio.VarioTonePlayer;
+import com.bfv.BFVAndroid.parameters.ProfileRepository;
+import com.bfv.BFVAndroid.session.SessionManager;
+
+import java.io.File;
 
 
 public class BluetoothApplication extends Application {
 
     private BluetoothProvider bluetoothProvider;
+    private VarioTonePlayer varioTonePlayer;
+    private SessionManager benchSessions;
 
     @Override
     public void onCreate() {
         super.onCreate();
 
-        bluetoothProvider = new BluetoothProvider();
+        // Last known parameters of every device, shown right away on the next connect
+        ProfileRepository profiles = new ProfileRepository(new File(getFilesDir(), "profiles"));
+        varioTonePlayer = new VarioTonePlayer();
+        bluetoothProvider = new BluetoothProvider(profiles, varioTonePlayer);
     }
 
 
     public BluetoothProvider getBluetoothProvider(){
         return bluetoothProvider;
     }
+
+
+    public VarioTonePlayer getVarioTonePlayer() {
+        return varioTonePlayer;
+    }
+
+
+    /**
+     * @return sessions of the devices compared on the bench, created on first use
+     */
+    public SessionManager getBenchSessions() {
+        if (benchSessions == null) {
+            benchSessions = new SessionManager(SessionManager.DEFAULT_THREADS, Debug::threadCpuTimeNanos);
+        }
+        return benchSessions;
+    }
 }
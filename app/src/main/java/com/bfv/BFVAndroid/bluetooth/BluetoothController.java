@@ -2,11 +2,22 @@ package com.bfv.BFVAndroid.bluetooth;
 
 import android.bluetooth.BluetoothDevice;
 
+import com.bfv.BFVAndroid.ingest.SampleClock;
+import com.bfv.BFVAndroid.telemetry.LinkStats;
+import com.bfv.BFVAndroid.transport.CommandFuture;
+
 public interface BluetoothController {
     void connectBtDevice(BluetoothDevice bd);
     void disconnectBtDevice();
-    boolean writeToBT(String data);
+    CommandFuture writeToBT(String data);
+    CommandFuture writeToBT(String key, String data);
     int getState();
     BluetoothDevice getConnectedDevice();
     BluetoothDevice getPreviousConnectedDevice();
+    LinkStats getLinkStats();
+    int getWriterQueueDepth();
+    long getWriterAverageLatencyNanos();
+    long getIngestOverflowCount();
+    int getIngestHighWaterMark();
+    SampleClock getSampleClock();
 }
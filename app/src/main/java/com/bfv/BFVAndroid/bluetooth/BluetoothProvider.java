@@ -2,48 +2,80 @@ package com.bfv.BFVAndroid.bluetooth;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.util.Log;
 
 import com.bfv.BFVAndroid.SharedDataViewModel;
-import com.bfv.BFVAndroid.kalmanFilteredVario.KalmanFilteredVario;
+import com.bfv.BFVAndroid.audio.VarioTonePlayer;
+import com.bfv.BFVAndroid.ingest.AltitudeTable;
+import com.bfv.BFVAndroid.ingest.LineDispatcher;
+import com.bfv.BFVAndroid.ingest.LineFramer;
+import com.bfv.BFVAndroid.ingest.LineRing;
+import com.bfv.BFVAndroid.ingest.SampleClock;
+import com.bfv.BFVAndroid.kalmanFilteredVario.VarioFilterBank;
+import com.bfv.BFVAndroid.parameters.ParameterProfile;
+import com.bfv.BFVAndroid.parameters.ProfileRepository;
+import com.bfv.BFVAndroid.telemetry.LinkStats;
+import com.bfv.BFVAndroid.telemetry.PipelineLatency;
+import com.bfv.BFVAndroid.telemetry.RawDataLog;
+import com.bfv.BFVAndroid.telemetry.TelemetrySnapshot;
+import com.bfv.BFVAndroid.transport.CommandFuture;
+import com.bfv.BFVAndroid.transport.CommandWriter;
+import com.bfv.BFVAndroid.transport.LinkState;
+import com.bfv.BFVAndroid.transport.ReconnectBackoff;
+import com.bfv.BFVAndroid.transport.StallWatchdog;
+import com.bfv.BFVAndroid.transport.Transport;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.util.UUID;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import BFVLib.BFV;
 
 
 /**
  * Class to handle BT connection
- * FIXME: if user clicks disconnect/connect before the device closes socket on its side we get new
- *  socket from the device but no output on that socket
- *  WORKAROUNDS:
- *      1. Reuse sockets?
- *      2. Wait for xy seconds before actually trying to connect to the same device
+ * Bluetooth devices are reached over RfcommTransport, any other Transport can be connected
+ * the same way (loopback, replay) to run the app without a device.
+ *
+ * Nothing here takes a lock. The connection state and its generation live in one LinkState
+ * word and only change by CAS: connect() starts a new generation, the ConnectThread moves it
+ * from connecting to connected, and disconnect() or a lost link ends it. Every connection is a
+ * Session holding its threads and transport, and its threads only act through transitions of
+ * their own generation, so a thread of an earlier connection can't touch the current one.
+ * Whoever wins a transition does the work that comes with it. Transports are closed on the
+ * LinkCloserThread, calls from the UI never wait on socket I/O.
+ *
+ * A bluetooth link that is lost, closed by the device or silent for longer than the
+ * StallWatchdog allows, is torn down and the same device is reconnected with a jittered
+ * backoff until data flows again, unless the user disconnected. If the user clicks
+ * disconnect/connect before the device closes the socket on its side we get a new socket from
+ * the device but no output on it, so connecting to a device always waits until its last link
+ * had ReconnectBackoff.CLOSE_SETTLE_NANOS to settle.
+ *
+ * The vario filters survive a lost link: the ProcessingThread of the lost connection saves
+ * their state and the one of the reconnect resumes from it if the gap is short, otherwise the
+ * filters are seeded from the first new altitude. A ProcessingThread waits for the one of the
+ * previous connection to end before it starts, so the filters, the telemetry and the tone
+ * only ever have one writer and the saved state is handed over by that wait.
+ * The filters step by the time the SampleClock reconstructs for each sample from the arrival
+ * times of the lines, not by when the lines happened to be parsed.
  */
 public class BluetoothProvider {
     private static final String TAG = "BluetoothProvider";
 
-    // "random" unique identifier
-    private static final UUID BT_MODULE_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-
-    private final KalmanFilteredVario kalmanFilteredVario;
-    private long lastAltitudeTime;
-    private boolean firstAltitude = true;
-
-    // Member fields
-    private final BluetoothAdapter mBluetoothAdapter;
-    private ConnectThread mConnectThread;
-    private ConnectedThread mConnectedThread;
-    private BluetoothDevice connectedDevice;
-    private BluetoothDevice previousConnectedDevice;
-    private volatile int mState;
-    private volatile int mNewState;
+    // How long the processing thread parks when there is nothing to do
+    private static final long PROCESSING_PARK_NANOS = 100000000L;  // 100ms
 
-    private SharedDataViewModel sharedData;
+    // Longest gap the vario filters are carried over after a lost link, longer gaps start over
+    private static final long WARM_START_MAX_GAP_NANOS = 5000000000L;  // 5s
 
     // Constants that indicate the current connection state
     public static final int STATE_DISCONNECTED = 0;       //disconnected
@@ -53,19 +85,44 @@ public class BluetoothProvider {
     public static final int STATE_BLUETOOTH_DISABLED = 66;  // phone doesn't have bluetooth
     public static final int STATE_NO_BLUETOOTH_ADAPTER = 99;  // bluetooth is disabled by user
 
+    // Member fields
+    private final BluetoothAdapter mBluetoothAdapter;
+    private final LinkState linkState = new LinkState(STATE_DISCONNECTED);
+    private final AtomicReference<Session> currentSession = new AtomicReference<>();
+    private final ExecutorService closer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "LinkCloserThread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile BluetoothDevice connectedDevice;
+    private volatile BluetoothDevice previousConnectedDevice;
+
+    private SharedDataViewModel sharedData;
+    private final ProfileRepository profileRepository;
+    private final VarioTonePlayer tonePlayer;
+    private final LinkStats linkStats = new LinkStats();
+    private volatile SampleClock sampleClock = new SampleClock();  // of the last connection
+
+    // Auto reconnect
+    private final ReconnectBackoff backoff = new ReconnectBackoff(new Random());
+    private volatile BluetoothDevice reconnectDevice;  // device to come back to, null after disconnect()
+    private final AtomicLong outageStartNanos = new AtomicLong();  // last line before the link was lost, 0 if it wasn't
+    private volatile boolean autoReconnect = true;
+    private volatile int stallPeriods = StallWatchdog.DEFAULT_MISSED_PERIODS;
+
+    // ProcessingThread of the last connection, the next one waits for it to end
+    private final AtomicReference<ProcessingThread> lastProcessingThread = new AtomicReference<>();
+
 
     /**
      * This class does all the work for setting up and managing Bluetooth
      * connections with other devices. It has a thread for connecting with a device
      * and a thread for performing data transmissions when connected.
      */
-    public BluetoothProvider() {
+    public BluetoothProvider(ProfileRepository profileRepository, VarioTonePlayer tonePlayer) {
+        this.profileRepository = profileRepository;
+        this.tonePlayer = tonePlayer;
         mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        mState = STATE_DISCONNECTED;
-        mNewState = mState;
-        connectedDevice = null;
-        previousConnectedDevice = null;
-        kalmanFilteredVario = new KalmanFilteredVario(0.2, 0.5);
     }
 
 
@@ -74,83 +131,141 @@ public class BluetoothProvider {
      *
      * @param device The BluetoothDevice to connect
      */
-    public synchronized void connect(BluetoothDevice device) {
-        Log.d(TAG, "connect() to: " + device);
-
-        if (mState == STATE_CONNECTING) {
-            // If we are getting request to connect to the same device that we are
-            //  already connecting to - do nothing
-            if(mConnectThread.getDevice().getAddress().equals(device.getAddress())) {
-                Log.d(TAG, "connect() already connecting to: " + device);
-                return;
-            }
+    public void connect(BluetoothDevice device) {
+        Transport transport = createTransport(device);
+        if (transport == null) {
+            return;
+        }
 
-            // Cancel any thread attempting to make a connection
-            if (mConnectThread != null) {
-                mConnectThread.cancel();
-                mConnectThread = null;
-            }
+        // Reconnect to this device if the link is lost
+        reconnectDevice = device;
+        outageStartNanos.set(0);
+        backoff.reset();
+
+        startConnect(transport, backoff.settleRemainingNanos(transport.getAddress(), System.nanoTime()), false);
+    }
+
+
+    /**
+     * Start the ConnectThread to initiate a connection over the given transport.
+     * Only bluetooth devices are reconnected, a lost transport stays disconnected.
+     *
+     * @param transport The Transport to connect
+     */
+    public void connect(Transport transport) {
+        reconnectDevice = null;
+        outageStartNanos.set(0);
+
+        startConnect(transport, 0, false);
+    }
+
+
+    private Transport createTransport(BluetoothDevice device) {
+        try {
+            return new RfcommTransport(mBluetoothAdapter, device);
+        } catch (IOException e) {
+            Log.e(TAG, "createInsecureRfcommSocketToServiceRecord() failed", e);
+            return null;
         }
+    }
 
-        // Cancel any thread currently running a connection
-        if (mConnectedThread != null) {
-            // If we are getting request to connect to the same device that we are
-            //  already connected to - do nothing
-            if(getConnectedDevice().getAddress().equals(device.getAddress())) {
-                Log.d(TAG, "connect() already connected to: " + device);
-                return;
-            }
 
-            mConnectedThread.cancel();
-            mConnectedThread = null;
+    /**
+     * Start a new Session unless already connecting or connected to the same address.
+     * The running Session, if any, is ended and closed.
+     *
+     * @param transport The Transport to connect
+     * @param delayNanos how long the ConnectThread waits before connecting
+     * @param resume true to resume the vario filters of the lost link, for a reconnect
+     * @return generation of the new Session, -1 if none was started
+     */
+    private long startConnect(Transport transport, long delayNanos, boolean resume) {
+        Log.d(TAG, "connect() to: " + transport.getAddress());
+
+        // If we are getting request to connect to the same device that we are
+        //  already connecting or connected to - do nothing
+        long word = linkState.get();
+        Session running = currentSession.get();
+        if (LinkState.state(word) != STATE_DISCONNECTED && running != null
+                && running.generation == LinkState.generation(word)
+                && running.address.equals(transport.getAddress())) {
+            Log.d(TAG, "connect() already connecting or connected to: " + transport.getAddress());
+            return -1;
         }
 
-        // Start the thread to connect with the given device
-        mConnectThread = new ConnectThread(device);
-        mConnectThread.start();
+        long generation = LinkState.generation(linkState.begin(STATE_CONNECTING));
+        install(new Session(generation, transport, delayNanos, resume));
 
         // Update ConnectionStatus
         updateConnectionStatusInfo();
+        return generation;
+    }
+
+
+    /**
+     * Makes a Session the current one and starts it, closing the one it replaces. Sessions
+     * only ever replace older ones, a Session that lost the race or whose generation already
+     * ended is closed instead.
+     */
+    private void install(Session session) {
+        while (true) {
+            Session previous = currentSession.get();
+            if (previous != null && previous.generation > session.generation) {
+                session.close();
+                return;
+            }
+            if (currentSession.compareAndSet(previous, session)) {
+                if (previous != null) {
+                    previous.close();
+                }
+                // A disconnect() that ended this generation before it was installed missed it
+                if (linkState.isCurrent(session.generation)) {
+                    session.start();
+                }
+                else {
+                    session.close();
+                }
+                return;
+            }
+        }
     }
 
 
     /**
      * Disconnect from device
      */
-    public synchronized void disconnect() {
+    public void disconnect() {
         Log.d(TAG, "disconnect()");
 
-        // Cancel any thread attempting to make a connection
-        if (mState == STATE_CONNECTING) {
-            if (mConnectThread != null) {
-                mConnectThread.cancel();
-                mConnectThread.interrupt();
-                mConnectThread = null;
+        // User asked for it, don't reconnect. The next connect starts the vario over.
+        reconnectDevice = null;
+        outageStartNanos.set(0);
 
-            }
-        }
+        linkState.endAny();
+        stop(currentSession.get());
+    }
 
-        // Cancel any thread currently running a connection
-        if (mConnectedThread != null) {
-            mConnectedThread.cancel();
-            mConnectedThread.interrupt();
-            mConnectedThread = null;
-        }
 
-        mState = STATE_DISCONNECTED;
+    /**
+     * Close a Session whose generation was ended and reset what was shown of it
+     */
+    private void stop(Session session) {
+        if (session != null) {
+            session.close();
+        }
 
         // NOTE: uncomment to hide after disconnect
         //sharedData.getBfv().resetAllValues();
         //sharedData.resetDeviceData();
 
-        if(connectedDevice != null) {
-            previousConnectedDevice = connectedDevice;
+        BluetoothDevice device = connectedDevice;
+        if(device != null) {
+            previousConnectedDevice = device;
         }
         connectedDevice = null;
 
-        kalmanFilteredVario.reset();
-        firstAltitude = true;
-        sharedData.setVario(0.0);
+        // The filters are saved or reset, the vario shown as 0 and the tone silenced by the
+        // ProcessingThread when it ends, telemetry and tone are only ever set from there
 
         // Update ConnectionStatus
         updateConnectionStatusInfo();
@@ -158,22 +273,147 @@ public class BluetoothProvider {
 
 
     /**
-     * Write to the ConnectedThread in an unsynchronized manner
+     * The link of a Session was closed by the device, failed or stalled
      *
-     * @param out The bytes to write
-     * @return true if written, false otherwise
-     * @see ConnectedThread#write(String)
+     * @param session the Session of the link, ignored if its generation is over
+     * @param lastLineNanos System.nanoTime() when the last data arrived, 0 if it never did
+     * @param stalled true if the link is open but silent
      */
-    public boolean write(String out) {
-        // Create temporary object
-        ConnectedThread r;
-        // Synchronize a copy of the ConnectedThread
-        synchronized (this) {
-            if (mState != STATE_CONNECTED) return false;
-            r = mConnectedThread;
+    private void connectionLost(Session session, long lastLineNanos, boolean stalled) {
+        if (!linkState.end(session.generation)) {
+            return;
         }
-        // Perform the write unsynchronized
-        return r.write(out);
+        Log.i(TAG, (stalled ? "Stalled" : "Lost") + " connection to " + session.address);
+        session.lost = true;
+
+        if (stalled) {
+            linkStats.onStall();
+        }
+        // Recovery time counts from the last data of the first link lost
+        outageStartNanos.compareAndSet(0, lastLineNanos != 0 ? lastLineNanos : System.nanoTime());
+
+        stop(session);
+        reconnect();
+    }
+
+
+    /**
+     * The ConnectThread of a Session couldn't connect
+     *
+     * @param session the failed Session, ignored if its generation is over
+     */
+    private void connectionFailed(Session session) {
+        if (!linkState.end(session.generation)) {
+            return;
+        }
+
+        stop(session);
+        // Only links that were lost are retried, not a first connect the user asked for
+        if (outageStartNanos.get() != 0) {
+            reconnect();
+        }
+    }
+
+
+    /**
+     * Starts connecting to the device of the lost link after the backoff delay
+     */
+    private void reconnect() {
+        BluetoothDevice device = reconnectDevice;
+        if (!autoReconnect || device == null) {
+            outageStartNanos.set(0);
+            return;
+        }
+        Transport transport = createTransport(device);
+        if (transport == null) {
+            outageStartNanos.set(0);
+            return;
+        }
+
+        long delay = Math.max(backoff.nextDelayNanos(),
+                backoff.settleRemainingNanos(transport.getAddress(), System.nanoTime()));
+        Log.i(TAG, "Reconnecting to " + transport.getAddress() + " in " + delay / 1000000
+                + "ms, attempt " + backoff.getAttempt());
+        long generation = startConnect(transport, delay, true);
+
+        // disconnect() clears reconnectDevice before it ends the state, if it ran meanwhile
+        // but ended an earlier generation this one is ended here
+        if (generation >= 0 && reconnectDevice == null && linkState.end(generation)) {
+            stop(currentSession.get());
+        }
+    }
+
+
+    /**
+     * The first sample arrived on a new link
+     */
+    private void recovered(long timestampNanos) {
+        backoff.reset();
+        long start = outageStartNanos.getAndSet(0);
+        if (start != 0) {
+            linkStats.onRecovered(timestampNanos - start);
+        }
+    }
+
+
+    /**
+     * @param enabled reconnect to the last device when its link is lost
+     */
+    public void setAutoReconnect(boolean enabled) {
+        autoReconnect = enabled;
+    }
+
+
+    public boolean isAutoReconnect() {
+        return autoReconnect;
+    }
+
+
+    /**
+     * @param periods sample periods without data before a link counts as stalled, takes effect
+     *                on the running connection
+     */
+    public void setStallPeriods(int periods) {
+        if (periods < StallWatchdog.MIN_MISSED_PERIODS) {
+            throw new IllegalArgumentException("periods must be >= "
+                    + StallWatchdog.MIN_MISSED_PERIODS + ": " + periods);
+        }
+        stallPeriods = periods;
+    }
+
+
+    public int getStallPeriods() {
+        return stallPeriods;
+    }
+
+
+    /**
+     * Queue a command on the ConnectedThread's writer, never blocks on the link
+     *
+     * @param out The command to write
+     * @return completes when the command was written or failed
+     * @see #write(String, String)
+     */
+    public CommandFuture write(String out) {
+        return write(null, out);
+    }
+
+
+    /**
+     * Queue a command on the ConnectedThread's writer, replacing a queued command with the same
+     * key that wasn't written yet.
+     *
+     * @param key usually the command code of a parameter, null to never coalesce
+     * @param out The command to write
+     * @return completes when the command was written or failed
+     */
+    public CommandFuture write(String key, String out) {
+        ConnectedThread r = getConnectedThread();
+        if (r == null) {
+            return CommandFuture.failed(new IOException("Not connected"));
+        }
+        // Queueing only takes the writer's lock, a writer closed meanwhile fails the command
+        return r.getWriter().write(key, out);
     }
 
 
@@ -183,7 +423,7 @@ public class BluetoothProvider {
 
 
     public int getState() {
-        return mState;
+        return linkState.getState();
     }
 
 
@@ -198,265 +438,647 @@ public class BluetoothProvider {
 
 
     /**
-     * Update ConnectionStatus according to the current state of the chat connection
+     * @return ConnectedThread of the current Session, null if not connected
+     */
+    private ConnectedThread getConnectedThread() {
+        long word = linkState.get();
+        Session session = currentSession.get();
+        if (LinkState.state(word) != STATE_CONNECTED || session == null
+                || session.generation != LinkState.generation(word)) {
+            return null;
+        }
+        return session.connectedThread;
+    }
+
+
+    /**
+     * @return lines dropped on the current connection because processing couldn't keep up
      */
-    private synchronized void updateConnectionStatusInfo() {
-        Log.d(TAG, "updateConnectionStatusInfo() " + mNewState + " -> " + mState);
-        mNewState = mState;
+    public long getIngestOverflowCount() {
+        ConnectedThread r = getConnectedThread();
+        return r != null ? r.getLineRing().getOverflowCount() : 0;
+    }
+
 
-        // Give the new state to the Handler so the UI Activity can update
-        sharedData.setConnectionState(mNewState);
+    /**
+     * @return most lines waiting for processing at once on the current connection
+     */
+    public int getIngestHighWaterMark() {
+        ConnectedThread r = getConnectedThread();
+        return r != null ? r.getLineRing().getHighWaterMark() : 0;
     }
 
 
     /**
-     * Start the ConnectedThread to begin managing a Bluetooth connection
-     *
-     * @param socket The BluetoothSocket on which the connection was made
-     * @param device The BluetoothDevice that has been connected
+     * @return health counters of the link, kept across connections
+     */
+    public LinkStats getLinkStats() {
+        return linkStats;
+    }
+
+
+    /**
+     * @return sample timing of the current or last connection
+     */
+    public SampleClock getSampleClock() {
+        return sampleClock;
+    }
+
+
+    /**
+     * @return commands waiting to be written on the current connection
      */
-    private synchronized void connected(BluetoothSocket socket, BluetoothDevice
-            device) {
-        Log.d(TAG, "connected() to socket: " + socket + " device: " + device);
+    public int getWriterQueueDepth() {
+        ConnectedThread r = getConnectedThread();
+        return r != null ? r.getWriter().getQueueDepth() : 0;
+    }
+
 
-        // Cancel the thread that completed the connection
-        if (mConnectThread != null) {
-            mConnectThread.cancel();
-            mConnectThread = null;
+    /**
+     * @return average time from queueing a command to it being written on the current connection
+     */
+    public long getWriterAverageLatencyNanos() {
+        ConnectedThread r = getConnectedThread();
+        return r != null ? r.getWriter().getAverageLatencyNanos() : 0;
+    }
+
+
+    /**
+     * Update ConnectionStatus according to the current state of the connection.
+     * The state is posted again if it changed while posting, so the last post always shows
+     * the latest state whichever thread posts last.
+     */
+    private void updateConnectionStatusInfo() {
+        long word;
+        do {
+            word = linkState.get();
+            Log.d(TAG, "updateConnectionStatusInfo() " + LinkState.state(word)
+                    + " generation " + LinkState.generation(word));
+            sharedData.setConnectionState(LinkState.state(word));
+        } while (linkState.get() != word);
+    }
+
+
+    /**
+     * Start the ConnectedThread to begin managing a connection
+     *
+     * @param session The Session whose ConnectThread made the connection
+     * @param transport The Transport on which the connection was made
+     */
+    private void connected(Session session, Transport transport) {
+        Log.d(TAG, "connected() to: " + transport.getAddress());
+
+        ConnectedThread thread;
+        try {
+            thread = new ConnectedThread(session, transport);
+        } catch (IOException e) {
+            Log.e(TAG, "tmpIn/tmpOut sockets not created", e);
+            connectionFailed(session);
+            return;
         }
 
-        // Cancel any thread currently running a connection
-        if (mConnectedThread != null) {
-            mConnectedThread.cancel();
-            mConnectedThread = null;
+        // A connect that was cancelled in the meantime made it anyway
+        if (!linkState.transition(session.generation, STATE_CONNECTING, STATE_CONNECTED)) {
+            session.close();
+            return;
         }
 
-        // Start the thread to manage the connection and perform transmissions
-        mConnectedThread = new ConnectedThread(socket);
-        mConnectedThread.start();
+        linkStats.onConnected();
 
-        connectedDevice = device;
+        // Only bluetooth links have a device to show in DevicesFragment
+        connectedDevice = transport instanceof RfcommTransport
+                ? ((RfcommTransport) transport).getDevice() : null;
+
+        // Start the thread to manage the connection and perform transmissions
+        session.startConnected(thread);
 
         // Update ConnectionStatus
         updateConnectionStatusInfo();
     }
 
 
+    /**
+     * One connection attempt and, if it succeeds, the connection: its generation, transport
+     * and threads. Closing is idempotent, runs on the LinkCloserThread and may happen before,
+     * while or after the threads start. Starting the ConnectedThread and closing change the
+     * state by CAS, only one of them wins.
+     */
+    private class Session {
+        private static final int SESSION_OPEN = 0;
+        private static final int SESSION_STARTED = 1;  // ConnectedThread started
+        private static final int SESSION_CLOSED = 2;
+
+        final long generation;
+        final String address;
+        private final Transport transport;
+        private final ConnectThread connectThread;
+        private volatile ConnectedThread connectedThread;
+        private final AtomicInteger state = new AtomicInteger(SESSION_OPEN);
+        final boolean resume;  // reconnect of a lost link, its filters are resumed
+        volatile boolean lost;  // ended by connectionLost(), not by the user
+
+        Session(long generation, Transport transport, long delayNanos, boolean resume) {
+            this.generation = generation;
+            this.transport = transport;
+            this.resume = resume;
+            address = transport.getAddress();
+            connectThread = new ConnectThread(this, transport, delayNanos);
+        }
+
+        void start() {
+            connectThread.start();
+        }
+
+        boolean isClosed() {
+            return state.get() == SESSION_CLOSED;
+        }
+
+        /**
+         * Start the ConnectedThread, or cancel it if the Session was closed meanwhile. A close()
+         * after the start finds the thread and cancels it.
+         */
+        void startConnected(ConnectedThread thread) {
+            connectedThread = thread;
+            if (state.compareAndSet(SESSION_OPEN, SESSION_STARTED)) {
+                thread.start();
+            }
+            else {
+                thread.cancel();
+            }
+        }
+
+        void close() {
+            if (state.getAndSet(SESSION_CLOSED) == SESSION_CLOSED) {
+                return;
+            }
+            // Settling counts from now, a connect right after this mustn't miss it
+            if (connectedThread != null) {
+                backoff.onClosed(address, System.nanoTime());
+            }
+            closer.execute(() -> {
+                connectThread.interrupt();
+                ConnectedThread thread = connectedThread;
+                if (thread != null) {
+                    thread.cancel();
+                    thread.interrupt();
+                }
+                try {
+                    transport.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "close() of connect transport failed", e);
+                }
+            });
+        }
+    }
+
+
     /**
      * This thread runs while attempting to make an outgoing connection
      * with a device. It runs straight through; the connection either
      * succeeds or fails.
      */
     private class ConnectThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final BluetoothDevice mmDevice;
-
-        public ConnectThread(BluetoothDevice device) {
-            mmDevice = device;
-            BluetoothSocket tmp = null;
-
-            // Get a BluetoothSocket for a connection with the given BluetoothDevice
-            try {
-                tmp = device.createInsecureRfcommSocketToServiceRecord(
-                        BT_MODULE_UUID);
-            } catch (IOException e) {
-                Log.e(TAG, "createInsecureRfcommSocketToServiceRecord() failed", e);
-            }
-            mmSocket = tmp;
-            mState = STATE_CONNECTING;
+        private final Session mmSession;
+        private final Transport mmTransport;
+        private final long mmDelayNanos;
+
+        public ConnectThread(Session session, Transport transport, long delayNanos) {
+            mmSession = session;
+            mmTransport = transport;
+            mmDelayNanos = delayNanos;
         }
 
         public void run() {
             Log.i(TAG, "run() ConnectThread");
             setName("ConnectThread");
 
-            // Always cancel discovery because it will slow down a connection
-            mBluetoothAdapter.cancelDiscovery();
+            // Back off or let the device settle, closing the Session interrupts the wait
+            if (mmDelayNanos > 0) {
+                try {
+                    Thread.sleep(mmDelayNanos / 1000000, (int) (mmDelayNanos % 1000000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (mmSession.isClosed()) {
+                return;
+            }
 
-            // Make a connection to the BluetoothSocket
+            // Make a connection to the Transport
             try {
                 // This is a blocking call and will only return on a
                 // successful connection or an exception
-                mmSocket.connect();
+                mmTransport.connect();
             } catch (IOException e) {
-                // Close the socket
+                // Close the transport
                 try {
-                    mmSocket.close();
+                    mmTransport.close();
                 } catch (IOException e2) {
-                    Log.e(TAG, "unable to close() socket during connection failure", e2);
+                    Log.e(TAG, "unable to close() transport during connection failure", e2);
                 }
-                disconnect();
+                connectionFailed(mmSession);
                 return;
             }
 
-            // Reset the ConnectThread because we're done
-            synchronized (BluetoothProvider.this) {
-                mConnectThread = null;
-            }
-
             // Start the connected thread
-            connected(mmSocket, mmDevice);
-        }
-
-        public void cancel() {
-            try {
-                mmSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "close() of connect socket failed", e);
-            }
-        }
-
-        public BluetoothDevice getDevice() {
-            return mmDevice;
+            connected(mmSession, mmTransport);
         }
     }
 
 
     /**
      * This thread runs during a connection with a remote device.
-     * It handles all incoming and outgoing transmissions.
+     * It handles all incoming and outgoing transmissions. Incoming lines are only framed and
+     * queued here, parsing happens on the ProcessingThread so a slow consumer never holds up
+     * reading from the socket.
      */
-    private class ConnectedThread extends Thread {
-        private BluetoothSocket mmSocket;
-        private BufferedReader mmInStream;
-        private OutputStream mmOutStream;
-
-        public ConnectedThread(BluetoothSocket socket) {
+    private class ConnectedThread extends Thread implements LineFramer.LineListener {
+        private final Session mmSession;
+        private final InputStream mmInStream;
+        private final OutputStream mmOutStream;
+        private final LineFramer mmFramer;
+        private final LineRing mmRing;
+        private final ProcessingThread mmProcessingThread;
+        private final CommandWriter mmWriter;
+        private final AtomicBoolean mmCancelled = new AtomicBoolean();
+
+        public ConnectedThread(Session session, Transport transport) throws IOException {
             Log.d(TAG, "create ConnectedThread");
-            mmSocket = socket;
-            InputStream tmpIn = null;
-            OutputStream tmpOut = null;
+            mmSession = session;
 
-            // Get the BluetoothSocket input and output streams
-            try {
-                tmpIn = socket.getInputStream();
-                tmpOut = socket.getOutputStream();
-            } catch (IOException e) {
-                Log.e(TAG, "tmpIn/tmpOut sockets not created", e);
-                disconnect();
-            }
+            // Get the Transport input and output streams
+            mmInStream = transport.getInputStream();
+            mmOutStream = transport.getOutputStream();
 
-            mmInStream = new BufferedReader(new InputStreamReader(tmpIn));
-            mmOutStream = tmpOut;
-            mState = STATE_CONNECTED;
+            mmFramer = new LineFramer();
+            mmRing = new LineRing();
+            mmProcessingThread = new ProcessingThread(session, mmRing, session.address);
+            mmWriter = new CommandWriter(mmOutStream, CommandWriter.DEFAULT_CAPACITY,
+                    (command, latencyNanos) -> sharedData.appendRawData(RawDataLog.DIRECTION_OUT, command));
         }
 
         public void run() {
             Log.i(TAG, "run() ConnectedThread");
             setName("ConnectedThread");
 
-            // Keep reading from InputStream while connected
-            boolean sendGetSettings = true;
-            String line;
-            while (mState == STATE_CONNECTED) {
+            // Closed between the start and now. A cancel() from here on still reaches the
+            // threads, started after it they end straight away.
+            if (mmCancelled.get() || !linkState.isCurrent(mmSession.generation)) {
+                return;
+            }
+            mmProcessingThread.start();
+            mmWriter.start();
+
+            // Keep reading from InputStream until cancelled
+            while (!mmCancelled.get()) {
                 try {
-                    // Read from the InputStream
-                    line = mmInStream.readLine();
-
-                    // Parse data
-                    sharedData.getBfv().parseLine(line);
-
-                    // Update sharedData.rawData
-                    sharedData.setRawData("In: " + line);
-
-                    // Calling here because device doesn't send settings automatically when
-                    // connected over bluetooth
-                    boolean hw = sharedData.getBfv().isUpdatedHardwareVersion();
-                    boolean uv = sharedData.getBfv().checkUpdatedValues();
-                    if(hw && !(uv) && sendGetSettings) {
-                        sharedData.setDeviceHwVersion(sharedData.getBfv().getHwVersion());
-                        write(sharedData.getBfv().getAllCommands().get("getSettings").serializeCommand());
-                        sendGetSettings = false;
+                    // Read whatever is available, complete lines are passed to onLine()
+                    int n = mmFramer.read(mmInStream, this);
+                    if (n < 0) {
+                        Log.i(TAG, "End of stream in mConnectedThread.run()");
+                        connectionLost(mmSession, mmFramer.getReadTimeNanos(), false);
+                        break;
                     }
+                    linkStats.onBytes(n);
+                } catch (IOException e) {
+                    Log.i(TAG, "IOException in mConnectedThread.run()");
+                    connectionLost(mmSession, mmFramer.getReadTimeNanos(), false);
+                    break;
+                }
+            }
+        }
 
-                    // Update device HW version
-                    if(sharedData.getBfv().isUpdatedHardwareVersion()) {
-                        sharedData.setDeviceHwVersion(sharedData.getBfv().getHwVersion());
-                    }
 
-                    // Update device battery level
-                    if(sharedData.getBfv().isUpdatedBattery()) {
-                        sharedData.setDeviceBattery(sharedData.getBfv().getBattery());
-                    }
+        /**
+         * Queues one line framed from the InputStream for the ProcessingThread, a dropped PRS
+         * line still counts as a sample for its SampleClock
+         */
+        @Override
+        public void onLine(byte[] buffer, int offset, int length) {
+            if (!mmRing.offer(buffer, offset, length, mmFramer.getReadTimeNanos())
+                    && LineDispatcher.classify(buffer, offset, length) == LineDispatcher.TYPE_PRS) {
+                mmRing.markMissed();
+            }
+        }
 
-                    // Update device temperature
-                    if(sharedData.getBfv().isUpdatedTemperature()) {
-                        sharedData.setDeviceTemp(sharedData.getBfv().getTemperature());
-                    }
 
-                    // Update device altitude
-                    if(sharedData.getBfv().isUpdatedAltitude()) {
-                        double altitude = sharedData.getBfv().getAltitude();
-                        sharedData.setDeviceAltitude(altitude);
+        public LineRing getLineRing() {
+            return mmRing;
+        }
+
+
+        public CommandWriter getWriter() {
+            return mmWriter;
+        }
+
+        /**
+         * Stops the threads of the connection and closes its streams, only the first call does
+         */
+        public void cancel() {
+            if (!mmCancelled.compareAndSet(false, true)) {
+                return;
+            }
+            mmProcessingThread.cancel();
+            mmWriter.close();
+
+            try {
+                mmInStream.close();}
+            catch (Exception e) {
+                Log.e(TAG, "close() of input stream failed", e);
+            }
+
+            try {
+                mmOutStream.close();}
+            catch (Exception e) {
+                Log.e(TAG, "close() of output stream failed", e);
+            }
+        }
+    }
 
-                        double timeDelta;
-                        long currentTime = System.currentTimeMillis();
 
-                        if(firstAltitude) {
-                            timeDelta = 1.0;
-                            firstAltitude = false;
-                        }
-                        else {
-                            timeDelta = (currentTime - lastAltitudeTime) / 1000.0;  // convert to seconds
-                        }
+    /**
+     * This thread runs during a connection and consumes the lines queued by ConnectedThread.
+     * It parses them, runs the vario filter and updates sharedData. Pressure lines are decoded
+     * by the LineDispatcher, only the rare other lines go through BFV. While no lines arrive it
+     * runs the StallWatchdog and reports a silent link as lost.
+     */
+    private class ProcessingThread extends Thread implements LineRing.LineConsumer, LineDispatcher.Handler {
+        private final Session mmSession;
+        private final LineRing mmRing;
+        private final StallWatchdog mmWatchdog = new StallWatchdog();
+        private final LineDispatcher mmDispatcher;
+        private final AltitudeTable mmAltitudeTable = new AltitudeTable();
+        private final VarioFilterBank mmFilterBank;
+        private final SampleClock mmClock = new SampleClock();
+        private final PipelineLatency mmLatency;
+        private final BFV mmBfv;
+        private final String mmGetSettings;
+        private final String mmAddress;
+        private String mmHwVersion;
+        private volatile boolean mmRunning = true;
+        private boolean sendGetSettings = true;
+        private boolean mmReceivedPressure;
+        private long mmLastSampleNanos;
+        private WarmStart mmWarmStart;  // of the previous connection, then of this one when it ends
+        private final BitSet changedParameters = new BitSet();
+
+        // Latest device values, published together as one TelemetrySnapshot
+        private double altitude;
+        private double battery;
+        private double temperature;
+
+        public ProcessingThread(Session session, LineRing ring, String address) {
+            mmSession = session;
+            mmRing = ring;
+            mmAddress = address;
+            mmDispatcher = new LineDispatcher(this);
+            mmBfv = sharedData.getBfv();
+            mmFilterBank = sharedData.getVarioFilterBank();
+            mmLatency = sharedData.getLatency();
+            mmGetSettings = mmBfv.getAllCommands().get("getSettings").serializeCommand();
+
+            // Carry values over from the previous connection until the device sends new ones
+            TelemetrySnapshot latest = sharedData.getLatestTelemetry();
+            altitude = latest.getAltitude();
+            battery = latest.getBattery();
+            temperature = latest.getTemperature();
+        }
 
-                        kalmanFilteredVario.addData(timeDelta, altitude);
-                        sharedData.setVario(kalmanFilteredVario.getVar());
+        public void run() {
+            Log.i(TAG, "run() ProcessingThread");
+            setName("ProcessingThread");
+
+            // The previous connection's thread was cancelled when its Session closed, it
+            // finishes with the filters and hands over their state before this one starts
+            ProcessingThread previous = lastProcessingThread.getAndSet(this);
+            if (previous != null) {
+                joinUninterruptibly(previous);
+                if (mmSession.resume) {
+                    mmWarmStart = previous.mmWarmStart;
+                }
+            }
 
-                        lastAltitudeTime = currentTime;
+            sampleClock = mmClock;
+            mmWatchdog.start(System.nanoTime());
+            while (mmRunning) {
+                if (mmRing.drain(this) == 0) {
+                    if (mmWatchdog.getMissedPeriods() != stallPeriods) {
+                        mmWatchdog.setMissedPeriods(stallPeriods);
                     }
-                } catch (IOException e) {
-                    Log.i(TAG, "IOException in mConnectedThread.run()");
-                    disconnect();
-                    break;
+                    long remaining = mmWatchdog.getRemainingNanos(System.nanoTime());
+                    if (remaining <= 0) {
+                        connectionLost(mmSession, mmWatchdog.getLastLineNanos(), true);
+                        break;
+                    }
+                    mmRing.await(Math.min(PROCESSING_PARK_NANOS, remaining));
                 }
             }
+
+            // Keep the filters of a lost link for the reconnect, or pass on the ones this link
+            // didn't get to resume. A link the user ended starts them over.
+            if (!mmSession.lost) {
+                mmWarmStart = null;
+            }
+            else if (mmReceivedPressure) {
+                mmWarmStart = new WarmStart(mmAddress, mmFilterBank.checkpoint(mmLastSampleNanos));
+            }
+            mmFilterBank.reset();
+            sharedData.resetVario();
+            tonePlayer.setVario(0.0, System.nanoTime());
         }
 
 
         /**
-         * Write to the connected OutStream.
+         * First altitude of the connection: resumes the filters of the lost link if the gap
+         * was short, or seeds them from this altitude
          *
-         * @param string The string to write
-         * @return true if written, false otherwise
+         * @return vario of the selected configuration
          */
-        public boolean write(String string) {
-            try {
-                byte[] bytes = string.getBytes();
-                mmOutStream.write(bytes);
-            } catch (IOException e) {
-                Log.e(TAG, "Exception during write", e);
-                return false;
+        private double startFilters(long sampleNanos) {
+            WarmStart saved = mmWarmStart;
+            mmWarmStart = null;
+            if (saved != null && saved.address.equals(mmAddress)) {
+                long gap = sampleNanos - saved.checkpoint.getTime();
+                if (gap >= 0 && gap <= WARM_START_MAX_GAP_NANOS) {
+                    Log.i(TAG, "Vario filters restored after " + gap / 1000000 + "ms");
+                    return mmFilterBank.resume(saved.checkpoint, gap / 1e9, altitude);
+                }
             }
-            sharedData.setRawData("Out: " + string);
-            return true;
+            return mmFilterBank.seed(altitude);
         }
 
-        public void cancel() {
-            try {
-                mmSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "close() of connect socket failed", e);
+
+        /**
+         * Handles one line from the LineRing.
+         * Bytes are only valid during this call.
+         */
+        @Override
+        public void onLine(byte[] buffer, int offset, int length, long timestampNanos) {
+            // Update sharedData.rawData, raw bytes are copied and only decoded when shown
+            sharedData.appendRawData(RawDataLog.DIRECTION_IN, buffer, offset, length);
+
+            mmDispatcher.dispatch(buffer, offset, length, timestampNanos);
+        }
+
+
+        /**
+         * PRS lines the ConnectedThread dropped because the ring was full
+         */
+        @Override
+        public void onMissed(int samples) {
+            for (int i = 0; i < samples; i++) {
+                mmClock.onMissedSample();
+            }
+        }
+
+
+        /**
+         * Fast path for PRS lines, pressure was decoded straight from the line bytes
+         */
+        @Override
+        public void onPressure(int pressure, long timestampNanos) {
+            mmLatency.record(PipelineLatency.STAGE_PARSE, timestampNanos);
+            linkStats.onLine(LineDispatcher.TYPE_PRS, timestampNanos);
+            altitude = mmAltitudeTable.altitude(pressure, sharedData.getQnh());
+            // Samples arrive in bursts, the filters get the time the device took them
+            long sampleNanos = mmClock.onSample(timestampNanos);
+            mmWatchdog.onSample(timestampNanos, mmClock.getPeriodNanos());
+
+            // Every configuration gets the sample, the selected one is shown
+            double vario;
+            if (!mmReceivedPressure) {
+                mmReceivedPressure = true;
+                recovered(timestampNanos);
+                vario = startFilters(sampleNanos);
+            }
+            else {
+                double timeDelta = (sampleNanos - mmLastSampleNanos) / 1e9;  // convert to seconds
+                vario = mmFilterBank.addData(timeDelta, altitude);
+            }
+            mmLatency.record(PipelineLatency.STAGE_FILTER, timestampNanos);
+            tonePlayer.setVario(vario, timestampNanos);
+
+            mmLastSampleNanos = sampleNanos;
+
+            sharedData.publishTelemetry(timestampNanos, vario,
+                    altitude, battery, temperature);
+        }
+
+
+        /**
+         * All other lines, BFV parser works on Strings
+         */
+        @Override
+        public void onOtherLine(int type, byte[] buffer, int offset, int length, long timestampNanos) {
+            linkStats.onLine(type, timestampNanos);
+            mmBfv.parseLine(LineFramer.decode(buffer, offset, length));
+
+            // Calling here because device doesn't send settings automatically when
+            // connected over bluetooth
+            boolean hw = mmBfv.isUpdatedHardwareVersion();
+            boolean uv = mmBfv.checkUpdatedValues();
+            if(hw && !(uv) && sendGetSettings) {
+                mmHwVersion = mmBfv.getHwVersion();
+                sharedData.setDeviceHwVersion(mmHwVersion);
+
+                // Show the values this device had last time while waiting for the readback
+                ParameterProfile cached = profileRepository.load(mmAddress, mmHwVersion);
+                if(cached != null) {
+                    sharedData.preloadParameters(cached, changedParameters);
+                }
+
+                write(mmGetSettings);
+                sendGetSettings = false;
             }
-            mmSocket = null;
 
-            if (mmInStream != null) {
+            // Publish the settings line as one new parameter snapshot, remember it for next time
+            if(uv && sharedData.updateParameters(changedParameters) && mmHwVersion != null) {
                 try {
-                    mmInStream.close();}
-                catch (Exception e) {
-                    Log.e(TAG, "close() of input stream failed", e);
+                    profileRepository.save(mmAddress, mmHwVersion,
+                            ParameterProfile.capture(sharedData.getParameters()));
+                } catch (IOException e) {
+                    Log.e(TAG, "Saving parameters of " + mmAddress + " failed", e);
                 }
-                mmInStream = null;
             }
 
-            if (mmOutStream != null) {
+            // Update device HW version
+            if(mmBfv.isUpdatedHardwareVersion()) {
+                sharedData.setDeviceHwVersion(mmBfv.getHwVersion());
+            }
+
+            boolean updated = false;
+
+            // Update device battery level
+            if(mmBfv.isUpdatedBattery()) {
+                battery = mmBfv.getBattery();
+                updated = true;
+            }
+
+            // Update device temperature
+            if(mmBfv.isUpdatedTemperature()) {
+                temperature = mmBfv.getTemperature();
+                updated = true;
+            }
+
+            // Publish all values of this sample together
+            if(updated) {
+                sharedData.publishTelemetry(timestampNanos, mmFilterBank.getSelectedVar(),
+                        altitude, battery, temperature);
+            }
+        }
+
+
+        /**
+         * Lines the dispatcher couldn't decode are only counted, a broken PRS line still was
+         * a sample of the device
+         */
+        @Override
+        public void onMalformedLine(int type, byte[] buffer, int offset, int length, long timestampNanos) {
+            linkStats.onLine(type, timestampNanos);
+            linkStats.onMalformed();
+            if (type == LineDispatcher.TYPE_PRS) {
+                mmClock.onMissedSample();
+                mmWatchdog.onSample(timestampNanos, mmClock.getPeriodNanos());
+            }
+        }
+
+
+        public void cancel() {
+            mmRunning = false;
+            interrupt();
+        }
+
+
+        /**
+         * Waits for a thread to end, a cancel() meanwhile is kept for the loop to see
+         */
+        private void joinUninterruptibly(Thread thread) {
+            boolean interrupted = false;
+            while (true) {
                 try {
-                    mmOutStream.close();}
-                catch (Exception e) {
-                    Log.e(TAG, "close() of output stream failed", e);
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
                 }
-                mmOutStream = null;
             }
+            if (interrupted) {
+                interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Vario filter state saved when the link to a device was lost
+     */
+    private static class WarmStart {
+        final String address;
+        final VarioFilterBank.Checkpoint checkpoint;
+
+        WarmStart(String address, VarioFilterBank.Checkpoint checkpoint) {
+            this.address = address;
+            this.checkpoint = checkpoint;
         }
     }
 }
@@ -0,0 +1,83 @@
+package com.bfv.BFVAndroid.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import com.bfv.BFVAndroid.transport.Transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+
+/**
+ * Bluetooth serial port (RFCOMM) link to a paired device
+ */
+public class RfcommTransport implements Transport {
+
+    // "random" unique identifier
+    private static final UUID BT_MODULE_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private final BluetoothAdapter mBluetoothAdapter;
+    private final BluetoothDevice mDevice;
+    private final BluetoothSocket mSocket;
+
+
+    /**
+     * @param adapter adapter used to cancel discovery before connecting, may be null
+     * @param device device to connect to
+     * @throws IOException if the socket cannot be created
+     */
+    public RfcommTransport(BluetoothAdapter adapter, BluetoothDevice device) throws IOException {
+        mBluetoothAdapter = adapter;
+        mDevice = device;
+        mSocket = device.createInsecureRfcommSocketToServiceRecord(BT_MODULE_UUID);
+    }
+
+
+    @Override
+    public void connect() throws IOException {
+        // Always cancel discovery because it will slow down a connection
+        if (mBluetoothAdapter != null) {
+            mBluetoothAdapter.cancelDiscovery();
+        }
+
+        mSocket.connect();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    /**
+     * Only knows about close() on this side, a link the device dropped shows up as a failing
+     * read or available()
+     */
+    @Override
+    public boolean isClosed() {
+        return !mSocket.isConnected();
+    }
+
+    @Override
+    public String getAddress() {
+        return mDevice.getAddress();
+    }
+
+
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+}
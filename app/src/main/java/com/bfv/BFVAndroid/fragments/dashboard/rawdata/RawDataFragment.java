@@ -1,32 +1,66 @@
 package com.bfv.BFVAndroid.fragments.dashboard.rawdata;
 
-import android.content.ClipData;
-import android.content.ClipboardManager;
 import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ProgressBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.FileProvider;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
+import com.bfv.BFVAndroid.BuildConfig;
 import com.bfv.BFVAndroid.R;
 import com.bfv.BFVAndroid.SharedDataViewModel;
+import com.bfv.BFVAndroid.telemetry.RawDataExporter;
+import com.bfv.BFVAndroid.telemetry.RawDataLog;
 
-import java.util.ArrayList;
-import java.util.ConcurrentModificationException;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 
 public class RawDataFragment extends Fragment implements RawDataRecyclerView.LongClickListener {
 
+    private static final String TAG = "RawDataFragment";
+    private static final String EXPORT_DIR = "exports";  // shared through FileProvider, see res/xml/file_paths.xml
+
     private RawDataRecyclerView rawDataRecyclerView;
-    private ArrayList<String> rawDataArray;
+    private RawDataLog rawData;
     private RawDataViewAdapter rawDataAdapter;
+    private TextView debugOverlay;
+    private ProgressBar exportProgress;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean exporting;
+
+    // Follow new lines unless the user scrolled up to read older ones
+    private boolean autoScroll = true;
+    private boolean frameScheduled;
+
+    // Debug overlay stats, collected over one second
+    private long statsStartNanos;
+    private long statsBindCount;
+    private long lastFrameNanos;
+    private long frameNanosSum;
+    private long frameNanosMax;
+    private int frames;
 
 
     @Override
@@ -39,53 +73,206 @@ public class RawDataFragment extends Fragment implements RawDataRecyclerView.Lon
         SharedDataViewModel sharedData = new ViewModelProvider(getActivity()).get(SharedDataViewModel.class);
 
         // Set shareData observers
-        sharedData.getLastRawData().observe(getViewLifecycleOwner(), rawDataObserver);
+        sharedData.getRawDataUpdates().observe(getViewLifecycleOwner(), rawDataObserver);
 
         // Attach rawData Adapter to RecyclerView
         rawDataRecyclerView = rootView.findViewById(R.id.rawDataRecyclerView);
 
         rawDataRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
 
-        rawDataArray = sharedData.getRawDataArray();
-        rawDataAdapter = new RawDataViewAdapter(getContext(), rawDataArray);
+        // Rows are only ever appended or evicted, animating that many times a second is wasted work
+        rawDataRecyclerView.setItemAnimator(null);
+
+        rawData = sharedData.getRawData();
+        rawDataAdapter = new RawDataViewAdapter(getContext(), rawData);
 
         rawDataRecyclerView.setAdapter(rawDataAdapter);
 
         rawDataRecyclerView.setLongClickListener(this);
+        rawDataRecyclerView.addOnScrollListener(scrollListener);
+
+        exportProgress = rootView.findViewById(R.id.rawDataExportProgress);
+        exportProgress.setMax(100);
+
+        debugOverlay = rootView.findViewById(R.id.rawDataDebugOverlay);
+        if (BuildConfig.DEBUG) {
+            debugOverlay.setVisibility(View.VISIBLE);
+        }
 
         // Inflate the layout for this fragment
         return rootView;
     }
 
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (BuildConfig.DEBUG) {
+            // Debug builds measure every frame, not only those with new data
+            statsStartNanos = System.nanoTime();
+            lastFrameNanos = 0;
+            scheduleFrame();
+        }
+    }
+
+
+    @Override
+    public void onPause() {
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        frameScheduled = false;
+        super.onPause();
+    }
+
+
     /**
      * Observer for sharedData.rawData
+     * Lines are not shown right away, all lines that arrive before the next frame are shown
+     * together.
+     */
+    private final Observer<RawDataLog> rawDataObserver = new Observer<RawDataLog>() {
+        @Override
+        public void onChanged(@Nullable RawDataLog log) {
+            scheduleFrame();
+        }
+    };
+
+
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled = false;
+
+            if (rawDataAdapter.update() && autoScroll) {
+                rawDataRecyclerView.scrollToPosition(rawDataAdapter.getItemCount() - 1);
+            }
+
+            if (BuildConfig.DEBUG) {
+                updateDebugOverlay(frameTimeNanos);
+                scheduleFrame();
+            }
+        }
+    };
+
+
+    private void updateDebugOverlay(long frameTimeNanos) {
+        if (lastFrameNanos != 0) {
+            long frameNanos = frameTimeNanos - lastFrameNanos;
+            frameNanosSum += frameNanos;
+            frameNanosMax = Math.max(frameNanosMax, frameNanos);
+            frames++;
+        }
+        lastFrameNanos = frameTimeNanos;
+
+        long elapsedNanos = frameTimeNanos - statsStartNanos;
+        if (elapsedNanos < 1000000000L || frames == 0) {
+            return;
+        }
+
+        long binds = rawDataAdapter.getBindCount();
+        long bindsPerSecond = (binds - statsBindCount) * 1000000000L / elapsedNanos;
+        debugOverlay.setText(getString(R.string.raw_data_debug, bindsPerSecond,
+                frameNanosSum / 1e6 / frames, frameNanosMax / 1e6));
+
+        statsStartNanos = frameTimeNanos;
+        statsBindCount = binds;
+        frameNanosSum = 0;
+        frameNanosMax = 0;
+        frames = 0;
+    }
+
+
+    /**
+     * Pauses auto scroll while the user looks at older lines and resumes it once they are back
+     * at the bottom.
      */
-    private final Observer<String> rawDataObserver = new Observer<String>() {
+    private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
         @Override
-        public void onChanged(@Nullable String s) {
-            rawDataAdapter.notifyDataSetChanged();
-            rawDataRecyclerView.scrollToPosition(rawDataArray.size() -1 );
+        public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+            if (newState == RecyclerView.SCROLL_STATE_DRAGGING) {
+                autoScroll = false;
+            }
+            else if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                autoScroll = !recyclerView.canScrollVertically(1);
+            }
         }
     };
 
 
     @Override
     public void onRawDataLongClick() {
-        try {
-            StringBuilder data = new StringBuilder();
-            for (String str : rawDataArray) {
-                data.append(str).append("\n");
+        if (exporting) {
+            return;
+        }
+        exporting = true;
+        exportProgress.setProgress(0);
+        exportProgress.setVisibility(View.VISIBLE);
+        Toast.makeText(getContext(), R.string.raw_data_export_running, Toast.LENGTH_SHORT).show();
+
+        File dir = new File(getContext().getFilesDir(), EXPORT_DIR);
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File file = new File(dir, "bfv-" + name + ".txt.gz");
+
+        // Export on its own thread, it reads the log without locking so ingest is not held up
+        Thread exportThread = new Thread(() -> {
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Can't create " + dir);
+                }
+                new RawDataExporter().export(rawData, file, exportProgressListener);
+                mainHandler.post(() -> onExportFinished(file, null));
+            } catch (IOException e) {
+                mainHandler.post(() -> onExportFinished(null, e));
             }
+        }, "RawDataExportThread");
+        exportThread.start();
+    }
+
 
-            ClipboardManager clipboard = (ClipboardManager)getContext().getSystemService(Context.CLIPBOARD_SERVICE);
-            ClipData clip = ClipData.newPlainText("BFV Data Stream", data);
-            clipboard.setPrimaryClip(clip);
+    /**
+     * Forwards progress to the UI, but only when the shown percentage changes
+     */
+    private final RawDataExporter.ProgressListener exportProgressListener = new RawDataExporter.ProgressListener() {
+        private int lastPercent = -1;
 
-            Toast.makeText(getContext(), "Data Stream copied!", Toast.LENGTH_SHORT).show();
+        @Override
+        public void onProgress(long done, long total) {
+            final int percent = total > 0 ? (int) (done * 100 / total) : 100;
+            if (percent != lastPercent) {
+                lastPercent = percent;
+                mainHandler.post(() -> exportProgress.setProgress(percent));
+            }
         }
-        catch (ConcurrentModificationException e) {
-            Toast.makeText(getContext(), "Please disconnect before coping!", Toast.LENGTH_LONG).show();
+    };
+
+
+    private void onExportFinished(File file, IOException error) {
+        exporting = false;
+        exportProgress.setVisibility(View.GONE);
+
+        Context context = getContext();
+        if (context == null) {
+            return;
         }
+
+        if (error != null) {
+            Log.e(TAG, "Export failed", error);
+            Toast.makeText(context, getString(R.string.raw_data_export_failed, error.getMessage()), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        Uri uri = FileProvider.getUriForFile(context, BuildConfig.APPLICATION_ID + ".fileprovider", file);
+        Intent share = new Intent(Intent.ACTION_SEND)
+                .setType("application/gzip")
+                .putExtra(Intent.EXTRA_STREAM, uri)
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(share, getString(R.string.raw_data_export_share)));
     }
-}
\ No newline at end of file
+}
@@ -10,8 +10,7 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bfv.BFVAndroid.R;
-
-import java.util.List;
+import com.bfv.BFVAndroid.telemetry.RawDataLog;
 
 
 /**
@@ -19,14 +18,69 @@ import java.util.List;
  */
 public class RawDataViewAdapter extends RecyclerView.Adapter<RawDataViewAdapter.ViewHolder> {
 
-    private final List<String> mData;
+    private final RawDataLog mData;
     private final LayoutInflater mInflater;
 
+    // Range of log entries shown, only changes in update() so RecyclerView sees a stable list
+    private long mFirstSequence;
+    private int mCount;
+    private long mBindCount;
+
 
     // data is passed into the constructor
-    public RawDataViewAdapter(Context context, List<String> data) {
+    public RawDataViewAdapter(Context context, RawDataLog data) {
         this.mInflater = LayoutInflater.from(context);
         this.mData = data;
+
+        long end = mData.getEndSequence();
+        mFirstSequence = Math.min(mData.getFirstSequence(), end);
+        mCount = (int) (end - mFirstSequence);
+    }
+
+
+    /**
+     * Takes a new snapshot of the log and notifies only about rows that were evicted from the
+     * top or appended at the bottom since the last one.
+     *
+     * @return true if anything changed
+     */
+    public boolean update() {
+        long end = mData.getEndSequence();
+        long first = Math.min(mData.getFirstSequence(), end);
+
+        int removed = (int) Math.max(0, Math.min(first - mFirstSequence, mCount));
+        if (removed > 0) {
+            mFirstSequence += removed;
+            mCount -= removed;
+            notifyItemRangeRemoved(0, removed);
+        }
+
+        // Everything shown was evicted and then some, start over at the log's first entry
+        if (mCount == 0) {
+            mFirstSequence = first;
+        }
+
+        int inserted = (int) (end - mFirstSequence - mCount);
+        if (inserted > 0) {
+            int start = mCount;
+            mCount += inserted;
+            notifyItemRangeInserted(start, inserted);
+        }
+
+        return removed > 0 || inserted > 0;
+    }
+
+
+    /**
+     * @return number of rows bound so far
+     */
+    public long getBindCount() {
+        return mBindCount;
+    }
+
+
+    public long getSequence(int position) {
+        return mFirstSequence + position;
     }
 
 
@@ -42,15 +96,17 @@ public class RawDataViewAdapter extends RecyclerView.Adapter<RawDataViewAdapter.
     // binds the data to the TextView in each row
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        String rawDataItem = mData.get(position);
-        holder.myTextView.setText(rawDataItem);
+        mBindCount++;
+        String rawDataItem = mData.getText(getSequence(position));
+        // Entry may have been evicted since the last refresh
+        holder.myTextView.setText(rawDataItem != null ? rawDataItem : "");
     }
 
 
     // total number of rows
     @Override
     public int getItemCount() {
-        return mData.size();
+        return mCount;
     }
 
 
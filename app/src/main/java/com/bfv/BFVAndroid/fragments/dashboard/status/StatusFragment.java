@@ -18,17 +18,47 @@ import com.bfv.BFVAndroid.R;
 import com.bfv.BFVAndroid.SharedDataViewModel;
 import com.bfv.BFVAndroid.bluetooth.BluetoothController;
 import com.bfv.BFVAndroid.bluetooth.BluetoothProvider;
+import com.bfv.BFVAndroid.ingest.LineDispatcher;
+import com.bfv.BFVAndroid.ingest.SampleClock;
+import com.bfv.BFVAndroid.telemetry.LinkStats;
+import com.bfv.BFVAndroid.telemetry.RawDataLog;
+import com.bfv.BFVAndroid.telemetry.TelemetrySnapshot;
 
 
 public class StatusFragment extends Fragment {
 
+    private static final long LINK_REFRESH_MILLIS = 1000;
+    private static final int LINK_WINDOW_SAMPLES = 5;
+
     private View rootView;
     private TextView textViewBattery;
     private TextView textViewAltitude;
     private TextView textViewHwversion;
     private TextView textViewTemperature;
+    private TextView textViewLinkRate;
+    private TextView textViewLinkLines;
+    private TextView textViewLinkMalformed;
+    private TextView textViewLinkJitter;
+    private TextView textViewLinkReconnects;
+    private TextView textViewLinkWriterQueue;
+    private TextView textViewLinkIngest;
+    private TextView textViewLinkStalls;
+    private TextView textViewLinkRecovery;
+    private TextView textViewLinkTiming;
+    private TextView textViewLinkResidual;
+    private TextView textViewRawLog;
+    private RawDataLog rawData;
     private BluetoothController bluetoothController;
 
+    // Last shown values, text is only rebuilt when they change
+    private long lastSequence = -1;
+    private double lastBattery = Double.NaN;
+    private double lastTemperature = Double.NaN;
+    private double lastAltitude = Double.NaN;
+
+    // Link counters sampled every LINK_REFRESH_MILLIS while resumed, rates over the window
+    private final LinkStats.Window linkWindow = new LinkStats.Window(LINK_WINDOW_SAMPLES);
+
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -40,17 +70,34 @@ public class StatusFragment extends Fragment {
         // Inflate the View
         rootView = inflater.inflate(R.layout.fragment_status, container, false);
 
+        // A new view shows nothing yet, the latest snapshot has to be drawn again
+        lastSequence = -1;
+        lastBattery = Double.NaN;
+        lastTemperature = Double.NaN;
+        lastAltitude = Double.NaN;
+
         // Shared data observers
-        sharedData.getDeviceAltitude().observe(getViewLifecycleOwner(), deviceAltitudeObserver);
-        sharedData.getDeviceBattery().observe(getViewLifecycleOwner(), deviceBatteryObserver);
-        sharedData.getDeviceTemp().observe(getViewLifecycleOwner(), deviceTempObserver);
+        sharedData.getTelemetry().observe(getViewLifecycleOwner(), telemetryObserver);
         sharedData.getDeviceHwVersion().observe(getViewLifecycleOwner(), deviceHwVersionObserver);
+        rawData = sharedData.getRawData();
 
         // Connect Views to rootView
         textViewBattery = rootView.findViewById(R.id.batteryText);
         textViewAltitude = rootView.findViewById(R.id.altitudeText);
         textViewHwversion = rootView.findViewById(R.id.hwVersionText);
         textViewTemperature = rootView.findViewById(R.id.temperatureText);
+        textViewLinkRate = rootView.findViewById(R.id.linkRateText);
+        textViewLinkLines = rootView.findViewById(R.id.linkLinesText);
+        textViewLinkMalformed = rootView.findViewById(R.id.linkMalformedText);
+        textViewLinkJitter = rootView.findViewById(R.id.linkJitterText);
+        textViewLinkReconnects = rootView.findViewById(R.id.linkReconnectsText);
+        textViewLinkWriterQueue = rootView.findViewById(R.id.linkWriterQueueText);
+        textViewLinkIngest = rootView.findViewById(R.id.linkIngestText);
+        textViewLinkStalls = rootView.findViewById(R.id.linkStallsText);
+        textViewLinkRecovery = rootView.findViewById(R.id.linkRecoveryText);
+        textViewLinkTiming = rootView.findViewById(R.id.linkTimingText);
+        textViewLinkResidual = rootView.findViewById(R.id.linkResidualText);
+        textViewRawLog = rootView.findViewById(R.id.rawLogText);
 
         if(bluetoothController.getState() == BluetoothProvider.STATE_CONNECTED) {
             setTextColor(R.color.colorPrimary);
@@ -72,7 +119,7 @@ public class StatusFragment extends Fragment {
     }
 
 
-    private String toBatteryPercent(Double battery) {
+    private String toBatteryPercent(double battery) {
         double high = 4.2;
         double low = 3.5;
         int percent = (int) (((battery - low) / (high - low)) * 100);
@@ -108,44 +155,110 @@ public class StatusFragment extends Fragment {
 
 
     /**
-     * Observer for sharedData.deviceBattery
+     * Observer for sharedData.telemetry
      */
-    private final Observer<Double> deviceBatteryObserver = new Observer<Double>() {
+    private final Observer<TelemetrySnapshot> telemetryObserver = new Observer<TelemetrySnapshot>() {
         @Override
-        public void onChanged(@Nullable Double battery) {
-            if(! battery.isNaN()) {
-                textViewBattery.setText(getString(R.string.battery_value, toBatteryPercent(battery), battery.toString()));
+        public void onChanged(@Nullable TelemetrySnapshot telemetry) {
+            // Skip snapshots we have already shown
+            if(telemetry.getSequence() <= lastSequence) {
+                return;
             }
-        }
-    };
+            lastSequence = telemetry.getSequence();
 
+            double battery = telemetry.getBattery();
+            if(! Double.isNaN(battery) && battery != lastBattery) {
+                textViewBattery.setText(getString(R.string.battery_value, toBatteryPercent(battery), String.valueOf(battery)));
+                lastBattery = battery;
+            }
 
-    /**
-     * Observer for sharedData.deviceTemp
-     */
-    private final Observer<Double> deviceTempObserver = new Observer<Double>() {
-        @Override
-        public void onChanged(@Nullable Double temperature) {
-            if(! temperature.isNaN()) {
-                textViewTemperature.setText(getString(R.string.temperature_value, temperature.toString()));
+            double temperature = telemetry.getTemperature();
+            if(! Double.isNaN(temperature) && temperature != lastTemperature) {
+                textViewTemperature.setText(getString(R.string.temperature_value, String.valueOf(temperature)));
+                lastTemperature = temperature;
+            }
+
+            double altitude = telemetry.getAltitude();
+            if(! Double.isNaN(altitude) && altitude != lastAltitude) {
+                textViewAltitude.setText(getString(R.string.altitude_value, String.format("%.2f", altitude)));
+                lastAltitude = altitude;
             }
         }
     };
 
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        rootView.post(linkRefresh);
+    }
+
+
+    @Override
+    public void onPause() {
+        rootView.removeCallbacks(linkRefresh);
+        super.onPause();
+    }
+
+
     /**
-     * Observer for sharedData.deviceAltitude
+     * Samples the link counters and shows them, then schedules itself again
      */
-    private final Observer<Double> deviceAltitudeObserver = new Observer<Double>() {
+    private final Runnable linkRefresh = new Runnable() {
         @Override
-        public void onChanged(@Nullable Double altitude) {
-            if(! altitude.isNaN()) {
-                textViewAltitude.setText(getString(R.string.altitude_value, String.format("%.2f", altitude)));
-            }
+        public void run() {
+            LinkStats stats = bluetoothController.getLinkStats();
+            linkWindow.sample(stats, System.nanoTime());
+
+            setTextIfChanged(textViewLinkRate,
+                    getString(R.string.link_rate_value, linkWindow.getBytesPerSecond()));
+            double other = linkWindow.getLinesPerSecond(LineDispatcher.TYPE_BFV)
+                    + linkWindow.getLinesPerSecond(LineDispatcher.TYPE_SET)
+                    + linkWindow.getLinesPerSecond(LineDispatcher.TYPE_OTHER);
+            setTextIfChanged(textViewLinkLines, getString(R.string.link_lines_value,
+                    linkWindow.getLinesPerSecond(LineDispatcher.TYPE_PRS),
+                    linkWindow.getLinesPerSecond(LineDispatcher.TYPE_BAT),
+                    linkWindow.getLinesPerSecond(LineDispatcher.TYPE_TMP),
+                    other));
+            setTextIfChanged(textViewLinkMalformed, getString(R.string.link_malformed_value,
+                    stats.getMalformed(), linkWindow.getMalformedPerSecond()));
+            setTextIfChanged(textViewLinkJitter,
+                    getString(R.string.link_jitter_value, stats.getJitterNanos() / 1e6));
+            setTextIfChanged(textViewLinkReconnects, String.valueOf(stats.getReconnects()));
+            setTextIfChanged(textViewLinkWriterQueue, getString(R.string.link_writer_queue_value,
+                    bluetoothController.getWriterQueueDepth(),
+                    bluetoothController.getWriterAverageLatencyNanos() / 1e6));
+            setTextIfChanged(textViewLinkIngest, getString(R.string.link_ingest_value,
+                    bluetoothController.getIngestOverflowCount(),
+                    bluetoothController.getIngestHighWaterMark()));
+            setTextIfChanged(textViewLinkStalls, String.valueOf(stats.getStalls()));
+            setTextIfChanged(textViewLinkRecovery, getString(R.string.link_recovery_value,
+                    stats.getLastRecoveryNanos() / 1e9, stats.getMaxRecoveryNanos() / 1e9,
+                    stats.getRecoveries()));
+
+            SampleClock clock = bluetoothController.getSampleClock();
+            setTextIfChanged(textViewLinkTiming, getString(R.string.link_timing_value,
+                    1e9 / clock.getPeriodNanos(), clock.getRateOffsetPpm(), clock.getResyncCount()));
+            setTextIfChanged(textViewLinkResidual, getString(R.string.link_residual_value,
+                    clock.getResidualRmsNanos() / 1e6,
+                    clock.getResiduals().getValueAtPercentile(99) / 1e6,
+                    clock.getIntervalStdNanos() / 1e6, clock.getRawIntervalStdNanos() / 1e6));
+            setTextIfChanged(textViewRawLog, getString(R.string.raw_log_value,
+                    rawData.getEndSequence() - rawData.getFirstSequence(),
+                    rawData.getEvictedCount()));
+
+            rootView.postDelayed(this, LINK_REFRESH_MILLIS);
         }
     };
 
 
+    private static void setTextIfChanged(TextView view, String text) {
+        if (! text.contentEquals(view.getText())) {
+            view.setText(text);
+        }
+    }
+
+
     @Override
     public void onAttach(@NonNull Context context) {
         // We use bluetoothController to command BluetoothProvider via MainActivity that implements
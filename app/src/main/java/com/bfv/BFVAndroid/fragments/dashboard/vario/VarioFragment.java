@@ -4,6 +4,10 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Spinner;
 import android.widget.TextView;
 
 import androidx.annotation.Nullable;
@@ -14,12 +18,25 @@ import androidx.lifecycle.ViewModelProvider;
 
 import com.bfv.BFVAndroid.R;
 import com.bfv.BFVAndroid.SharedDataViewModel;
+import com.bfv.BFVAndroid.audio.VarioTonePlayer;
+import com.bfv.BFVAndroid.bluetooth.BluetoothApplication;
 import com.bfv.BFVAndroid.bluetooth.BluetoothProvider;
+import com.bfv.BFVAndroid.kalmanFilteredVario.VarioFilterBank;
+import com.bfv.BFVAndroid.telemetry.PipelineLatency;
+import com.bfv.BFVAndroid.telemetry.TelemetrySnapshot;
 
 public class VarioFragment extends Fragment {
 
     private TextView varioText;
+    private TextView filterBankText;
+    private VarioFilterBank filterBank;
+    private TextView toneLatencyText;
+    private VarioTonePlayer tonePlayer;
+    private PipelineLatency latency;
+    private long drawnSampleTime;    // sample time of the last vario recorded at draw
+    private long pendingSampleTime;  // sample time of a vario set but not drawn yet, 0 if none
     private long lastUpdateTime;
+    private long lastSequence;
 
 
     @Override
@@ -32,11 +49,42 @@ public class VarioFragment extends Fragment {
         View rootView = inflater.inflate(R.layout.fragment_vario, container, false);
 
         varioText = rootView.findViewById(R.id.varioText);
-        varioText.setText(getString(R.string.vario, String.format("%.2f", sharedData.getVario().getValue())));
+        latency = sharedData.getLatency();
+        varioText.getViewTreeObserver().addOnDrawListener(drawListener);
+        filterBankText = rootView.findViewById(R.id.varioFilterBankText);
+        filterBank = sharedData.getVarioFilterBank();
+        toneLatencyText = rootView.findViewById(R.id.varioToneLatencyText);
+        tonePlayer = ((BluetoothApplication) getActivity().getApplication()).getVarioTonePlayer();
+
+        // Pick which filter configuration is shown as vario
+        VarioFilterBank.Config[] configs = new VarioFilterBank.Config[filterBank.size()];
+        for (int i = 0; i < configs.length; i++) {
+            configs[i] = filterBank.getConfig(i);
+        }
+        ArrayAdapter<VarioFilterBank.Config> filterAdapter = new ArrayAdapter<>(getContext(),
+                android.R.layout.simple_spinner_item, configs);
+        filterAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        Spinner filterSpinner = rootView.findViewById(R.id.varioFilterSpinner);
+        filterSpinner.setAdapter(filterAdapter);
+        filterSpinner.setSelection(filterBank.getSelected());
+        filterSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                filterBank.setSelected(position);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+        updateFilterBankText();
+
+        TelemetrySnapshot telemetry = sharedData.getLatestTelemetry();
+        varioText.setText(getString(R.string.vario, String.format("%.2f", telemetry.getVario())));
         lastUpdateTime = System.currentTimeMillis();
+        lastSequence = telemetry.getSequence();
 
         // Shared data observers
-        sharedData.getVario().observe(getViewLifecycleOwner(), varioObserver);
+        sharedData.getTelemetry().observe(getViewLifecycleOwner(), telemetryObserver);
         sharedData.getConnectionState().observe(getViewLifecycleOwner(), connectionStateObserver);
 
         // Inflate the layout for this fragment
@@ -45,20 +93,89 @@ public class VarioFragment extends Fragment {
 
 
     /**
-     * Observer for sharedData.deviceAltitude
+     * Observer for sharedData.telemetry
      */
-    private final Observer<Double> varioObserver = new Observer<Double>() {
+    private final Observer<TelemetrySnapshot> telemetryObserver = new Observer<TelemetrySnapshot>() {
         @Override
-        public void onChanged(@Nullable Double value) {
+        public void onChanged(@Nullable TelemetrySnapshot telemetry) {
+            // Skip snapshots we have already shown
+            if(telemetry.getSequence() <= lastSequence) {
+                return;
+            }
+
             long currentTime = System.currentTimeMillis();
             if(currentTime - lastUpdateTime > 400) {
-                varioText.setText(getString(R.string.vario, String.format("%.2f", value)));
+                varioText.setText(getString(R.string.vario, String.format("%.2f", telemetry.getVario())));
+                // Republished snapshots keep their sample time, only new samples count
+                if (telemetry.getSampleTimeNanos() > drawnSampleTime) {
+                    pendingSampleTime = telemetry.getSampleTimeNanos();
+                }
+                updateFilterBankText();
+                updateToneLatencyText();
                 lastUpdateTime= currentTime;
+                lastSequence = telemetry.getSequence();
             }
         }
     };
 
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        ViewTreeObserver observer = varioText.getViewTreeObserver();
+        if (observer.isAlive()) {
+            observer.removeOnDrawListener(drawListener);
+        }
+    }
+
+
+    /**
+     * Records how old the shown vario is when it actually gets drawn
+     */
+    private final ViewTreeObserver.OnDrawListener drawListener = new ViewTreeObserver.OnDrawListener() {
+        @Override
+        public void onDraw() {
+            if (pendingSampleTime != 0) {
+                latency.record(PipelineLatency.STAGE_DRAW, pendingSampleTime);
+                drawnSampleTime = pendingSampleTime;
+                pendingSampleTime = 0;
+            }
+        }
+    };
+
+
+    /**
+     * Output and CPU cost per sample of every filter configuration, side by side
+     */
+    private void updateFilterBankText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < filterBank.size(); i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(getString(R.string.vario_filter_bank_line, filterBank.getConfig(i).toString(),
+                    filterBank.getVar(i), filterBank.getCostNanos(i)));
+        }
+        filterBankText.setText(sb);
+    }
+
+
+    /**
+     * Sample-to-sound latency, only while the tone plays
+     */
+    private void updateToneLatencyText() {
+        if (!tonePlayer.isPlaying()) {
+            toneLatencyText.setVisibility(View.GONE);
+            return;
+        }
+        toneLatencyText.setVisibility(View.VISIBLE);
+        toneLatencyText.setText(getString(R.string.vario_tone_latency,
+                tonePlayer.getLastLatencyNanos() / 1e6,
+                tonePlayer.getAverageLatencyNanos() / 1e6,
+                tonePlayer.getMaxLatencyNanos() / 1e6));
+    }
+
+
     /**
      * Observer for sharedData.connectionState
      */
@@ -5,6 +5,8 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.res.Configuration;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.InputType;
 import android.text.TextWatcher;
@@ -30,11 +32,10 @@ import com.bfv.BFVAndroid.R;
 import com.bfv.BFVAndroid.SharedDataViewModel;
 import com.bfv.BFVAndroid.bluetooth.BluetoothController;
 import com.bfv.BFVAndroid.bluetooth.BluetoothProvider;
+import com.bfv.BFVAndroid.parameters.ParameterSnapshot;
+import com.bfv.BFVAndroid.transport.CommandFuture;
 
 import java.util.Arrays;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import BFVLib.BFV;
 import BFVLib.Command;
@@ -42,18 +43,17 @@ import BFVLib.Command;
 
 public class ParametersFragment extends Fragment implements ParametersRecyclerAdapter.ItemClickListener {
 
-    private Map<String, Command> parameters;
     private BluetoothController bluetoothController;
     private ParametersRecyclerAdapter parametersRecyclerAdapter;
     private SharedDataViewModel sharedData;
     private RecyclerView parametersRecyclerView;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
 
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         // sharedData
         sharedData = new ViewModelProvider(getActivity()).get(SharedDataViewModel.class);
-        parameters = sharedData.getBfv().getAllParameters();
 
         // Views
         View rootView = inflater.inflate(R.layout.fragment_parameters, container, false);
@@ -62,7 +62,7 @@ public class ParametersFragment extends Fragment implements ParametersRecyclerAd
         // Set up the RecyclerView layout manager
         parametersRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
 
-        parametersRecyclerAdapter = new ParametersRecyclerAdapter(getContext(), parameters, bluetoothController);
+        parametersRecyclerAdapter = new ParametersRecyclerAdapter(getContext(), sharedData.getParameters(), bluetoothController);
         parametersRecyclerAdapter.setClickListener(this);
         parametersRecyclerView.setAdapter(parametersRecyclerAdapter);
 
@@ -71,23 +71,19 @@ public class ParametersFragment extends Fragment implements ParametersRecyclerAd
 
         parametersRecyclerView.addItemDecoration(itemDecorator);
 
-        /*
-         * HACK: this actually works for updating values, but is should probably be implemented
-         *  differently
-         *
-         * sharedData.getBfv().getAllParameters() gets passed to ParametersRecyclerAdapter via parameters
-         * variable so it doesn't update currently shown items unless user scrolls them off screen
-         * and back on(its not aware of changes until it tries to access the values).
-         *
-         * This calls parametersRecyclerAdapter.notifyDataSetChanged() every second which is short
-         * enough for user experience and long enough so it doesn't interfere with onItemClick
-         */
-        new Timer().scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                parametersRecyclerView.post(() -> parametersRecyclerAdapter.notifyDataSetChanged());
+        // Rebind only the rows whose values changed, nothing runs while values stay the same
+        sharedData.getParameterChanges().observe(getViewLifecycleOwner(), changed -> {
+            parametersRecyclerAdapter.setParameters(sharedData.getParameters());
+            for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                parametersRecyclerAdapter.notifyItemChanged(i, ParametersRecyclerAdapter.PAYLOAD_VALUE);
             }
-        }, 0, 1000);
+        });
+
+        // Value color follows the connection state
+        sharedData.getConnectionState().observe(getViewLifecycleOwner(), state ->
+                parametersRecyclerAdapter.notifyItemRangeChanged(0,
+                        parametersRecyclerAdapter.getItemCount(),
+                        ParametersRecyclerAdapter.PAYLOAD_CONNECTION_STATE));
 
         return rootView;
     }
@@ -95,8 +91,9 @@ public class ParametersFragment extends Fragment implements ParametersRecyclerAd
 
     @Override
     public void onParameterItemClick(int position) {
-        String parameterName = (String) parameters.keySet().toArray()[position];
-        Command parameter = parameters.get(parameterName);
+        ParameterSnapshot parameters = parametersRecyclerAdapter.getParameters();
+        String parameterName = parameters.getName(position);
+        Command parameter = parameters.getCommand(position);
 
         EditText editParameter = new EditText(getContext());
         editParameter.setInputType(InputType.TYPE_NUMBER_FLAG_DECIMAL);
@@ -216,9 +213,10 @@ public class ParametersFragment extends Fragment implements ParametersRecyclerAd
             try {
                 if( ! sharedData.getDryRun().getValue()) {
                     if (parameter.setValue(checked)) {
-                        bluetoothController.writeToBT(parameter.serializeCommand());
+                        // Keyed by command code so only the last of quick edits is sent
+                        toastWhenWritten(bluetoothController.writeToBT(parameter.getCommandCode(),
+                                parameter.serializeCommand()));
                         getSettings();
-                        Toast.makeText(getContext(), "Value sent!", Toast.LENGTH_LONG).show();
                     }
                     else {
                         Toast.makeText(getContext(), "Bad input value!", Toast.LENGTH_LONG).show();
@@ -241,9 +239,10 @@ public class ParametersFragment extends Fragment implements ParametersRecyclerAd
             try {
                 if( ! sharedData.getDryRun().getValue()) {
                     if (parameter.setValue(editParameter.getText().toString())) {
-                        bluetoothController.writeToBT(parameter.serializeCommand());
+                        // Keyed by command code so only the last of quick edits is sent
+                        toastWhenWritten(bluetoothController.writeToBT(parameter.getCommandCode(),
+                                parameter.serializeCommand()));
                         getSettings();
-                        Toast.makeText(getContext(), "Value sent!", Toast.LENGTH_SHORT).show();
                     }
                     else {
                         Toast.makeText(getContext(), "Bad input value!", Toast.LENGTH_LONG).show();
@@ -271,6 +270,22 @@ public class ParametersFragment extends Fragment implements ParametersRecyclerAd
 
 
     private void getSettings() {
-        bluetoothController.writeToBT(sharedData.getBfv().getAllCommands().get("getSettings").serializeCommand());
+        Command getSettings = sharedData.getBfv().getAllCommands().get("getSettings");
+        bluetoothController.writeToBT(getSettings.getCommandCode(), getSettings.serializeCommand());
+    }
+
+
+    /**
+     * Values are written in the background, tell the user once the write finished
+     */
+    private void toastWhenWritten(CommandFuture future) {
+        Context context = getContext().getApplicationContext();
+        future.addListener(result -> mainHandler.post(() -> {
+            if (result.isSuccess()) {
+                Toast.makeText(context, "Value sent!", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(context, "Error sending value!", Toast.LENGTH_LONG).show();
+            }
+        }));
     }
 }
@@ -15,8 +15,9 @@ import com.bfv.BFVAndroid.R;
 import com.bfv.BFVAndroid.SharedDataViewModel;
 import com.bfv.BFVAndroid.bluetooth.BluetoothController;
 import com.bfv.BFVAndroid.bluetooth.BluetoothProvider;
+import com.bfv.BFVAndroid.parameters.ParameterSnapshot;
 
-import java.util.Map;
+import java.util.List;
 
 import BFVLib.Command;
 
@@ -26,15 +27,19 @@ import BFVLib.Command;
  */
 public class ParametersRecyclerAdapter extends RecyclerView.Adapter<ParametersRecyclerAdapter.ViewHolder> {
 
-    private final Map<String, Command> mParameters;
+    // Partial rebinds, rows only refresh what changed
+    static final Object PAYLOAD_VALUE = new Object();
+    static final Object PAYLOAD_CONNECTION_STATE = new Object();
+
+    private ParameterSnapshot mParameters;
     private final LayoutInflater mInflater;
     private ItemClickListener mClickListener;
     private final Context mContext;
     private final BluetoothController bluetoothController;
 
-    // Command is passed into the constructor
-    ParametersRecyclerAdapter(Context context, Map<String,
-            Command> parameters, BluetoothController bluetoothController) {
+    // Parameters snapshot is passed into the constructor
+    ParametersRecyclerAdapter(Context context, ParameterSnapshot parameters,
+                              BluetoothController bluetoothController) {
         this.mInflater = LayoutInflater.from(context);
         this.mParameters = parameters;
         this.mContext = context;
@@ -77,22 +82,42 @@ public class ParametersRecyclerAdapter extends RecyclerView.Adapter<ParametersRe
     // Binds the data to the TextView in each row
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        String parameterName = (String) mParameters.keySet().toArray()[position];
-        Command parameter = mParameters.get(parameterName);
+        Command parameter = mParameters.getCommand(position);
 
-        holder.parameterName.setText(parameterName.substring(0, 1).toUpperCase() + parameterName.substring(1));
+        holder.parameterName.setText(mParameters.getDisplayName(position));
         holder.parameterDescription.setText(parameter.getDescription());
 
         holder.defaultValue.setText(parameter.getDefaultValueAsString());
 
-        if(parameter.hasValue()) {
-            holder.parameterValue.setText(parameter.getValueAsString());
+        bindValue(holder, position);
+        bindConnectionState(holder);
+    }
 
-        } else {
-            // We need to 'clear' value so it doesn't show up when we reuse holder for other items
-            holder.parameterValue.setText("");
+
+    // Rebinds only the parts named by the payloads
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
         }
 
+        if (payloads.contains(PAYLOAD_VALUE)) {
+            bindValue(holder, position);
+        }
+        if (payloads.contains(PAYLOAD_CONNECTION_STATE)) {
+            bindConnectionState(holder);
+        }
+    }
+
+
+    // Missing values are "", which also clears values left from reusing the holder
+    private void bindValue(ViewHolder holder, int position) {
+        holder.parameterValue.setText(mParameters.getValueAsString(position));
+    }
+
+
+    private void bindConnectionState(ViewHolder holder) {
         if(bluetoothController.getState() == BluetoothProvider.STATE_CONNECTED) {
             holder.parameterValue.setTextColor(ContextCompat.getColor(mContext, R.color.colorPrimary));
         } else {
@@ -100,6 +125,19 @@ public class ParametersRecyclerAdapter extends RecyclerView.Adapter<ParametersRe
         }
     }
 
+    /**
+     * Switches to a newer snapshot, caller notifies about the rows that changed
+     */
+    void setParameters(ParameterSnapshot parameters) {
+        this.mParameters = parameters;
+    }
+
+
+    ParameterSnapshot getParameters() {
+        return mParameters;
+    }
+
+
     // Total number of rows
     @Override
     public int getItemCount() {
@@ -0,0 +1,85 @@
+package com.bfv.BFVAndroid.ingest;
+
+
+/**
+ * Pressure to altitude by linear interpolation in a precomputed table instead of a Math.pow()
+ * per sample.
+ *
+ * The table holds {@link PressureAltitude#altitude(int, double)} every {@value #STEP} Pa over
+ * [{@value #MIN_PRESSURE}, {@value #MAX_PRESSURE}] Pa, about 9200 m above to 700 m below sea
+ * level at standard QNH. The curve bends most at low pressure, where its second derivative stays
+ * under 6.2e-6 m/Pa^2 for any QNH above 90000 Pa, so interpolating over 64 Pa is off by at most
+ * 6.2e-6 * 64^2 / 8 = 3.2 mm. Pressures outside the table use the formula.
+ *
+ * The table is built for one QNH and rebuilt on the first lookup after the QNH changes. Not
+ * thread safe, meant to be owned by the thread processing samples.
+ */
+public class AltitudeTable {
+
+    public static final int MIN_PRESSURE = 30000;
+    public static final int MAX_PRESSURE = 110000;
+
+    /**
+     * Bound on the difference to {@link PressureAltitude#altitude(int, double)}, in m
+     */
+    public static final double MAX_ERROR = 0.005;
+
+    private static final int STEP_SHIFT = 6;
+    private static final int STEP = 1 << STEP_SHIFT;
+    private static final int STEP_MASK = STEP - 1;
+    private static final double STEP_INVERSE = 1.0 / STEP;
+    private static final int SIZE = (MAX_PRESSURE - MIN_PRESSURE) / STEP + 1;
+
+    private final double[] altitudes = new double[SIZE];
+    private final double[] slopes = new double[SIZE];  // altitude change per Pa up to the next entry
+    private double qnh = Double.NaN;
+    private int buildCount;
+
+
+    /**
+     * @param pressure pressure in Pa
+     * @param qnh sea level pressure in Pa, the table is rebuilt when this differs from the last call
+     * @return altitude in m, within {@link #MAX_ERROR} of the barometric formula
+     */
+    public double altitude(int pressure, double qnh) {
+        if (qnh != this.qnh) {
+            build(qnh);
+        }
+
+        int offset = pressure - MIN_PRESSURE;
+        if (offset < 0 || pressure >= MAX_PRESSURE) {
+            return PressureAltitude.altitude(pressure, qnh);
+        }
+
+        int i = offset >>> STEP_SHIFT;
+        return altitudes[i] + slopes[i] * (offset & STEP_MASK);
+    }
+
+
+    /**
+     * @return QNH the table was last built for, NaN before the first lookup
+     */
+    public double getQnh() {
+        return qnh;
+    }
+
+
+    /**
+     * @return number of times the table was built
+     */
+    public int getBuildCount() {
+        return buildCount;
+    }
+
+
+    private void build(double qnh) {
+        for (int i = 0; i < SIZE; i++) {
+            altitudes[i] = PressureAltitude.altitude(MIN_PRESSURE + (i << STEP_SHIFT), qnh);
+        }
+        for (int i = 0; i < SIZE - 1; i++) {
+            slopes[i] = (altitudes[i + 1] - altitudes[i]) * STEP_INVERSE;
+        }
+        this.qnh = qnh;
+        buildCount++;
+    }
+}
@@ -0,0 +1,162 @@
+package com.bfv.BFVAndroid.ingest;
+
+
+/**
+ * Classifies device lines by their first bytes and decodes the frequent ones without BFV.
+ *
+ * "PRS xxxxx" pressure lines make up nearly all traffic, their hex pressure is decoded straight
+ * from the line bytes into an int, no String is created. Every other line goes to
+ * {@link Handler#onOtherLine(int, byte[], int, int, long)} together with its type, so the handler
+ * can fall back to BFV.parseLine() for those.
+ *
+ * Lines are counted per type. A PRS line that doesn't hold a valid pressure counts as malformed
+ * and goes to {@link Handler#onMalformedLine(int, byte[], int, int, long)} instead.
+ */
+public class LineDispatcher {
+
+    public static final int TYPE_PRS = 0;
+    public static final int TYPE_BAT = 1;
+    public static final int TYPE_TMP = 2;
+    public static final int TYPE_BFV = 3;
+    public static final int TYPE_SET = 4;
+    public static final int TYPE_OTHER = 5;
+    public static final int TYPE_COUNT = 6;
+
+    private static final int MAX_HEX_DIGITS = 7;  // up to 0xFFFFFFF, far above any pressure
+
+    private final Handler handler;
+    private final long[] counts = new long[TYPE_COUNT];
+    private long malformedCount;
+
+
+    public LineDispatcher(Handler handler) {
+        this.handler = handler;
+    }
+
+
+    /**
+     * Dispatches one line, bytes are only valid during the call.
+     *
+     * @param buffer line bytes, without terminator
+     * @param offset first byte in buffer
+     * @param length number of bytes
+     * @param timestampNanos System.nanoTime() when the line was read
+     */
+    public void dispatch(byte[] buffer, int offset, int length, long timestampNanos) {
+        int type = classify(buffer, offset, length);
+        counts[type]++;
+
+        if (type == TYPE_PRS) {
+            int pressure = parseHex(buffer, offset + 4, length - 4);
+            if (pressure < 0) {
+                malformedCount++;
+                handler.onMalformedLine(type, buffer, offset, length, timestampNanos);
+                return;
+            }
+            handler.onPressure(pressure, timestampNanos);
+        }
+        else {
+            handler.onOtherLine(type, buffer, offset, length, timestampNanos);
+        }
+    }
+
+
+    /**
+     * @return type of a line from its first four bytes, "XXX " for the known types
+     */
+    public static int classify(byte[] buffer, int offset, int length) {
+        if (length < 4 || buffer[offset + 3] != ' ') {
+            return TYPE_OTHER;
+        }
+
+        byte b0 = buffer[offset];
+        byte b1 = buffer[offset + 1];
+        byte b2 = buffer[offset + 2];
+        if (b0 == 'P' && b1 == 'R' && b2 == 'S') {
+            return TYPE_PRS;
+        }
+        if (b0 == 'B' && b1 == 'A' && b2 == 'T') {
+            return TYPE_BAT;
+        }
+        if (b0 == 'T' && b1 == 'M' && b2 == 'P') {
+            return TYPE_TMP;
+        }
+        if (b0 == 'B' && b1 == 'F' && b2 == 'V') {
+            return TYPE_BFV;
+        }
+        if (b0 == 'S' && b1 == 'E' && b2 == 'T') {
+            return TYPE_SET;
+        }
+        return TYPE_OTHER;
+    }
+
+
+    /**
+     * Parses an unsigned hex number, upper or lower case.
+     *
+     * @return the value, -1 if the bytes are empty, too long or not all hex digits
+     */
+    public static int parseHex(byte[] buffer, int offset, int length) {
+        if (length <= 0 || length > MAX_HEX_DIGITS) {
+            return -1;
+        }
+
+        int value = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int b = buffer[i];
+            int digit;
+            if (b >= '0' && b <= '9') {
+                digit = b - '0';
+            }
+            else if (b >= 'A' && b <= 'F') {
+                digit = b - 'A' + 10;
+            }
+            else if (b >= 'a' && b <= 'f') {
+                digit = b - 'a' + 10;
+            }
+            else {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+
+    /**
+     * @return number of lines of a type seen so far
+     */
+    public long getCount(int type) {
+        return counts[type];
+    }
+
+
+    /**
+     * @return number of PRS lines dropped because their pressure couldn't be parsed
+     */
+    public long getMalformedCount() {
+        return malformedCount;
+    }
+
+
+    /**
+     * Receives dispatched lines, called on the dispatching thread
+     */
+    public interface Handler {
+        /**
+         * @param pressure pressure in Pa
+         * @param timestampNanos System.nanoTime() when the line was read
+         */
+        void onPressure(int pressure, long timestampNanos);
+
+        /**
+         * A line for the generic parser, bytes are only valid during the call
+         */
+        void onOtherLine(int type, byte[] buffer, int offset, int length, long timestampNanos);
+
+        /**
+         * A line of a known type that couldn't be decoded, bytes are only valid during the call
+         */
+        void onMalformedLine(int type, byte[] buffer, int offset, int length, long timestampNanos);
+    }
+}
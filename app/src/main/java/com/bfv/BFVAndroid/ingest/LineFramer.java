@@ -0,0 +1,188 @@
+package com.bfv.BFVAndroid.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+
+/**
+ * Splits a byte stream into lines without allocating per line.
+ *
+ * Bytes are read in bulk into one reusable buffer and every complete line is handed out as a
+ * (buffer, offset, length) view with the line terminator stripped. The view is only valid for
+ * the duration of the {@link LineListener#onLine(byte[], int, int)} call, consumers that need to
+ * keep a line must copy it or decode it with {@link #decode(byte[], int, int)}.
+ *
+ * Lines are terminated by '\n', a '\r' right before it is dropped so "\r\n" from the device and
+ * plain "\n" both work. Empty lines are skipped. A line longer than the buffer is discarded.
+ */
+public class LineFramer {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // Device only ever sends ASCII
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final byte[] buffer;
+    private int start;  // first byte of the line being assembled
+    private int end;    // one past the last byte read into buffer
+    private int scan;   // first byte not yet checked for '\n'
+    private boolean discarding;  // dropping the rest of an oversized line
+    private long discardedLines;
+    private long readTimeNanos;
+
+
+    public LineFramer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    public LineFramer(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+
+    /**
+     * Reads one chunk from the stream and dispatches every line completed by it.
+     * Blocks until at least one byte is available.
+     *
+     * @param in stream to read from
+     * @param listener receives complete lines
+     * @return number of bytes read, -1 on end of stream
+     * @throws IOException if reading from the stream fails
+     */
+    public int read(InputStream in, LineListener listener) throws IOException {
+        makeRoom();
+
+        int n = in.read(buffer, end, buffer.length - end);
+        if (n > 0) {
+            readTimeNanos = System.nanoTime();
+            end += n;
+            dispatch(listener);
+        }
+        return n;
+    }
+
+
+    /**
+     * Feeds bytes that were already read elsewhere and dispatches every line completed by them.
+     *
+     * @param src source bytes
+     * @param offset first byte in src
+     * @param length number of bytes
+     * @param listener receives complete lines
+     */
+    public void feed(byte[] src, int offset, int length, LineListener listener) {
+        readTimeNanos = System.nanoTime();
+        while (length > 0) {
+            makeRoom();
+
+            int n = Math.min(length, buffer.length - end);
+            System.arraycopy(src, offset, buffer, end, n);
+            end += n;
+            offset += n;
+            length -= n;
+            dispatch(listener);
+        }
+    }
+
+
+    /**
+     * Drops any partially assembled line
+     */
+    public void reset() {
+        start = 0;
+        end = 0;
+        scan = 0;
+        discarding = false;
+    }
+
+
+    /**
+     * @return number of lines dropped because they did not fit into the buffer
+     */
+    public long getDiscardedLines() {
+        return discardedLines;
+    }
+
+
+    /**
+     * @return System.nanoTime() when the bytes of the lines being dispatched were read
+     */
+    public long getReadTimeNanos() {
+        return readTimeNanos;
+    }
+
+
+    /**
+     * Decodes a line view into a String, use only when text is actually needed.
+     */
+    public static String decode(byte[] buffer, int offset, int length) {
+        return new String(buffer, offset, length, ASCII);
+    }
+
+
+    /**
+     * Moves the partial line to the front of the buffer, or throws it away if it already
+     * fills the whole buffer.
+     */
+    private void makeRoom() {
+        if (end < buffer.length) {
+            return;
+        }
+
+        if (start > 0) {
+            int pending = end - start;
+            System.arraycopy(buffer, start, buffer, 0, pending);
+            scan -= start;
+            end = pending;
+            start = 0;
+        }
+        else {
+            if (!discarding) {
+                discardedLines++;
+            }
+            reset();
+            discarding = true;
+        }
+    }
+
+
+    private void dispatch(LineListener listener) {
+        final byte[] buf = buffer;
+        for (int i = scan; i < end; i++) {
+            if (buf[i] != '\n') {
+                continue;
+            }
+
+            if (discarding) {
+                discarding = false;
+            }
+            else {
+                int lineEnd = i;
+                if (lineEnd > start && buf[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+                if (lineEnd > start) {
+                    listener.onLine(buf, start, lineEnd - start);
+                }
+            }
+            start = i + 1;
+        }
+        scan = end;
+
+        if (start == end) {
+            start = 0;
+            end = 0;
+            scan = 0;
+        }
+    }
+
+
+    /**
+     * Receives lines as views into the framer's buffer
+     */
+    public interface LineListener {
+        void onLine(byte[] buffer, int offset, int length);
+    }
+}
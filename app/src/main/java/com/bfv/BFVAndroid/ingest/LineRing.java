@@ -0,0 +1,213 @@
+package com.bfv.BFVAndroid.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Lock-free single-producer/single-consumer ring of lines.
+ *
+ * Every slot holds the bytes of one line and the time its bytes were read. The producer
+ * (socket reader) copies lines in with {@link #offer(byte[], int, int, long)} and never
+ * blocks, when the ring is full the line is dropped and counted as overflow. The consumer
+ * (processing thread) reads lines in place with {@link #drain(LineConsumer)} and may park in
+ * {@link #await(long)} while the ring is empty.
+ *
+ * The producer can mark dropped lines that were samples with {@link #markMissed()}. The count
+ * travels with the next line offered and is passed to {@link LineConsumer#onMissed(int)} right
+ * before it, so the consumer learns of the gap in its place in the stream.
+ *
+ * Exactly one thread may call the producer methods and exactly one other thread the consumer
+ * methods. Counters can be read from any thread.
+ */
+public class LineRing {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_SLOT_SIZE = 256;
+
+    private final int mask;
+    private final int slotSize;
+    private final byte[] data;
+    private final int[] lengths;
+    private final long[] timestamps;
+    private final int[] missed;  // samples dropped right before the slot's line
+
+    // Next slot to write, only advanced by the producer
+    private final AtomicLong tail = new AtomicLong();
+    // Next slot to read, only advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+
+    private volatile Thread waitingConsumer;
+
+    // Written by the producer only
+    private volatile long overflowCount;
+    private volatile long oversizedCount;
+    private volatile int highWaterMark;
+    private int pendingMissed;
+
+
+    public LineRing() {
+        this(DEFAULT_CAPACITY, DEFAULT_SLOT_SIZE);
+    }
+
+
+    /**
+     * @param capacity number of lines, must be a power of two
+     * @param slotSize maximum line length in bytes
+     */
+    public LineRing(int capacity, int slotSize) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.slotSize = slotSize;
+        data = new byte[capacity * slotSize];
+        lengths = new int[capacity];
+        timestamps = new long[capacity];
+        missed = new int[capacity];
+    }
+
+
+    /**
+     * Producer: copies a line into the ring.
+     *
+     * @param src line bytes
+     * @param offset first byte in src
+     * @param length number of bytes
+     * @param timestampNanos System.nanoTime() when the bytes were read
+     * @return false if the line was dropped because the ring is full or the line too long
+     */
+    public boolean offer(byte[] src, int offset, int length, long timestampNanos) {
+        if (length > slotSize) {
+            oversizedCount++;
+            return false;
+        }
+
+        long t = tail.get();
+        int used = (int) (t - head.get());
+        if (used > mask) {
+            overflowCount++;
+            return false;
+        }
+
+        int slot = (int) t & mask;
+        System.arraycopy(src, offset, data, slot * slotSize, length);
+        lengths[slot] = length;
+        timestamps[slot] = timestampNanos;
+        missed[slot] = pendingMissed;
+        pendingMissed = 0;
+        // Full fence: a consumer registering in await() either sees the line or is seen below
+        tail.set(t + 1);
+
+        if (used + 1 > highWaterMark) {
+            highWaterMark = used + 1;
+        }
+
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+
+    /**
+     * Producer: a line that was a sample was dropped, the consumer hears of it with the next
+     * line offered
+     */
+    public void markMissed() {
+        pendingMissed++;
+    }
+
+
+    /**
+     * Consumer: passes every queued line to the consumer, in order. Slot bytes are only valid
+     * during the callback.
+     *
+     * @param consumer receives the lines
+     * @return number of lines consumed
+     */
+    public int drain(LineConsumer consumer) {
+        long h = head.get();
+        long t = tail.get();
+
+        for (long i = h; i < t; i++) {
+            int slot = (int) i & mask;
+            if (missed[slot] != 0) {
+                consumer.onMissed(missed[slot]);
+            }
+            consumer.onLine(data, slot * slotSize, lengths[slot], timestamps[slot]);
+            head.lazySet(i + 1);
+        }
+        return (int) (t - h);
+    }
+
+
+    /**
+     * Consumer: parks until a line is offered, the timeout passes or the thread is interrupted.
+     *
+     * @param timeoutNanos maximum time to wait
+     */
+    public void await(long timeoutNanos) {
+        waitingConsumer = Thread.currentThread();
+        if (isEmpty()) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        waitingConsumer = null;
+    }
+
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+
+    /**
+     * @return number of lines currently queued
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+
+    /**
+     * @return number of lines dropped because the consumer fell a whole ring behind
+     */
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+
+    /**
+     * @return number of lines dropped because they didn't fit into a slot
+     */
+    public long getOversizedCount() {
+        return oversizedCount;
+    }
+
+
+    /**
+     * @return the most lines that were ever queued at once
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+
+    /**
+     * Receives lines as views into the ring's storage
+     */
+    public interface LineConsumer {
+        void onLine(byte[] buffer, int offset, int length, long timestampNanos);
+
+        /**
+         * Samples were dropped before the next line, see {@link #markMissed()}
+         */
+        default void onMissed(int samples) {}
+    }
+}
@@ -0,0 +1,32 @@
+package com.bfv.BFVAndroid.ingest;
+
+
+/**
+ * Converts barometric pressure to altitude with the international barometric formula, the same
+ * way BFV does for "PRS" lines.
+ */
+public final class PressureAltitude {
+
+    /**
+     * Standard sea level pressure in Pa, BFV's default QNH
+     */
+    public static final double QNH_STANDARD = 101325.0;
+
+    /**
+     * Range of QNH in Pa that can be set, AltitudeTable's error bound holds above the minimum
+     */
+    public static final double QNH_MIN = 90000.0;
+    public static final double QNH_MAX = 110000.0;
+
+    private PressureAltitude() {}
+
+
+    /**
+     * @param pressure pressure in Pa
+     * @param qnh sea level pressure in Pa
+     * @return altitude in m, bit for bit what BFV.getAltitude() gives
+     */
+    public static double altitude(int pressure, double qnh) {
+        return 44330.0 * (1.0 - Math.pow(pressure / qnh, 0.190295));
+    }
+}
@@ -0,0 +1,275 @@
+package com.bfv.BFVAndroid.ingest;
+
+import com.bfv.BFVAndroid.telemetry.LatencyHistogram;
+
+
+/**
+ * Reconstructs when the device took its samples from when their bytes arrived.
+ *
+ * The device samples at a fixed period of its own clock, but the link delivers samples in
+ * bursts: several arrive within the same read and then nothing for a while. Time deltas taken
+ * from arrival times are mostly near zero with an occasional large one. This stage fits a
+ * line through the arrival times against the sample number, weighting recent samples more
+ * ({@link #DEFAULT_WINDOW_SAMPLES} samples make up most of the weight). The slope of the line is the
+ * sample period measured in this phone's monotonic clock. Both clocks drift slowly, so the
+ * slope drifts too, and the fit follows it. Every sample gets the time of the line at its
+ * number, and the time deltas between samples become the period plus a small correction.
+ *
+ * Until {@link #MIN_FIT_SAMPLES} samples have arrived, samples are spaced by the mean period
+ * since the first one, so the device's rate doesn't have to be known; the nominal period is
+ * only used while all samples arrived at once. A sample whose arrival is more than
+ * {@link #RESYNC_PERIODS} periods, and at least {@link #RESYNC_NANOS}, off the line, after
+ * lost lines or a change of the device's rate, starts the fit over. Samples the device sent but that couldn't
+ * be decoded still count towards the sample number, see {@link #onMissedSample()}.
+ *
+ * Residual jitter is how far arrivals are from the line. Its magnitude is recorded in a
+ * histogram, and its RMS, the period and the spread of raw and reconstructed time deltas are kept.
+ *
+ * One thread feeds samples, the getters may be used from any thread.
+ */
+public class SampleClock {
+
+    public static final long DEFAULT_PERIOD_NANOS = 20000000L;  // BlueFly default, 50Hz
+    public static final int DEFAULT_WINDOW_SAMPLES = 512;
+    public static final int MIN_FIT_SAMPLES = 32;
+    public static final int RESYNC_PERIODS = 25;
+    public static final long RESYNC_NANOS = 500000000L;
+
+    private final double nominalPeriodNanos;
+    private final double lambda;
+    private final double statGain;
+    private final LatencyHistogram residuals = new LatencyHistogram();
+
+    // Weighted sums of the fit. x is the sample number relative to the last sample, y the
+    // arrival time in ns relative to the last arrival, so the sums stay small.
+    private double s0;
+    private double sx;
+    private double sxx;
+    private double sy;
+    private double sxy;
+
+    private long count;
+    private int pendingSteps;
+    private long lastArrivalNanos;
+    private long lastTimeNanos;
+    private long firstArrivalNanos;  // since the last start
+    private long stepsSinceFirst;
+
+    // Statistics, single writer
+    private volatile double periodNanos;
+    private volatile double residualRmsNanos;
+    private volatile double rawIntervalStdNanos;
+    private volatile double intervalStdNanos;
+    private volatile long sampleCount;
+    private volatile long resyncCount;
+    private double residualSquares;
+    private double rawIntervalVariance;
+    private double intervalVariance;
+
+
+    public SampleClock() {
+        this(DEFAULT_PERIOD_NANOS, DEFAULT_WINDOW_SAMPLES);
+    }
+
+
+    /**
+     * @param nominalPeriodNanos period of the device's samples until it has been measured
+     * @param windowSamples number of samples the fit mostly depends on
+     */
+    public SampleClock(long nominalPeriodNanos, int windowSamples) {
+        if (nominalPeriodNanos <= 0 || windowSamples < MIN_FIT_SAMPLES) {
+            throw new IllegalArgumentException("period " + nominalPeriodNanos + ", window " + windowSamples);
+        }
+        this.nominalPeriodNanos = nominalPeriodNanos;
+        this.lambda = 1.0 - 1.0 / windowSamples;
+        this.statGain = 1.0 / windowSamples;
+        periodNanos = nominalPeriodNanos;
+    }
+
+
+    /**
+     * Starts over, for a new connection. Statistics are kept.
+     */
+    public void reset() {
+        count = 0;
+        pendingSteps = 0;
+    }
+
+
+    /**
+     * A sample arrived
+     *
+     * @param arrivalNanos System.nanoTime() when its bytes were read
+     * @return reconstructed System.nanoTime() of the sample, increasing from sample to sample
+     */
+    public long onSample(long arrivalNanos) {
+        int steps = pendingSteps + 1;
+        pendingSteps = 0;
+
+        if (count == 0) {
+            return start(arrivalNanos);
+        }
+
+        final double d = arrivalNanos - lastArrivalNanos;
+        updateStd(d / steps, true);
+
+        // Forget old samples a little, then move the origin to this sample and add it
+        s0 *= lambda;
+        sx *= lambda;
+        sxx *= lambda;
+        sy *= lambda;
+        sxy *= lambda;
+
+        sxx += -2.0 * steps * sx + (double) steps * steps * s0;
+        sxy -= steps * sy;
+        sx -= steps * s0;
+
+        sy -= d * s0;
+        sxy -= d * sx;
+
+        s0 += 1.0;
+        count++;
+        stepsSinceFirst += steps;
+        lastArrivalNanos = arrivalNanos;
+
+        double period;
+        double offset;  // reconstructed time - arrival
+        double det = s0 * sxx - sx * sx;
+        if (count >= MIN_FIT_SAMPLES && det > 0) {
+            period = (s0 * sxy - sx * sy) / det;
+            offset = (sy - period * sx) / s0;
+        }
+        else {
+            // Mean period since the first sample, the last known one while there is none
+            period = arrivalNanos > firstArrivalNanos
+                    ? (double) (arrivalNanos - firstArrivalNanos) / stepsSinceFirst
+                    : periodNanos;
+            offset = lastTimeNanos + steps * period - arrivalNanos;
+        }
+
+        if (period <= 0 || Math.abs(offset) > Math.max(RESYNC_NANOS, RESYNC_PERIODS * period)) {
+            resyncCount++;
+            return start(arrivalNanos);
+        }
+
+        long time = arrivalNanos + Math.round(offset);
+        // Never step back or bunch up, whatever the fit did
+        long earliest = lastTimeNanos + Math.round(steps * period / 2);
+        if (time < earliest) {
+            time = earliest;
+        }
+        updateStd((double) (time - lastTimeNanos) / steps, false);
+        lastTimeNanos = time;
+
+        long residual = arrivalNanos - time;
+        if (count >= MIN_FIT_SAMPLES) {
+            residuals.record(Math.abs(residual));
+            residualSquares += ((double) residual * residual - residualSquares) * statGain;
+            residualRmsNanos = Math.sqrt(residualSquares);
+        }
+        periodNanos = period;
+        sampleCount++;  // single writer
+        return time;
+    }
+
+
+    /**
+     * The device sent a sample that was lost or couldn't be decoded, the next one is a
+     * period further on
+     */
+    public void onMissedSample() {
+        if (count > 0) {
+            pendingSteps++;
+        }
+    }
+
+
+    private long start(long arrivalNanos) {
+        s0 = 1.0;
+        sx = 0.0;
+        sxx = 0.0;
+        sy = 0.0;
+        sxy = 0.0;
+        count = 1;
+        pendingSteps = 0;
+        lastArrivalNanos = arrivalNanos;
+        lastTimeNanos = arrivalNanos;
+        firstArrivalNanos = arrivalNanos;
+        stepsSinceFirst = 0;
+        sampleCount++;
+        return arrivalNanos;
+    }
+
+
+    private void updateStd(double interval, boolean raw) {
+        double deviation = interval - periodNanos;
+        if (raw) {
+            rawIntervalVariance += (deviation * deviation - rawIntervalVariance) * statGain;
+            rawIntervalStdNanos = Math.sqrt(rawIntervalVariance);
+        }
+        else {
+            intervalVariance += (deviation * deviation - intervalVariance) * statGain;
+            intervalStdNanos = Math.sqrt(intervalVariance);
+        }
+    }
+
+
+    /**
+     * @return measured sample period in ns of this phone's clock, nominal until two samples
+     * arrived apart
+     */
+    public double getPeriodNanos() {
+        return periodNanos;
+    }
+
+
+    /**
+     * @return how much faster the device samples than nominal, in parts per million of this
+     * phone's clock, covering both the device's rate setting and the drift between the clocks
+     */
+    public double getRateOffsetPpm() {
+        return (nominalPeriodNanos / periodNanos - 1.0) * 1e6;
+    }
+
+
+    /**
+     * @return distribution of how far arrivals were from their reconstructed time, in ns
+     */
+    public LatencyHistogram getResiduals() {
+        return residuals;
+    }
+
+
+    public double getResidualRmsNanos() {
+        return residualRmsNanos;
+    }
+
+
+    /**
+     * @return spread of the time between arrivals around the period, per sample
+     */
+    public double getRawIntervalStdNanos() {
+        return rawIntervalStdNanos;
+    }
+
+
+    /**
+     * @return spread of the time between reconstructed samples around the period
+     */
+    public double getIntervalStdNanos() {
+        return intervalStdNanos;
+    }
+
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+
+    /**
+     * @return times the fit started over because arrivals stopped matching it
+     */
+    public long getResyncCount() {
+        return resyncCount;
+    }
+}
@@ -106,6 +106,55 @@ public class KalmanFilter {
         //System.out.println(k_abs);
     }
 
+    // Batch version of update() for reprocessing recorded data. Runs update()
+    // on count samples starting at offset with the state held in locals, and
+    // leaves the filter in the same state the scalar calls would. The math is
+    // written exactly as in update(), so results are bit for bit identical.
+    // absOut and velOut receive the state after every sample from outOffset
+    // on, either may be null.
+    public void update(double[] z_abs, double var_z_abs, double[] dt, int offset, int count,
+                       double[] absOut, double[] velOut, int outOffset) {
+        double x_abs = this.x_abs;
+        double x_vel = this.x_vel;
+        double p_abs_abs = this.p_abs_abs;
+        double p_abs_vel = this.p_abs_vel;
+        double p_vel_vel = this.p_vel_vel;
+        final double var_accel = this.var_accel;
+
+        for (int i = 0; i < count; i++) {
+            final double z = z_abs[offset + i];
+            final double t = dt[offset + i];
+
+            x_abs += x_vel * t;
+            p_abs_abs += 2.0*t*p_abs_vel + t*t*p_vel_vel + var_accel *t*t*t*t/4.0;
+            p_abs_vel += t*p_vel_vel + var_accel*t*t*t/2.0;
+            p_vel_vel += var_accel*t*t;
+
+            double y = z - x_abs;
+            double s_inv = 1. / (p_abs_abs + var_z_abs);
+            double k_abs = p_abs_abs *s_inv;
+            double k_vel = p_abs_vel *s_inv;
+            x_abs += k_abs * y;
+            x_vel += k_vel * y;
+            p_vel_vel -= p_abs_vel *k_vel;
+            p_abs_vel -= p_abs_vel *k_abs;
+            p_abs_abs -= p_abs_abs *k_abs;
+
+            if (absOut != null) {
+                absOut[outOffset + i] = x_abs;
+            }
+            if (velOut != null) {
+                velOut[outOffset + i] = x_vel;
+            }
+        }
+
+        this.x_abs = x_abs;
+        this.x_vel = x_vel;
+        this.p_abs_abs = p_abs_abs;
+        this.p_abs_vel = p_abs_vel;
+        this.p_vel_vel = p_vel_vel;
+    }
+
     // Getters for the state and its covariance.
     public double getXAbs() { return x_abs; }
     public double getXVel() { return x_vel; }
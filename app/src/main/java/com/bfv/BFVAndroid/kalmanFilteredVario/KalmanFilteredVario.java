@@ -49,6 +49,27 @@ public class KalmanFilteredVario extends Vario{
         return var;
     }
 
+    /**
+     * Batch version of {@link #addData(double, double)}, gives exactly the same results as
+     * calling it for every sample.
+     *
+     * @param timeDeltas seconds since the previous sample
+     * @param alts altitudes in m
+     * @param offset first sample in the input arrays
+     * @param count number of samples
+     * @param varOut receives the vario value after every sample from outOffset on, may be null
+     * @param altOut receives the filtered altitude after every sample from outOffset on, may be null
+     * @param outOffset first index written in the output arrays
+     * @return vario value after the last sample
+     */
+    public double addData(double[] timeDeltas, double[] alts, int offset, int count,
+                          double[] varOut, double[] altOut, int outOffset) {
+        kalmanFilter.update(alts, positionNoise, timeDeltas, offset, count, altOut, varOut, outOffset);
+        var = kalmanFilter.getXVel();
+
+        return var;
+    }
+
     public double getVar() {
         return var;
     }
@@ -0,0 +1,598 @@
+package com.bfv.BFVAndroid.kalmanFilteredVario;
+
+
+/**
+ * Runs several vario configurations side by side on the same altitude samples, so their output
+ * can be compared live and any one of them shown.
+ *
+ * Configurations are {@link KalmanFilteredVario} and regression {@link Vario} settings. Their
+ * state is kept as one array per field instead of one object per configuration, so a sample is
+ * one tight loop per kind of filter. Regression configurations share a single history of recent
+ * samples, sized for the largest window. Every configuration gives exactly the results the
+ * corresponding KalmanFilteredVario or Vario would.
+ *
+ * The time spent in each kind of filter is measured on every {@value #COST_SAMPLE_INTERVAL}th
+ * sample, timing every one would cost more than the filters. All configurations of a kind do the
+ * same work, so the per configuration cost is that time divided by their number.
+ *
+ * The state of every configuration can be saved in a {@link Checkpoint} and
+ * {@link #resume(Checkpoint, double, double) resumed} after a gap in the samples, or
+ * {@link #seed(double) seeded} from a single altitude instead of starting over from nothing.
+ *
+ * Samples are added from one thread. The selection and the getters may be used from others,
+ * output values read that way are only meant for display.
+ */
+public class VarioFilterBank {
+
+    public static final int COST_SAMPLE_INTERVAL = 16;
+
+    // Variance in (m/s)^2 of the vertical speed when nothing is known about it, covers the
+    // usual climb and sink rates
+    public static final double SEED_VELOCITY_VARIANCE = 4.0;
+
+    private final Config[] configs;
+    private final int[] slots;  // index of each configuration in the state arrays of its kind
+    private final int kalmanCount;
+    private final int regressionCount;
+
+    // Kalman filter state, one entry per configuration
+    private final double[] positionNoise;
+    private final double[] accelerationNoise;
+    private final double[] xAbs;
+    private final double[] xVel;
+    private final double[] pAbsAbs;
+    private final double[] pAbsVel;
+    private final double[] pVelVel;
+
+    // Regression state, one entry per configuration
+    private final double[] damp;
+    private final int[] windowSize;
+    private final double[] sumX;
+    private final double[] sumXX;
+    private final double[] sumY;
+    private final double[] sumXY;
+    private final long[] n;
+    private final double[] regressionVar;
+
+    // Recent samples shared by all regression windows
+    private final double[] historyTime;
+    private final double[] historyAlt;
+    private int historyPos;
+    private long regressionSamples;
+    private double time;
+
+    private volatile int selected;
+    private volatile long sampleCount;
+    private volatile long timedSamples;
+    private volatile long kalmanNanos;
+    private volatile long regressionNanos;
+
+
+    /**
+     * @param configs configurations in display order, at least one
+     */
+    public VarioFilterBank(Config... configs) {
+        if (configs.length == 0) {
+            throw new IllegalArgumentException("No configurations");
+        }
+        this.configs = configs.clone();
+
+        int kalman = 0;
+        int maxWindow = 1;
+        for (Config config : configs) {
+            if (config.isKalman()) {
+                kalman++;
+            }
+            else {
+                maxWindow = Math.max(maxWindow, config.getWindowSize());
+            }
+        }
+        kalmanCount = kalman;
+        regressionCount = configs.length - kalman;
+
+        positionNoise = new double[kalmanCount];
+        accelerationNoise = new double[kalmanCount];
+        xAbs = new double[kalmanCount];
+        xVel = new double[kalmanCount];
+        pAbsAbs = new double[kalmanCount];
+        pAbsVel = new double[kalmanCount];
+        pVelVel = new double[kalmanCount];
+
+        damp = new double[regressionCount];
+        windowSize = new int[regressionCount];
+        sumX = new double[regressionCount];
+        sumXX = new double[regressionCount];
+        sumY = new double[regressionCount];
+        sumXY = new double[regressionCount];
+        n = new long[regressionCount];
+        regressionVar = new double[regressionCount];
+
+        historyTime = new double[maxWindow];
+        historyAlt = new double[maxWindow];
+
+        slots = new int[configs.length];
+        int k = 0;
+        int r = 0;
+        for (int i = 0; i < configs.length; i++) {
+            Config config = configs[i];
+            if (config.isKalman()) {
+                positionNoise[k] = config.getFirst();
+                accelerationNoise[k] = config.getSecond();
+                slots[i] = k++;
+            }
+            else {
+                damp[r] = config.getFirst();
+                windowSize[r] = config.getWindowSize();
+                slots[i] = r++;
+            }
+        }
+        reset();
+    }
+
+
+    /**
+     * The app's vario first, then a few alternatives to compare it with
+     */
+    public static VarioFilterBank createDefault() {
+        return new VarioFilterBank(
+                Config.kalman(0.2, 0.5),
+                Config.kalman(0.1, 0.3),
+                Config.kalman(0.4, 1.0),
+                Config.regression(0.1, 25),
+                Config.regression(0.05, 50));
+    }
+
+
+    /**
+     * Feeds one altitude sample to every configuration.
+     *
+     * @param timeDelta seconds since the previous sample, 1.0 is safe for the first one
+     * @param alt altitude in m
+     * @return output of the selected configuration
+     */
+    public double addData(double timeDelta, double alt) {
+        long count = sampleCount;
+        if (count % COST_SAMPLE_INTERVAL == 0) {
+            long start = System.nanoTime();
+            addKalman(timeDelta, alt);
+            long middle = System.nanoTime();
+            addRegression(timeDelta, alt);
+            long end = System.nanoTime();
+
+            kalmanNanos += middle - start;
+            regressionNanos += end - middle;
+            timedSamples++;
+        }
+        else {
+            addKalman(timeDelta, alt);
+            addRegression(timeDelta, alt);
+        }
+        sampleCount = count + 1;
+        return getVar(selected);
+    }
+
+
+    // Same math as KalmanFilter.update(), per configuration
+    private void addKalman(double dt, double z_abs) {
+        for (int i = 0; i < kalmanCount; i++) {
+            final double var_accel = accelerationNoise[i];
+            double x_abs = xAbs[i];
+            double x_vel = xVel[i];
+            double p_abs_abs = pAbsAbs[i];
+            double p_abs_vel = pAbsVel[i];
+            double p_vel_vel = pVelVel[i];
+
+            x_abs += x_vel * dt;
+            p_abs_abs += 2.0*dt*p_abs_vel + dt*dt*p_vel_vel + var_accel *dt*dt*dt*dt/4.0;
+            p_abs_vel += dt*p_vel_vel + var_accel*dt*dt*dt/2.0;
+            p_vel_vel += var_accel*dt*dt;
+
+            double y = z_abs - x_abs;
+            double s_inv = 1. / (p_abs_abs + positionNoise[i]);
+            double k_abs = p_abs_abs *s_inv;
+            double k_vel = p_abs_vel *s_inv;
+            x_abs += k_abs * y;
+            x_vel += k_vel * y;
+            p_vel_vel -= p_abs_vel *k_vel;
+            p_abs_vel -= p_abs_vel *k_abs;
+            p_abs_abs -= p_abs_abs *k_abs;
+
+            xAbs[i] = x_abs;
+            xVel[i] = x_vel;
+            pAbsAbs[i] = p_abs_abs;
+            pAbsVel[i] = p_abs_vel;
+            pVelVel[i] = p_vel_vel;
+        }
+    }
+
+
+    // Same math as Vario.addData() and RegressionSlope, per configuration
+    private void addRegression(double timeDelta, double alt) {
+        if (regressionCount == 0) {
+            return;
+        }
+        time += timeDelta;
+        final double x = time;
+        final double y = alt;
+        final int capacity = historyTime.length;
+        final long count = regressionSamples;
+
+        for (int i = 0; i < regressionCount; i++) {
+            final int w = windowSize[i];
+            double sX = sumX[i];
+            double sXX = sumXX[i];
+            double sY = sumY[i];
+            double sXY = sumXY[i];
+            long nn = n[i];
+
+            // Window full, drop the sample w back
+            if (count >= w && nn > 0) {
+                int slot = historyPos - w;
+                if (slot < 0) {
+                    slot += capacity;
+                }
+                final double ox = historyTime[slot];
+                final double oy = historyAlt[slot];
+                sXX -= ox * ox;
+                sXY -= ox * oy;
+                sX -= ox;
+                sY -= oy;
+                nn--;
+            }
+
+            sXX += x * x;
+            sXY += x * y;
+            sX += x;
+            sY += y;
+            nn++;
+
+            if (count + 1 >= w && nn >= 2 && Math.abs(sXX) >= 10 * Double.MIN_VALUE) {
+                double top = nn*sXY - sX * sY;
+                double bottom = nn * sXX - sX * sX;
+                double rawVar = top / bottom;
+                if (!Double.isNaN(rawVar)) {
+                    regressionVar[i] = regressionVar[i] + damp[i] * (rawVar - regressionVar[i]);
+                }
+            }
+
+            sumX[i] = sX;
+            sumXX[i] = sXX;
+            sumY[i] = sY;
+            sumXY[i] = sXY;
+            n[i] = nn;
+        }
+
+        historyTime[historyPos] = x;
+        historyAlt[historyPos] = y;
+        historyPos = historyPos + 1 == capacity ? 0 : historyPos + 1;
+        regressionSamples = count + 1;
+    }
+
+
+    /**
+     * Resets every configuration, like a new KalmanFilteredVario or Vario. Selection and cost
+     * figures are kept.
+     */
+    public void reset() {
+        for (int i = 0; i < kalmanCount; i++) {
+            xAbs[i] = 0.0;
+            xVel[i] = 0.0;
+            pAbsAbs[i] = 1.0e10;
+            pAbsVel[i] = 0.0;
+            pVelVel[i] = accelerationNoise[i];
+        }
+        for (int i = 0; i < regressionCount; i++) {
+            sumX[i] = 0.0;
+            sumXX[i] = 0.0;
+            sumY[i] = 0.0;
+            sumXY[i] = 0.0;
+            n[i] = 0;
+            regressionVar[i] = 0.0;
+        }
+        historyPos = 0;
+        regressionSamples = 0;
+        time = 0.0;
+    }
+
+
+    /**
+     * Starts every configuration from one altitude as if it had just been measured, without a
+     * made up time since a previous sample: Kalman filters hold it with the position noise as
+     * variance and a vertical speed of 0 with {@link #SEED_VELOCITY_VARIANCE}, regression
+     * windows hold it as their first sample. Counts as a sample, the next one is added with the
+     * real time since this one. Selection and cost figures are kept.
+     *
+     * @param alt altitude in m
+     * @return output of the selected configuration
+     */
+    public double seed(double alt) {
+        for (int i = 0; i < kalmanCount; i++) {
+            xVel[i] = 0.0;
+            pVelVel[i] = SEED_VELOCITY_VARIANCE;
+        }
+        for (int i = 0; i < regressionCount; i++) {
+            regressionVar[i] = 0.0;
+        }
+        return anchor(alt);
+    }
+
+
+    /**
+     * Carries every configuration over a gap in the samples. The vertical speeds of a
+     * checkpoint are kept, with their variance grown by the acceleration noise over the gap
+     * up to {@link #SEED_VELOCITY_VARIANCE}, and the altitude is taken from the first sample
+     * after the gap like in {@link #seed(double)}. The altitude change over the gap isn't used:
+     * a single difference over seconds says little about the vertical speed at its end and
+     * makes the filters overshoot when the speed changed meanwhile.
+     *
+     * @param checkpoint taken from this bank before the gap
+     * @param gap seconds from the last sample in the checkpoint to this one
+     * @param alt altitude in m of the first sample after the gap
+     * @return output of the selected configuration
+     */
+    public double resume(Checkpoint checkpoint, double gap, double alt) {
+        restore(checkpoint);
+        for (int i = 0; i < kalmanCount; i++) {
+            pVelVel[i] = Math.min(pVelVel[i] + accelerationNoise[i] * gap * gap,
+                    SEED_VELOCITY_VARIANCE);
+        }
+        return anchor(alt);
+    }
+
+
+    // Kalman altitudes known to the position noise, regression windows start over from alt
+    private double anchor(double alt) {
+        for (int i = 0; i < kalmanCount; i++) {
+            xAbs[i] = alt;
+            pAbsAbs[i] = positionNoise[i];
+            pAbsVel[i] = 0.0;
+        }
+        for (int i = 0; i < regressionCount; i++) {
+            sumX[i] = 0.0;
+            sumXX[i] = 0.0;
+            sumY[i] = 0.0;
+            sumXY[i] = 0.0;
+            n[i] = 0;
+        }
+        historyPos = 0;
+        regressionSamples = 0;
+        time = 0.0;
+        addRegression(0.0, alt);
+
+        sampleCount++;  // single writer
+        return getVar(selected);
+    }
+
+
+    /**
+     * Saves the state of every configuration
+     *
+     * @param time when the last sample was taken, in the caller's clock, kept with the state
+     */
+    public Checkpoint checkpoint(long time) {
+        return new Checkpoint(this, time);
+    }
+
+
+    /**
+     * Puts every configuration back in the exact state of a checkpoint
+     *
+     * @param checkpoint taken from this bank
+     */
+    public void restore(Checkpoint checkpoint) {
+        if (checkpoint.bank != this) {
+            throw new IllegalArgumentException("Checkpoint of another bank");
+        }
+        checkpoint.copy(true);
+    }
+
+
+    public int size() {
+        return configs.length;
+    }
+
+
+    public Config getConfig(int index) {
+        return configs[index];
+    }
+
+
+    /**
+     * @return vertical speed in m/s of a configuration
+     */
+    public double getVar(int index) {
+        return configs[index].isKalman() ? xVel[slots[index]] : regressionVar[slots[index]];
+    }
+
+
+    public int getSelected() {
+        return selected;
+    }
+
+
+    /**
+     * Selects the configuration returned by {@link #addData(double, double)}
+     */
+    public void setSelected(int index) {
+        if (index < 0 || index >= configs.length) {
+            throw new IndexOutOfBoundsException("No configuration " + index);
+        }
+        selected = index;
+    }
+
+
+    public double getSelectedVar() {
+        return getVar(selected);
+    }
+
+
+    /**
+     * @return number of samples added since the bank was created
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+
+    /**
+     * @return average CPU time one sample costs a configuration, in ns
+     */
+    public double getCostNanos(int index) {
+        long samples = timedSamples;
+        if (samples == 0) {
+            return 0.0;
+        }
+        return configs[index].isKalman()
+                ? (double) kalmanNanos / samples / kalmanCount
+                : (double) regressionNanos / samples / regressionCount;
+    }
+
+
+    /**
+     * @return average CPU time of one sample for the whole bank, in ns
+     */
+    public double getTotalCostNanos() {
+        long samples = timedSamples;
+        return samples == 0 ? 0.0 : (double) (kalmanNanos + regressionNanos) / samples;
+    }
+
+
+    /**
+     * State of every configuration of a bank at one time
+     */
+    public static final class Checkpoint {
+        private final VarioFilterBank bank;
+        private final long time;
+        private final double[] kalman;
+        private final double[] regression;
+        private final long[] n;
+        private final double[] historyTime;
+        private final double[] historyAlt;
+        private int historyPos;
+        private long regressionSamples;
+        private double regressionTime;
+
+        private Checkpoint(VarioFilterBank bank, long time) {
+            this.bank = bank;
+            this.time = time;
+            kalman = new double[bank.kalmanCount * 5];
+            regression = new double[bank.regressionCount * 5];
+            n = new long[bank.regressionCount];
+            historyTime = new double[bank.historyTime.length];
+            historyAlt = new double[bank.historyAlt.length];
+            copy(false);
+        }
+
+        /**
+         * @return time of the last sample before the checkpoint, as given to
+         * {@link VarioFilterBank#checkpoint(long)}
+         */
+        public long getTime() {
+            return time;
+        }
+
+        // Copies the bank's state into this checkpoint or back
+        private void copy(boolean restore) {
+            final VarioFilterBank b = bank;
+            final int k = b.kalmanCount;
+            final int r = b.regressionCount;
+            copy(restore, b.xAbs, kalman, 0, k);
+            copy(restore, b.xVel, kalman, k, k);
+            copy(restore, b.pAbsAbs, kalman, 2 * k, k);
+            copy(restore, b.pAbsVel, kalman, 3 * k, k);
+            copy(restore, b.pVelVel, kalman, 4 * k, k);
+            copy(restore, b.sumX, regression, 0, r);
+            copy(restore, b.sumXX, regression, r, r);
+            copy(restore, b.sumY, regression, 2 * r, r);
+            copy(restore, b.sumXY, regression, 3 * r, r);
+            copy(restore, b.regressionVar, regression, 4 * r, r);
+            if (restore) {
+                System.arraycopy(n, 0, b.n, 0, r);
+                System.arraycopy(historyTime, 0, b.historyTime, 0, historyTime.length);
+                System.arraycopy(historyAlt, 0, b.historyAlt, 0, historyAlt.length);
+                b.historyPos = historyPos;
+                b.regressionSamples = regressionSamples;
+                b.time = regressionTime;
+            }
+            else {
+                System.arraycopy(b.n, 0, n, 0, r);
+                System.arraycopy(b.historyTime, 0, historyTime, 0, historyTime.length);
+                System.arraycopy(b.historyAlt, 0, historyAlt, 0, historyAlt.length);
+                historyPos = b.historyPos;
+                regressionSamples = b.regressionSamples;
+                regressionTime = b.time;
+            }
+        }
+
+        private static void copy(boolean restore, double[] field, double[] saved, int offset, int length) {
+            if (restore) {
+                System.arraycopy(saved, offset, field, 0, length);
+            }
+            else {
+                System.arraycopy(field, 0, saved, offset, length);
+            }
+        }
+    }
+
+
+    /**
+     * Settings of one vario configuration
+     */
+    public static final class Config {
+        private final boolean kalman;
+        private final double first;
+        private final double second;
+
+        private Config(boolean kalman, double first, double second) {
+            this.kalman = kalman;
+            this.first = first;
+            this.second = second;
+        }
+
+        /**
+         * Settings of a {@link KalmanFilteredVario}
+         */
+        public static Config kalman(double positionNoise, double accelerationNoise) {
+            return new Config(true, positionNoise, accelerationNoise);
+        }
+
+        /**
+         * Settings of a regression {@link Vario}
+         */
+        public static Config regression(double damp, int windowSize) {
+            if (windowSize < 1) {
+                throw new IllegalArgumentException("windowSize must be >= 1: " + windowSize);
+            }
+            return new Config(false, damp, windowSize);
+        }
+
+        public boolean isKalman() {
+            return kalman;
+        }
+
+        /**
+         * @return position noise of a Kalman configuration, damping of a regression one
+         */
+        public double getFirst() {
+            return first;
+        }
+
+        /**
+         * @return acceleration noise of a Kalman configuration, window size of a regression one
+         */
+        public double getSecond() {
+            return second;
+        }
+
+        public int getWindowSize() {
+            return (int) second;
+        }
+
+        @Override
+        public String toString() {
+            return kalman
+                    ? "Kalman " + first + "/" + second
+                    : "Regression " + first + "/" + getWindowSize();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.bfv.BFVAndroid.parameters;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+ * Immutable set of desired parameter values, keyed by parameter name.
+ *
+ * Values are the raw integers the device stores, as returned by Command.getValue(), so a profile
+ * captured from one device applies to another without unit conversions.
+ */
+public final class ParameterProfile {
+
+    private final Map<String, Integer> values;
+
+
+    public ParameterProfile(Map<String, Integer> values) {
+        this.values = Collections.unmodifiableMap(new TreeMap<>(values));
+    }
+
+
+    /**
+     * @return profile holding every parameter the snapshot has a value for
+     */
+    public static ParameterProfile capture(ParameterSnapshot snapshot) {
+        Map<String, Integer> values = new TreeMap<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.hasValue(i)) {
+                values.put(snapshot.getName(i), snapshot.getValue(i));
+            }
+        }
+        return new ParameterProfile(values);
+    }
+
+
+    public boolean contains(String name) {
+        return values.containsKey(name);
+    }
+
+    /**
+     * @return raw value, throws NullPointerException if the profile doesn't contain the parameter
+     */
+    public int get(String name) {
+        return values.get(name);
+    }
+
+    public Set<String> getNames() {
+        return values.keySet();
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public Map<String, Integer> asMap() {
+        return values;
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ParameterProfile && values.equals(((ParameterProfile) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ParameterProfile" + values;
+    }
+}
@@ -0,0 +1,105 @@
+package com.bfv.BFVAndroid.parameters;
+
+import BFVLib.Command;
+
+
+/**
+ * Immutable view of all parameters at one point in time.
+ *
+ * Parameters are addressed by position, the row order of the parameters list. Display strings are
+ * prepared when the snapshot is built on the processing thread, so reading a row is a plain array
+ * access. Every snapshot carries the version of the store that published it.
+ */
+public final class ParameterSnapshot {
+
+    private final long version;
+
+    // Never change, shared by all snapshots of a store
+    private final String[] names;
+    private final String[] displayNames;
+    private final Command[] commands;
+
+    private final boolean[] hasValues;
+    private final int[] values;
+    private final String[] valueStrings;
+
+
+    ParameterSnapshot(long version, String[] names, String[] displayNames, Command[] commands,
+                      boolean[] hasValues, int[] values, String[] valueStrings) {
+        this.version = version;
+        this.names = names;
+        this.displayNames = displayNames;
+        this.commands = commands;
+        this.hasValues = hasValues;
+        this.values = values;
+        this.valueStrings = valueStrings;
+    }
+
+
+    /**
+     * @return copy of this snapshot with new values, the arrays must not be modified afterwards
+     */
+    ParameterSnapshot withValues(boolean[] hasValues, int[] values, String[] valueStrings) {
+        return new ParameterSnapshot(version + 1, names, displayNames, commands,
+                hasValues, values, valueStrings);
+    }
+
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return name as used by BFV
+     */
+    public String getName(int position) {
+        return names[position];
+    }
+
+    /**
+     * @return name starting with a capital letter
+     */
+    public String getDisplayName(int position) {
+        return displayNames[position];
+    }
+
+    /**
+     * Gives access to the parameter's description, limits and serialization. Its value is owned
+     * by BFV and may be newer than this snapshot, use {@link #getValue(int)} to read the value.
+     */
+    public Command getCommand(int position) {
+        return commands[position];
+    }
+
+    public boolean hasValue(int position) {
+        return hasValues[position];
+    }
+
+    public int getValue(int position) {
+        return values[position];
+    }
+
+    /**
+     * @return value formatted for display, "" if the device didn't send it yet
+     */
+    public String getValueAsString(int position) {
+        return valueStrings[position];
+    }
+
+
+    boolean[] copyHasValues() {
+        return hasValues.clone();
+    }
+
+    int[] copyValues() {
+        return values.clone();
+    }
+
+    String[] copyValueStrings() {
+        return valueStrings.clone();
+    }
+}
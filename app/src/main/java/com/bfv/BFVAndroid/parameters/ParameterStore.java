@@ -0,0 +1,220 @@
+package com.bfv.BFVAndroid.parameters;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import BFVLib.BFV;
+import BFVLib.Command;
+
+
+/**
+ * App side copy of the device parameters.
+ *
+ * BFV updates its parameter map in place on the processing thread, so reading it from the UI can
+ * see a settings line half applied. After every settings line the store copies the values into a
+ * new {@link ParameterSnapshot} and publishes it with a single volatile write. Readers always get
+ * a complete snapshot and never lock.
+ *
+ * {@link #update(Map, BitSet)} must only be called from one thread at a time, readers can be on any
+ * thread. Every update counts as one settings readback, whether values changed or not, so callers
+ * can wait for the device to confirm with {@link #awaitUpdate(long, long)}.
+ */
+public class ParameterStore {
+
+    private volatile ParameterSnapshot snapshot;
+    private long updateCount;  // guarded by this
+
+
+    /**
+     * @param parameters BFV parameter map, its iteration order becomes the row order
+     */
+    public ParameterStore(Map<String, Command> parameters) {
+        int count = parameters.size();
+        String[] names = new String[count];
+        String[] displayNames = new String[count];
+        Command[] commands = new Command[count];
+        boolean[] hasValues = new boolean[count];
+        int[] values = new int[count];
+        String[] valueStrings = new String[count];
+
+        int position = 0;
+        for (Map.Entry<String, Command> entry : parameters.entrySet()) {
+            String name = entry.getKey();
+            names[position] = name;
+            displayNames[position] = name.isEmpty()
+                    ? name : name.substring(0, 1).toUpperCase() + name.substring(1);
+            commands[position] = entry.getValue();
+            readValue(entry.getValue(), position, hasValues, values, valueStrings);
+            position++;
+        }
+
+        snapshot = new ParameterSnapshot(0, names, displayNames, commands,
+                hasValues, values, valueStrings);
+    }
+
+
+    /**
+     * @return latest published snapshot
+     */
+    public ParameterSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+
+    /**
+     * Copies the current parameter values and publishes a new snapshot if any changed.
+     *
+     * @param parameters same BFV parameter map the store was created with
+     * @param changed receives the positions of changed parameters, is not cleared
+     * @return true if a new snapshot was published
+     */
+    public boolean update(Map<String, Command> parameters, BitSet changed) {
+        boolean published = publish(parameters, changed);
+        synchronized (this) {
+            updateCount++;
+            notifyAll();
+        }
+        return published;
+    }
+
+
+    /**
+     * Shows cached values right away, before the device sent its settings. The next
+     * {@link #update(Map, BitSet)} only reports the parameters where the device differs.
+     * Doesn't count as a readback.
+     *
+     * @param cached last known values of the device
+     * @param changed receives the positions of changed parameters, is not cleared
+     * @return true if a new snapshot was published
+     */
+    public boolean preload(ParameterProfile cached, BitSet changed) {
+        ParameterSnapshot current = snapshot;
+        boolean[] hasValues = null;
+        int[] values = null;
+        String[] valueStrings = null;
+
+        for (int i = 0; i < current.size(); i++) {
+            String name = current.getName(i);
+            if (!cached.contains(name)) {
+                continue;
+            }
+            int value = cached.get(name);
+            if (current.hasValue(i) && current.getValue(i) == value) {
+                continue;
+            }
+
+            if (hasValues == null) {
+                hasValues = current.copyHasValues();
+                values = current.copyValues();
+                valueStrings = current.copyValueStrings();
+            }
+            hasValues[i] = true;
+            values[i] = value;
+            valueStrings[i] = formatValue(current.getCommand(i), value);
+            changed.set(i);
+        }
+
+        if (hasValues == null) {
+            return false;
+        }
+        snapshot = current.withValues(hasValues, values, valueStrings);
+        return true;
+    }
+
+
+    /**
+     * @return number of updates so far, pass to {@link #awaitUpdate(long, long)}
+     */
+    public synchronized long getUpdateCount() {
+        return updateCount;
+    }
+
+
+    /**
+     * Waits for the next settings readback.
+     *
+     * @param afterCount {@link #getUpdateCount()} before the readback was requested
+     * @param timeoutMillis maximum time to wait
+     * @return snapshot after the readback, null on timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized ParameterSnapshot awaitUpdate(long afterCount, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        while (updateCount <= afterCount) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return snapshot;
+    }
+
+
+    private boolean publish(Map<String, Command> parameters, BitSet changed) {
+        ParameterSnapshot current = snapshot;
+        Collection<Command> commands = parameters.values();
+        if (commands.size() != current.size()) {
+            throw new IllegalArgumentException("Parameter count changed: " + commands.size());
+        }
+
+        boolean[] hasValues = null;
+        int[] values = null;
+        String[] valueStrings = null;
+
+        int position = 0;
+        for (Command command : commands) {
+            boolean has = command.hasValue();
+            int value = has ? command.getValue() : 0;
+            if (has != current.hasValue(position) || value != current.getValue(position)) {
+                // Copy on first change, unchanged entries keep their strings
+                if (hasValues == null) {
+                    hasValues = current.copyHasValues();
+                    values = current.copyValues();
+                    valueStrings = current.copyValueStrings();
+                }
+                readValue(command, position, hasValues, values, valueStrings);
+                changed.set(position);
+            }
+            position++;
+        }
+
+        if (hasValues == null) {
+            return false;
+        }
+        snapshot = current.withValues(hasValues, values, valueStrings);
+        return true;
+    }
+
+
+    private static void readValue(Command command, int position,
+                                  boolean[] hasValues, int[] values, String[] valueStrings) {
+        boolean has = command.hasValue();
+        hasValues[position] = has;
+        values[position] = has ? command.getValue() : 0;
+        valueStrings[position] = has ? formatValue(command, values[position]) : "";
+    }
+
+
+    /**
+     * Formats a raw value like Command.getValueAsString() would, without setting it on the
+     * Command. Types without a display format give "".
+     */
+    static String formatValue(Command command, int value) {
+        switch (command.getType()) {
+            case BFV.TYPE_INT:
+                return String.valueOf(value);
+            case BFV.TYPE_DOUBLE:
+                return String.valueOf(value / command.getFactor());
+            case BFV.TYPE_INTOFFSET:
+                return String.valueOf((int) (value + command.getFactor()));
+            case BFV.TYPE_BOOLEAN:
+                return String.valueOf(value != 0);
+            default:
+                return "";
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.bfv.BFVAndroid.parameters;
+
+import com.bfv.BFVAndroid.transport.CommandFuture;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import BFVLib.Command;
+
+
+/**
+ * Applies a {@link ParameterProfile} to the connected device in one go.
+ *
+ * Only parameters whose current value differs from the profile are sent. Their commands are
+ * queued back to back without waiting for the device in between, spaced by a pacing interval so
+ * the device's serial input doesn't overrun. Once all are written a single getSettings readback
+ * confirms the result, instead of one round trip per parameter.
+ *
+ * {@link #apply(ParameterProfile)} blocks, run it off the UI thread.
+ */
+public class ProfileApplier {
+
+    public static final long DEFAULT_PACING_MILLIS = 20;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final ParameterStore store;
+    private final CommandSink sink;
+    private final Command getSettings;
+    private final long pacingMillis;
+    private final long timeoutMillis;
+
+
+    /**
+     * @param store parameters of the connected device
+     * @param sink queues commands to the device
+     * @param getSettings command that makes the device send its settings
+     */
+    public ProfileApplier(ParameterStore store, CommandSink sink, Command getSettings) {
+        this(store, sink, getSettings, DEFAULT_PACING_MILLIS, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+
+    /**
+     * @param pacingMillis minimum time between two commands
+     * @param timeoutMillis maximum time to wait for the writes and for the readback each
+     */
+    public ProfileApplier(ParameterStore store, CommandSink sink, Command getSettings,
+                          long pacingMillis, long timeoutMillis) {
+        this.store = store;
+        this.sink = sink;
+        this.getSettings = getSettings;
+        this.pacingMillis = pacingMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+
+    /**
+     * Finds the parameters that have to be sent to get from the current values to the profile.
+     * Profile entries for unknown parameters or with values out of range are left out.
+     */
+    public static List<Change> diff(ParameterSnapshot current, ParameterProfile desired) {
+        List<Change> changes = new ArrayList<>();
+        for (int i = 0; i < current.size(); i++) {
+            String name = current.getName(i);
+            if (!desired.contains(name)) {
+                continue;
+            }
+
+            int value = desired.get(name);
+            Command command = current.getCommand(i);
+            if (value < command.getMinVal() || value > command.getMaxVal()) {
+                continue;
+            }
+            if (!current.hasValue(i) || current.getValue(i) != value) {
+                changes.add(new Change(name, command.getCommandCode(), value));
+            }
+        }
+        return changes;
+    }
+
+
+    /**
+     * Sends the changed parameters and waits for the readback.
+     *
+     * @return what was sent and whether the device confirmed it
+     * @throws IOException if a write fails or the device doesn't answer in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Result apply(ParameterProfile desired) throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        List<Change> changes = diff(store.getSnapshot(), desired);
+
+        long bytesSent = 0;
+        CommandFuture last = null;
+        long nextSendNanos = startNanos;
+        for (Change change : changes) {
+            sleepUntil(nextSendNanos);
+            String line = change.getCommand();
+            last = sink.write(change.getCode(), line);
+            bytesSent += line.getBytes(ASCII).length;
+            nextSendNanos = System.nanoTime() + pacingMillis * 1000000L;
+        }
+
+        // Writer works in order, the last command done means all are
+        if (last != null) {
+            await(last);
+        }
+
+        long readbacks = store.getUpdateCount();
+        String readback = getSettings.serializeCommand();
+        await(sink.write(getSettings.getCommandCode(), readback));
+        bytesSent += readback.getBytes(ASCII).length;
+
+        ParameterSnapshot confirmed = store.awaitUpdate(readbacks, timeoutMillis);
+        if (confirmed == null) {
+            throw new IOException("No settings readback within " + timeoutMillis + "ms");
+        }
+
+        List<String> mismatched = new ArrayList<>();
+        for (Change change : diff(confirmed, desired)) {
+            mismatched.add(change.getName());
+        }
+
+        return new Result(changes, mismatched, bytesSent, System.nanoTime() - startNanos);
+    }
+
+
+    private void await(CommandFuture future) throws IOException, InterruptedException {
+        try {
+            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause();
+        } catch (TimeoutException e) {
+            throw new IOException("Write not done within " + timeoutMillis + "ms");
+        }
+    }
+
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long waitNanos = nanos - System.nanoTime();
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+        }
+    }
+
+
+    /**
+     * One parameter to send
+     */
+    public static final class Change {
+        private final String name;
+        private final String code;
+        private final int value;
+
+        Change(String name, String code, int value) {
+            this.name = name;
+            this.code = code;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        /**
+         * @return the same text Command.serializeCommand() produces for this value, built without
+         * touching the Command that BFV updates
+         */
+        public String getCommand() {
+            return "$" + code + " " + value + "*";
+        }
+    }
+
+
+    /**
+     * Outcome of {@link #apply(ParameterProfile)}
+     */
+    public static final class Result {
+        private final List<Change> sent;
+        private final List<String> mismatched;
+        private final long bytesSent;
+        private final long wallTimeNanos;
+
+        Result(List<Change> sent, List<String> mismatched, long bytesSent, long wallTimeNanos) {
+            this.sent = Collections.unmodifiableList(sent);
+            this.mismatched = Collections.unmodifiableList(mismatched);
+            this.bytesSent = bytesSent;
+            this.wallTimeNanos = wallTimeNanos;
+        }
+
+        public List<Change> getSent() {
+            return sent;
+        }
+
+        /**
+         * @return parameters the readback still shows different from the profile
+         */
+        public List<String> getMismatched() {
+            return mismatched;
+        }
+
+        public boolean isVerified() {
+            return mismatched.isEmpty();
+        }
+
+        /**
+         * @return bytes of all commands sent, the readback request included
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getWallTimeNanos() {
+            return wallTimeNanos;
+        }
+    }
+
+
+    /**
+     * Where commands go, usually BluetoothProvider.write(String, String)
+     */
+    public interface CommandSink {
+        CommandFuture write(String key, String command);
+    }
+}
@@ -0,0 +1,161 @@
+package com.bfv.BFVAndroid.parameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+
+/**
+ * Compact binary format for {@link ParameterProfile}, used for the per-device cache and for
+ * profile export and import.
+ *
+ * Layout, version 1:
+ * <pre>
+ *   "BFVP"               magic
+ *   u8     version
+ *   varint count
+ *   count x (u8 name length, ASCII name, zigzag varint raw value)
+ *   u32    CRC32 of everything before, big endian
+ * </pre>
+ * A full profile of the BlueFly parameters is a few hundred bytes. Readers reject newer versions
+ * and damaged data with an IOException.
+ */
+public final class ProfileCodec {
+
+    public static final String FILE_EXTENSION = ".bfvp";
+    public static final String MIME_TYPE = "application/octet-stream";
+
+    private static final byte[] MAGIC = {'B', 'F', 'V', 'P'};
+    private static final int VERSION = 1;
+    private static final int MAX_SIZE = 64 * 1024;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+
+    private ProfileCodec() {}
+
+
+    public static byte[] encode(ParameterProfile profile) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + profile.size() * 16);
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        writeVarint(out, profile.size());
+        for (Map.Entry<String, Integer> entry : profile.asMap().entrySet()) {
+            byte[] name = entry.getKey().getBytes(ASCII);
+            if (name.length > 0xff) {
+                throw new IllegalArgumentException("Parameter name too long: " + entry.getKey());
+            }
+            out.write(name.length);
+            out.write(name, 0, name.length);
+            int value = entry.getValue();
+            writeVarint(out, (value << 1) ^ (value >> 31));
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out.toByteArray());
+        long checksum = crc.getValue();
+        out.write((int) (checksum >>> 24));
+        out.write((int) (checksum >>> 16));
+        out.write((int) (checksum >>> 8));
+        out.write((int) checksum);
+        return out.toByteArray();
+    }
+
+
+    public static ParameterProfile decode(byte[] data) throws IOException {
+        if (data.length < MAGIC.length + 2 + 4) {
+            throw new IOException("Profile too short");
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                throw new IOException("Not a parameter profile");
+            }
+        }
+
+        int end = data.length - 4;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, end);
+        long checksum = (data[end] & 0xffL) << 24 | (data[end + 1] & 0xffL) << 16
+                | (data[end + 2] & 0xffL) << 8 | (data[end + 3] & 0xffL);
+        if (crc.getValue() != checksum) {
+            throw new IOException("Profile checksum mismatch");
+        }
+
+        int version = data[MAGIC.length] & 0xff;
+        if (version != VERSION) {
+            throw new IOException("Unsupported profile version " + version);
+        }
+
+        int[] position = {MAGIC.length + 1};
+        int count = readVarint(data, position, end);
+        Map<String, Integer> values = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            if (position[0] >= end) {
+                throw new IOException("Profile truncated");
+            }
+            int nameLength = data[position[0]++] & 0xff;
+            if (position[0] + nameLength > end) {
+                throw new IOException("Profile truncated");
+            }
+            String name = new String(data, position[0], nameLength, ASCII);
+            position[0] += nameLength;
+            int zigzag = readVarint(data, position, end);
+            values.put(name, (zigzag >>> 1) ^ -(zigzag & 1));
+        }
+        if (position[0] != end) {
+            throw new IOException("Unexpected data after profile");
+        }
+        return new ParameterProfile(values);
+    }
+
+
+    public static void write(ParameterProfile profile, OutputStream out) throws IOException {
+        out.write(encode(profile));
+    }
+
+
+    /**
+     * Reads a profile up to the end of the stream, the stream is not closed
+     */
+    public static ParameterProfile read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        byte[] buffer = new byte[512];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+            if (out.size() > MAX_SIZE) {
+                throw new IOException("Profile too large");
+            }
+        }
+        return decode(out.toByteArray());
+    }
+
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+
+    private static int readVarint(byte[] data, int[] position, int end) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position[0] >= end) {
+                throw new IOException("Profile truncated");
+            }
+            int b = data[position[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
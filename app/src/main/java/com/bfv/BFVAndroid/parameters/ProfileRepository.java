@@ -0,0 +1,78 @@
+package com.bfv.BFVAndroid.parameters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Keeps the last known parameters of every device, one {@link ProfileCodec} file per device
+ * address and hardware version.
+ *
+ * Files are replaced atomically, a crash while saving leaves the previous profile in place.
+ */
+public class ProfileRepository {
+
+    private final File directory;
+
+
+    public ProfileRepository(File directory) {
+        this.directory = directory;
+    }
+
+
+    /**
+     * @return last saved profile, null if there is none or it can't be read
+     */
+    public ParameterProfile load(String deviceAddress, String hwVersion) {
+        File file = fileFor(deviceAddress, hwVersion);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (InputStream in = new FileInputStream(file)) {
+            return ProfileCodec.read(in);
+        } catch (IOException e) {
+            // Damaged or from a newer app version, the next readback replaces it
+            return null;
+        }
+    }
+
+
+    public void save(String deviceAddress, String hwVersion, ParameterProfile profile) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        File file = fileFor(deviceAddress, hwVersion);
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            ProfileCodec.write(profile, out);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can't replace " + file);
+        }
+    }
+
+
+    File fileFor(String deviceAddress, String hwVersion) {
+        return new File(directory, sanitize(deviceAddress) + "-" + sanitize(hwVersion)
+                + ProfileCodec.FILE_EXTENSION);
+    }
+
+
+    // Addresses are MACs for bluetooth but file paths for replays
+    private static String sanitize(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            out.append((c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '.'
+                    ? c : '_');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package com.bfv.BFVAndroid.session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Immutable side by side view of several devices: how far each one's pressure and altitude
+ * are from a reference device, and what each one costs to process.
+ *
+ * Offsets compare the running means of the devices, so sample noise mostly cancels and what
+ * remains is the calibration difference between the sensors. A device without samples yet, or
+ * a reference without them, has NaN offsets.
+ */
+public final class DeviceComparison {
+
+    private final List<Row> rows;
+    private final int reference;
+
+
+    DeviceComparison(List<DeviceSession> sessions, int reference, long nowNanos) {
+        double referencePressure = Double.NaN;
+        double referenceAltitude = Double.NaN;
+        if (reference >= 0 && reference < sessions.size()) {
+            referencePressure = sessions.get(reference).getMeanPressure();
+            referenceAltitude = sessions.get(reference).getMeanAltitude();
+        }
+
+        List<Row> list = new ArrayList<>(sessions.size());
+        for (DeviceSession session : sessions) {
+            list.add(new Row(session, referencePressure, referenceAltitude, nowNanos));
+        }
+        this.rows = Collections.unmodifiableList(list);
+        this.reference = reference;
+    }
+
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+
+    /**
+     * @return index of the row the others are compared to
+     */
+    public int getReference() {
+        return reference;
+    }
+
+
+    /**
+     * Writes one line per device: offsets to the reference, vario, samples and CPU cost, then
+     * why sessions that ended by themselves did
+     */
+    public void writeTable(Appendable out) throws IOException {
+        out.append(String.format(Locale.US, "%-2s %-17s %9s %8s %8s %6s %8s %7s %6s%n",
+                "", "device", "p Pa", "dp Pa", "dalt m", "vario", "samples", "cpu us", "cpu %"));
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            String mark = i == reference ? "*" : row.getState() == DeviceSession.STATE_CLOSED ? "x" : "";
+            out.append(String.format(Locale.US, "%-2s %-17s %9.1f %8.1f %8.2f %6.2f %8d %7.1f %6.2f%n",
+                    mark, row.getAddress(), row.getMeanPressure(), row.getPressureOffset(),
+                    row.getAltitudeOffset(), row.getVario(), row.getSamples(),
+                    row.getCpuNanosPerSample() / 1e3, row.getCpuLoad() * 100));
+        }
+        for (Row row : rows) {
+            if (row.getFailure() != null) {
+                out.append(String.format(Locale.US, "x  %s: %s%n", row.getAddress(), row.getFailure()));
+            }
+        }
+    }
+
+
+    /**
+     * Values of one device
+     */
+    public static final class Row {
+        private final String address;
+        private final int state;
+        private final String failure;
+        private final long samples;
+        private final double meanPressure;
+        private final double meanAltitude;
+        private final double pressureOffset;
+        private final double altitudeOffset;
+        private final double vario;
+        private final long cpuNanos;
+        private final long elapsedNanos;
+
+        Row(DeviceSession session, double referencePressure, double referenceAltitude, long nowNanos) {
+            address = session.getAddress();
+            state = session.getState();
+            failure = session.getFailure();
+            samples = session.getSamples();
+            meanPressure = session.getMeanPressure();
+            meanAltitude = session.getMeanAltitude();
+            pressureOffset = meanPressure - referencePressure;
+            altitudeOffset = meanAltitude - referenceAltitude;
+            vario = session.getVario();
+            cpuNanos = session.getCpuNanos();
+            long opened = session.getOpenedNanos();
+            elapsedNanos = opened != 0 ? nowNanos - opened : 0;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * @return one of the DeviceSession.STATE_ constants
+         */
+        public int getState() {
+            return state;
+        }
+
+        public String getFailure() {
+            return failure;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public double getMeanPressure() {
+            return meanPressure;
+        }
+
+        public double getMeanAltitude() {
+            return meanAltitude;
+        }
+
+        /**
+         * @return mean pressure minus the reference's in Pa
+         */
+        public double getPressureOffset() {
+            return pressureOffset;
+        }
+
+        /**
+         * @return mean altitude minus the reference's in m
+         */
+        public double getAltitudeOffset() {
+            return altitudeOffset;
+        }
+
+        public double getVario() {
+            return vario;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        /**
+         * @return CPU time per PRS sample, 0 before the first one
+         */
+        public double getCpuNanosPerSample() {
+            return samples > 0 ? (double) cpuNanos / samples : 0;
+        }
+
+        /**
+         * @return share of one core the session used since it connected
+         */
+        public double getCpuLoad() {
+            return elapsedNanos > 0 ? (double) cpuNanos / elapsedNanos : 0;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.bfv.BFVAndroid.session;
+
+import com.bfv.BFVAndroid.ingest.AltitudeTable;
+import com.bfv.BFVAndroid.ingest.LineDispatcher;
+import com.bfv.BFVAndroid.ingest.LineFramer;
+import com.bfv.BFVAndroid.ingest.PressureAltitude;
+import com.bfv.BFVAndroid.ingest.SampleClock;
+import com.bfv.BFVAndroid.kalmanFilteredVario.VarioFilterBank;
+import com.bfv.BFVAndroid.telemetry.LinkStats;
+import com.bfv.BFVAndroid.transport.StallWatchdog;
+import com.bfv.BFVAndroid.transport.Transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * One device of a {@link SessionManager}: its transport and its own ingest pipeline, sample
+ * clock and vario filters.
+ *
+ * The session has no threads of its own. The manager's pool calls {@link #poll(long)}, which
+ * only reads what the input stream already has, so a poll never blocks and a few threads can
+ * serve many devices. Only one poll of a session runs at a time, the pipeline needs no locks
+ * even though polls may run on different pool threads.
+ *
+ * Pressure and altitude are also kept as running means over about a second of samples, those
+ * are what devices are compared by. Lines other than PRS are only counted. A link that goes
+ * silent for longer than its StallWatchdog allows is closed, the bench doesn't reconnect.
+ *
+ * CPU time spent in polls is added up with the manager's {@link SessionManager.CpuClock}.
+ * The getters may be used from any thread.
+ */
+public class DeviceSession implements LineFramer.LineListener, LineDispatcher.Handler {
+
+    public static final int STATE_CONNECTING = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_CLOSED = 2;
+
+    private static final double MEAN_GAIN = 1.0 / 50;  // about a second at 50Hz
+
+    private final Transport transport;
+    private final String address;
+    private final SessionManager.CpuClock cpuClock;
+    private final LineFramer framer = new LineFramer();
+    private final LineDispatcher dispatcher = new LineDispatcher(this);
+    private final AltitudeTable altitudeTable = new AltitudeTable();
+    private final SampleClock sampleClock = new SampleClock();
+    private final VarioFilterBank filterBank = VarioFilterBank.createDefault();
+    private final StallWatchdog watchdog = new StallWatchdog();
+    private final LinkStats linkStats = new LinkStats();
+
+    private final AtomicInteger state = new AtomicInteger(STATE_CONNECTING);
+    private volatile String failure;
+    private volatile double qnh = PressureAltitude.QNH_STANDARD;
+
+    // Pipeline, only touched by the poll running
+    private InputStream in;
+    private boolean receivedPressure;
+    private long lastSampleNanos;
+    private double pressureMean;
+    private double altitudeMean;
+
+    // Published values, single writer
+    private volatile long openedNanos;
+    private volatile long samples;
+    private volatile int pressure;
+    private volatile double meanPressure = Double.NaN;
+    private volatile double meanAltitude = Double.NaN;
+    private volatile double vario;
+    private volatile long cpuNanos;
+
+
+    DeviceSession(Transport transport, SessionManager.CpuClock cpuClock) {
+        this.transport = transport;
+        this.address = transport.getAddress();
+        this.cpuClock = cpuClock;
+    }
+
+
+    /**
+     * Connects the transport, blocks until it is connected
+     *
+     * @throws IOException if it can't be connected, the session is closed then
+     */
+    void open() throws IOException {
+        try {
+            transport.connect();
+            in = transport.getInputStream();
+        } catch (IOException e) {
+            fail(e.getMessage());
+            throw e;
+        }
+        long now = System.nanoTime();
+        watchdog.start(now);
+        openedNanos = now;
+        linkStats.onConnected();
+        if (!state.compareAndSet(STATE_CONNECTING, STATE_RUNNING)) {
+            // Closed while connecting, close() may have run before connect() returned
+            closeTransport();
+        }
+    }
+
+
+    /**
+     * Processes whatever the device sent since the last poll
+     *
+     * @param nowNanos System.nanoTime()
+     * @return true if there were bytes, polling again right away may find more
+     */
+    boolean poll(long nowNanos) {
+        if (state.get() != STATE_RUNNING) {
+            return false;
+        }
+        long cpuStart = cpuClock.nanos();
+        boolean read = false;
+        try {
+            // Asked first, bytes sent before the end are then seen as available below
+            boolean closed = transport.isClosed();
+            if (in.available() > 0) {
+                int n = framer.read(in, this);
+                if (n < 0) {
+                    fail("end of stream");
+                }
+                else {
+                    linkStats.onBytes(n);
+                    read = true;
+                }
+            }
+            else if (closed) {
+                fail("end of stream");
+            }
+            else if (watchdog.isStalled(nowNanos)) {
+                fail("stalled");
+            }
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        cpuNanos += cpuClock.nanos() - cpuStart;  // single writer
+        return read;
+    }
+
+
+    /**
+     * Closes the transport, may be called from any thread
+     */
+    public void close() {
+        if (state.getAndSet(STATE_CLOSED) != STATE_CLOSED) {
+            closeTransport();
+        }
+    }
+
+
+    /**
+     * The session ends by itself, unless it was closed already
+     */
+    private void fail(String reason) {
+        if (state.get() != STATE_CLOSED) {
+            failure = reason;
+            close();
+        }
+    }
+
+
+    private void closeTransport() {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+
+    @Override
+    public void onLine(byte[] buffer, int offset, int length) {
+        dispatcher.dispatch(buffer, offset, length, framer.getReadTimeNanos());
+    }
+
+
+    @Override
+    public void onPressure(int pressure, long timestampNanos) {
+        linkStats.onLine(LineDispatcher.TYPE_PRS, timestampNanos);
+        double altitude = altitudeTable.altitude(pressure, qnh);
+        long sampleNanos = sampleClock.onSample(timestampNanos);
+        watchdog.onSample(timestampNanos, sampleClock.getPeriodNanos());
+
+        double var;
+        if (!receivedPressure) {
+            receivedPressure = true;
+            var = filterBank.seed(altitude);
+            pressureMean = pressure;
+            altitudeMean = altitude;
+        }
+        else {
+            var = filterBank.addData((sampleNanos - lastSampleNanos) / 1e9, altitude);
+            pressureMean += (pressure - pressureMean) * MEAN_GAIN;
+            altitudeMean += (altitude - altitudeMean) * MEAN_GAIN;
+        }
+        lastSampleNanos = sampleNanos;
+
+        this.pressure = pressure;
+        meanPressure = pressureMean;
+        meanAltitude = altitudeMean;
+        vario = var;
+        samples++;  // single writer
+    }
+
+
+    @Override
+    public void onOtherLine(int type, byte[] buffer, int offset, int length, long timestampNanos) {
+        linkStats.onLine(type, timestampNanos);
+    }
+
+
+    @Override
+    public void onMalformedLine(int type, byte[] buffer, int offset, int length, long timestampNanos) {
+        linkStats.onLine(type, timestampNanos);
+        linkStats.onMalformed();
+        if (type == LineDispatcher.TYPE_PRS) {
+            sampleClock.onMissedSample();
+            watchdog.onSample(timestampNanos, sampleClock.getPeriodNanos());
+        }
+    }
+
+
+    void setQnh(double qnh) {
+        this.qnh = qnh;
+    }
+
+
+    public String getAddress() {
+        return address;
+    }
+
+
+    /**
+     * @return one of the STATE_ constants
+     */
+    public int getState() {
+        return state.get();
+    }
+
+
+    /**
+     * @return why the session closed by itself, null if it didn't
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+
+    public long getSamples() {
+        return samples;
+    }
+
+
+    /**
+     * @return last pressure in Pa
+     */
+    public int getPressure() {
+        return pressure;
+    }
+
+
+    /**
+     * @return running mean of the pressure in Pa, NaN before the first sample
+     */
+    public double getMeanPressure() {
+        return meanPressure;
+    }
+
+
+    /**
+     * @return running mean of the altitude in m, NaN before the first sample
+     */
+    public double getMeanAltitude() {
+        return meanAltitude;
+    }
+
+
+    /**
+     * @return vario of the selected filter configuration in m/s
+     */
+    public double getVario() {
+        return vario;
+    }
+
+
+    /**
+     * @return CPU time spent polling this session
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+
+    /**
+     * @return System.nanoTime() when the transport was connected, 0 before
+     */
+    public long getOpenedNanos() {
+        return openedNanos;
+    }
+
+
+    public SampleClock getSampleClock() {
+        return sampleClock;
+    }
+
+
+    public LinkStats getLinkStats() {
+        return linkStats;
+    }
+}
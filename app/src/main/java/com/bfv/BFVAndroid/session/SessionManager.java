@@ -0,0 +1,201 @@
+package com.bfv.BFVAndroid.session;
+
+import com.bfv.BFVAndroid.ingest.PressureAltitude;
+import com.bfv.BFVAndroid.transport.Transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs any number of {@link DeviceSession}s at once on a small shared thread pool, for checking
+ * several devices against each other on the bench.
+ *
+ * Transports connect on threads of their own, a connect blocks until the device answers and
+ * must not hold up the polls of the others. Once connected, every session has one task on the
+ * pool that polls it over and over. A poll that found bytes is queued again right away, behind
+ * the other sessions' polls, so busy devices take turns. A poll that found nothing is queued
+ * again after {@link #POLL_NANOS}. Devices don't get threads of their own while they run, so
+ * the pool stays the same however many devices there are.
+ *
+ * The sessions here are independent of the BluetoothProvider link, which keeps driving the
+ * dashboard and the sound.
+ */
+public class SessionManager {
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final long POLL_NANOS = 5000000L;  // 5ms, a quarter of a sample period
+
+    /**
+     * CPU time of the calling thread
+     */
+    public interface CpuClock {
+        long nanos();
+    }
+
+    private final ScheduledThreadPoolExecutor pool;
+    private final ExecutorService connector;
+    private final CpuClock cpuClock;
+    private final CopyOnWriteArrayList<DeviceSession> sessions = new CopyOnWriteArrayList<>();
+    private volatile double qnh = PressureAltitude.QNH_STANDARD;
+
+
+    /**
+     * @param threads threads of the pool shared by all sessions
+     * @param cpuClock measures the CPU time of polls, for example Debug::threadCpuTimeNanos on
+     * Android. System::nanoTime counts wall time, which is about the same as polls don't block.
+     */
+    public SessionManager(int threads, CpuClock cpuClock) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1: " + threads);
+        }
+        this.cpuClock = cpuClock;
+        final AtomicInteger count = new AtomicInteger();
+        pool = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread thread = new Thread(r, "SessionPool-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final AtomicInteger connectCount = new AtomicInteger();
+        connector = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "SessionConnect-" + connectCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Starts a session for a transport, it connects in the background
+     *
+     * @throws IllegalStateException if a session for its address is running already
+     */
+    public DeviceSession add(Transport transport) {
+        DeviceSession session = new DeviceSession(transport, cpuClock);
+        session.setQnh(qnh);
+        for (DeviceSession s : sessions) {
+            if (s.getAddress().equals(session.getAddress()) && s.getState() != DeviceSession.STATE_CLOSED) {
+                throw new IllegalStateException("Session running for " + session.getAddress());
+            }
+        }
+        sessions.add(session);
+        connector.execute(() -> connect(session));
+        return session;
+    }
+
+
+    /**
+     * Connects a session on a connector thread, its polls start once it is connected
+     */
+    private void connect(DeviceSession session) {
+        try {
+            session.open();
+        } catch (IOException e) {
+            return;
+        }
+        if (session.getState() == DeviceSession.STATE_CLOSED) {
+            return;
+        }
+        try {
+            pool.execute(new Poller(session));
+        } catch (RejectedExecutionException e) {
+            // Shut down while connecting
+            session.close();
+        }
+    }
+
+
+    /**
+     * Closes a session and forgets it
+     */
+    public void remove(DeviceSession session) {
+        session.close();
+        sessions.remove(session);
+    }
+
+
+    /**
+     * Closes and forgets all sessions, the pool stays for new ones
+     */
+    public void removeAll() {
+        for (DeviceSession session : sessions) {
+            remove(session);
+        }
+    }
+
+
+    /**
+     * Closes all sessions and stops the pool and the connects
+     */
+    public void shutdown() {
+        removeAll();
+        pool.shutdownNow();
+        connector.shutdownNow();
+    }
+
+
+    /**
+     * @return sessions in the order they were added, closed ones until they are removed
+     */
+    public List<DeviceSession> getSessions() {
+        return new ArrayList<>(sessions);
+    }
+
+
+    /**
+     * @param qnh sea level pressure in Pa the sessions compute altitudes for
+     */
+    public void setQnh(double qnh) {
+        this.qnh = qnh;
+        for (DeviceSession session : sessions) {
+            session.setQnh(qnh);
+        }
+    }
+
+
+    /**
+     * @return the latest values of all sessions against the session at index reference
+     */
+    public DeviceComparison compare(int reference) {
+        return new DeviceComparison(getSessions(), reference, System.nanoTime());
+    }
+
+
+    /**
+     * The one task of a connected session, polls it until it is closed
+     */
+    private class Poller implements Runnable {
+        private final DeviceSession session;
+
+        Poller(DeviceSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public void run() {
+            boolean read = session.poll(System.nanoTime());
+            if (session.getState() == DeviceSession.STATE_CLOSED) {
+                return;
+            }
+            try {
+                if (read) {
+                    pool.execute(this);
+                }
+                else {
+                    pool.schedule(this, POLL_NANOS, TimeUnit.NANOSECONDS);
+                }
+            } catch (RejectedExecutionException e) {
+                // Shut down
+                session.close();
+            }
+        }
+    }
+}
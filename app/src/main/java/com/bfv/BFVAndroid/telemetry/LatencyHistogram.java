@@ -0,0 +1,153 @@
+package com.bfv.BFVAndroid.telemetry;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Histogram of latencies in ns with logarithmic buckets, recording never allocates.
+ *
+ * Every power of two is split into {@value #SUB_BUCKETS} buckets, so a reported value is at most
+ * 1/{@value #SUB_BUCKETS} above the true one, from 1 ns up to the full long range. Percentiles
+ * report the upper bound of their bucket, capped at the exact maximum.
+ *
+ * One thread records. Any thread can read, a read concurrent with recording may miss the
+ * latest values but never sees torn counts.
+ */
+public class LatencyHistogram {
+
+    public static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private volatile long count;
+    private volatile long sum;
+    private volatile long max;
+
+
+    /**
+     * Records one latency, negative values count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int index = bucketIndex(nanos);
+        // Single writer, no need for an atomic increment
+        counts.lazySet(index, counts.get(index) + 1);
+        sum += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+        count++;
+    }
+
+
+    /**
+     * Clears all counts. Values recorded while clearing from another thread may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+
+    public long getCount() {
+        return count;
+    }
+
+
+    public long getMax() {
+        return max;
+    }
+
+
+    public long getMean() {
+        long n = count;
+        return n == 0 ? 0 : sum / n;
+    }
+
+
+    /**
+     * @param percentile 0..100
+     * @return latency in ns that this percentage of the recorded values doesn't exceed, 0 if
+     * nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+
+    /**
+     * Calls the visitor for every non empty bucket, in increasing order
+     */
+    public void forEachBucket(BucketVisitor visitor) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = counts.get(i);
+            if (n > 0) {
+                visitor.onBucket(bucketLowerBound(i), bucketUpperBound(i), n);
+            }
+        }
+    }
+
+
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (nanos >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << shift;
+    }
+
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return bucketLowerBound(index) + (1L << shift) - 1;
+    }
+
+
+    public interface BucketVisitor {
+        /**
+         * @param fromNanos smallest value in the bucket
+         * @param toNanos largest value in the bucket
+         * @param count number of values recorded in it
+         */
+        void onBucket(long fromNanos, long toNanos, long count);
+    }
+}
@@ -0,0 +1,246 @@
+package com.bfv.BFVAndroid.telemetry;
+
+import com.bfv.BFVAndroid.ingest.LineDispatcher;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Health counters of the device link, kept across connections.
+ *
+ * Counters only grow and every one has a single writer: bytes are counted by the thread reading
+ * the transport, lines, malformed lines and jitter by the processing thread, connections,
+ * stalls and recoveries by the thread that won the connection state change they come with.
+ * No locks are taken, readers on any thread see consistent values.
+ * Rates come from sampling the counters into a {@link Window}.
+ *
+ * Jitter is the inter-arrival jitter of PRS lines as in RFC 3550: a running average of how much
+ * the time between two lines differs from the time between the previous two. Lines read in
+ * the same chunk share their arrival time, so a link that delivers samples in bursts shows a
+ * high jitter even if its throughput is fine. Gaps over a second, like reconnects, are outages
+ * and not counted.
+ */
+public class LinkStats {
+
+    private static final double JITTER_GAIN = 1.0 / 16;
+    private static final long MAX_INTERVAL_NANOS = 1000000000L;  // longer gaps are outages
+
+    private final AtomicLongArray lines = new AtomicLongArray(LineDispatcher.TYPE_COUNT);
+    private volatile long bytes;
+    private volatile long malformed;
+    private volatile long connections;
+    private volatile long stalls;
+    private volatile long recoveries;
+    private volatile long lastRecoveryNanos;
+    private volatile long maxRecoveryNanos;
+    private volatile double jitterNanos;
+
+    // Processing thread only
+    private long lastPressureNanos;
+    private long lastIntervalNanos = -1;
+
+
+    /**
+     * Reading thread: bytes came off the transport
+     */
+    public void onBytes(int count) {
+        bytes += count;
+    }
+
+
+    /**
+     * Processing thread: a line of a {@link LineDispatcher} type arrived
+     *
+     * @param type line type
+     * @param timestampNanos System.nanoTime() when the line's bytes were read
+     */
+    public void onLine(int type, long timestampNanos) {
+        lines.lazySet(type, lines.get(type) + 1);
+
+        if (type == LineDispatcher.TYPE_PRS) {
+            long interval = timestampNanos - lastPressureNanos;
+            if (lastPressureNanos == 0 || interval < 0 || interval > MAX_INTERVAL_NANOS) {
+                lastIntervalNanos = -1;
+            }
+            else {
+                if (lastIntervalNanos >= 0) {
+                    double d = Math.abs(interval - lastIntervalNanos);
+                    jitterNanos += (d - jitterNanos) * JITTER_GAIN;
+                }
+                lastIntervalNanos = interval;
+            }
+            lastPressureNanos = timestampNanos;
+        }
+    }
+
+
+    /**
+     * Processing thread: a line couldn't be decoded
+     */
+    public void onMalformed() {
+        malformed++;
+    }
+
+
+    /**
+     * A connection was established
+     */
+    public void onConnected() {
+        connections++;
+    }
+
+
+    /**
+     * The link stayed open but stopped sending
+     */
+    public void onStall() {
+        stalls++;
+    }
+
+
+    /**
+     * Data flows again after the link was lost
+     *
+     * @param nanos time from the last line before the loss to the first one after it
+     */
+    public void onRecovered(long nanos) {
+        lastRecoveryNanos = nanos;
+        if (nanos > maxRecoveryNanos) {
+            maxRecoveryNanos = nanos;
+        }
+        recoveries++;
+    }
+
+
+    public long getBytes() {
+        return bytes;
+    }
+
+
+    public long getLines(int type) {
+        return lines.get(type);
+    }
+
+
+    public long getMalformed() {
+        return malformed;
+    }
+
+
+    public long getConnections() {
+        return connections;
+    }
+
+
+    /**
+     * @return connections established after the first one
+     */
+    public long getReconnects() {
+        return Math.max(0, connections - 1);
+    }
+
+
+    public long getStalls() {
+        return stalls;
+    }
+
+
+    public long getRecoveries() {
+        return recoveries;
+    }
+
+
+    /**
+     * @return time to recover from the last lost link, 0 if none recovered yet
+     */
+    public long getLastRecoveryNanos() {
+        return lastRecoveryNanos;
+    }
+
+
+    public long getMaxRecoveryNanos() {
+        return maxRecoveryNanos;
+    }
+
+
+    public double getJitterNanos() {
+        return jitterNanos;
+    }
+
+
+    /**
+     * Rolling window over samples of the counters, for rates. Used from one thread, sampling
+     * doesn't allocate.
+     */
+    public static class Window {
+        private final int size;
+        private final long[] times;
+        private final long[] bytes;
+        private final long[] lines;  // size * TYPE_COUNT
+        private final long[] malformed;
+        private int newest = -1;
+        private int count;
+
+
+        /**
+         * @param size number of samples kept, rates cover the time between the oldest and newest
+         */
+        public Window(int size) {
+            if (size < 2) {
+                throw new IllegalArgumentException("size must be >= 2: " + size);
+            }
+            this.size = size;
+            times = new long[size];
+            bytes = new long[size];
+            lines = new long[size * LineDispatcher.TYPE_COUNT];
+            malformed = new long[size];
+        }
+
+
+        /**
+         * Adds a sample of the counters, replacing the oldest one when the window is full
+         *
+         * @param stats counters to sample
+         * @param nowNanos System.nanoTime() of the sample
+         */
+        public void sample(LinkStats stats, long nowNanos) {
+            newest = (newest + 1) % size;
+            times[newest] = nowNanos;
+            bytes[newest] = stats.getBytes();
+            for (int type = 0; type < LineDispatcher.TYPE_COUNT; type++) {
+                lines[newest * LineDispatcher.TYPE_COUNT + type] = stats.getLines(type);
+            }
+            malformed[newest] = stats.getMalformed();
+            count = Math.min(count + 1, size);
+        }
+
+
+        public double getBytesPerSecond() {
+            return rate(bytes, 1, 0);
+        }
+
+
+        public double getLinesPerSecond(int type) {
+            return rate(lines, LineDispatcher.TYPE_COUNT, type);
+        }
+
+
+        public double getMalformedPerSecond() {
+            return rate(malformed, 1, 0);
+        }
+
+
+        private double rate(long[] values, int stride, int index) {
+            if (count < 2) {
+                return 0.0;
+            }
+            int oldest = (newest - count + 1 + size) % size;
+            long nanos = times[newest] - times[oldest];
+            if (nanos <= 0) {
+                return 0.0;
+            }
+            long delta = values[newest * stride + index] - values[oldest * stride + index];
+            return delta * 1e9 / nanos;
+        }
+    }
+}
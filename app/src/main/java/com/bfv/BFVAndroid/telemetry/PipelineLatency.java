@@ -0,0 +1,112 @@
+package com.bfv.BFVAndroid.telemetry;
+
+import java.io.IOException;
+import java.util.Locale;
+
+
+/**
+ * How old a sample is at each stage from its bytes being read to its vario being drawn.
+ *
+ * Every stage measures System.nanoTime() against the time the sample's bytes came off the
+ * transport, so the stages are cumulative:
+ * <ul>
+ *     <li>{@link #STAGE_PARSE} the line has been decoded</li>
+ *     <li>{@link #STAGE_FILTER} the vario filters have the sample</li>
+ *     <li>{@link #STAGE_PUBLISH} the sample is published for the UI</li>
+ *     <li>{@link #STAGE_DRAW} the vario of the sample is drawn, only for samples that are shown</li>
+ * </ul>
+ * The first three are recorded on the processing thread, draw on the main thread.
+ */
+public class PipelineLatency {
+
+    public static final int STAGE_PARSE = 0;
+    public static final int STAGE_FILTER = 1;
+    public static final int STAGE_PUBLISH = 2;
+    public static final int STAGE_DRAW = 3;
+    public static final int STAGE_COUNT = 4;
+
+    private static final String[] STAGE_NAMES = {"parse", "filter", "publish", "draw"};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_COUNT];
+
+
+    public PipelineLatency() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+
+    /**
+     * Records that a sample reached a stage now
+     *
+     * @param stage one of the STAGE_ constants
+     * @param sampleTimeNanos System.nanoTime() when the sample's bytes were read
+     */
+    public void record(int stage, long sampleTimeNanos) {
+        histograms[stage].record(System.nanoTime() - sampleTimeNanos);
+    }
+
+
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+
+    /**
+     * Writes count, p50, p99, p99.9 and max in ms of every stage, one line each
+     */
+    public void writeSummary(Appendable out) throws IOException {
+        out.append(String.format(Locale.US, "%-8s %8s %8s %8s %8s %8s%n",
+                "stage", "count", "p50", "p99", "p99.9", "max"));
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            LatencyHistogram h = histograms[i];
+            out.append(String.format(Locale.US, "%-8s %8d %8.2f %8.2f %8.2f %8.2f%n",
+                    STAGE_NAMES[i], h.getCount(),
+                    h.getValueAtPercentile(50) / 1e6,
+                    h.getValueAtPercentile(99) / 1e6,
+                    h.getValueAtPercentile(99.9) / 1e6,
+                    h.getMax() / 1e6));
+        }
+    }
+
+
+    /**
+     * Writes the summary followed by the bucket counts of every stage, for offline analysis
+     */
+    public void dump(final Appendable out) throws IOException {
+        out.append("# latency in ms since the sample's bytes were read\n");
+        writeSummary(out);
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            out.append(String.format(Locale.US, "%n# %s buckets: from_ns\tto_ns\tcount%n", STAGE_NAMES[i]));
+            final IOException[] error = new IOException[1];
+            histograms[i].forEachBucket((fromNanos, toNanos, count) -> {
+                if (error[0] != null) {
+                    return;
+                }
+                try {
+                    out.append(Long.toString(fromNanos)).append('\t')
+                            .append(Long.toString(toNanos)).append('\t')
+                            .append(Long.toString(count)).append('\n');
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.bfv.BFVAndroid.telemetry;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Streams a {@link RawDataLog} to a gzip file without building it in memory.
+ *
+ * The export covers the entries present when it starts. It reads the log the same lock-free way
+ * the UI does, so ingest keeps appending meanwhile; entries evicted before they could be written
+ * are skipped and counted.
+ *
+ * Lines are written in the recording format of
+ * {@link com.bfv.BFVAndroid.transport.ReplayTransport}: device lines as "millis\tline" with the
+ * time since the first exported entry, lines sent to the device as "# millis\tline" comments, so
+ * an exported session can be replayed as is.
+ */
+public class RawDataExporter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PROGRESS_INTERVAL = 1024;  // entries between progress reports
+
+    private final byte[] line = new byte[BUFFER_SIZE];
+    private final byte[] digits = new byte[20];
+    private long exported;
+    private long skipped;
+
+
+    /**
+     * Exports the log to a gzip file, replacing it if it exists.
+     *
+     * @param log log to export
+     * @param file destination
+     * @param listener receives progress, may be null
+     * @throws IOException if writing the file fails, a partially written file is deleted
+     */
+    public void export(RawDataLog log, File file, ProgressListener listener) throws IOException {
+        boolean done = false;
+        try (OutputStream out = new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE)) {
+            export(log, out, listener);
+            done = true;
+        } finally {
+            if (!done) {
+                file.delete();
+            }
+        }
+    }
+
+
+    /**
+     * Writes the log to a stream, the stream is not closed.
+     *
+     * @param log log to export
+     * @param out destination, should be buffered
+     * @param listener receives progress, may be null
+     * @throws IOException if writing fails
+     */
+    public void export(RawDataLog log, OutputStream out, ProgressListener listener) throws IOException {
+        exported = 0;
+        skipped = 0;
+
+        long first = log.getFirstSequence();
+        long end = log.getEndSequence();
+        long total = end - first;
+        long startMillis = -1;
+
+        for (long seq = first; seq < end; seq++) {
+            long timestamp = log.getTimestamp(seq);
+            int direction = log.getDirection(seq);
+            int length = log.read(seq, line, 0);
+            if (timestamp < 0 || direction < 0 || length < 0) {
+                skipped++;
+            }
+            else {
+                if (startMillis < 0) {
+                    startMillis = timestamp;
+                }
+                if (direction == RawDataLog.DIRECTION_OUT) {
+                    out.write('#');
+                    out.write(' ');
+                }
+                writeDecimal(out, timestamp - startMillis);
+                out.write('\t');
+                out.write(line, 0, length);
+                out.write('\n');
+                exported++;
+            }
+
+            if (listener != null && (seq - first + 1) % PROGRESS_INTERVAL == 0) {
+                listener.onProgress(seq - first + 1, total);
+            }
+        }
+
+        if (listener != null) {
+            listener.onProgress(total, total);
+        }
+    }
+
+
+    /**
+     * @return number of entries written by the last export
+     */
+    public long getExportedCount() {
+        return exported;
+    }
+
+
+    /**
+     * @return number of entries the last export lost to eviction
+     */
+    public long getSkippedCount() {
+        return skipped;
+    }
+
+
+    private void writeDecimal(OutputStream out, long value) throws IOException {
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        out.write(digits, i, digits.length - i);
+    }
+
+
+    /**
+     * Called from the exporting thread
+     */
+    public interface ProgressListener {
+        void onProgress(long done, long total);
+    }
+}
@@ -0,0 +1,239 @@
+package com.bfv.BFVAndroid.telemetry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+
+/**
+ * Fixed-capacity log of raw lines sent to and received from the device.
+ *
+ * Line bytes live in a direct ByteBuffer used as a ring, next to small index arrays holding
+ * offset, length, direction and timestamp of every entry. When either the bytes or the index
+ * run out, the oldest entries are evicted. Text is only decoded when an entry is read.
+ *
+ * Entries are addressed by a sequence number that grows forever, the log holds
+ * [{@link #getFirstSequence()}, {@link #getEndSequence()}). Appending is synchronized between
+ * writers, reading never locks. Like a seqlock, the writer moves the first sequence past an
+ * entry before overwriting it and readers check the sequence again after copying, so an entry
+ * evicted while it was read is reported as missing. This is best effort, see
+ * {@link #isAvailable(long)}: the log is only displayed, a rare torn line is accepted.
+ */
+public class RawDataLog {
+
+    public static final int DIRECTION_IN = 0;
+    public static final int DIRECTION_OUT = 1;
+
+    public static final int DEFAULT_BYTES = 512 * 1024;
+    public static final int DEFAULT_ENTRIES = 32 * 1024;  // about 10 minutes of 50Hz output
+
+    private static final int MAX_LINE_LENGTH = 0xffff;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String[] PREFIX = {"In: ", "Out: "};
+
+    private final ByteBuffer data;
+    private final ByteBuffer writeView;  // only used while holding the lock
+    private final int entryMask;
+    private final int[] offsets;
+    private final short[] lengths;
+    private final byte[] directions;
+    private final long[] timestamps;
+
+    private long writeOffset;  // total bytes ever written, position is writeOffset % capacity
+    private long firstOffset;  // byte offset of the oldest entry
+    private volatile long firstSequence;
+    private volatile long endSequence;
+    private volatile long evictedCount;  // only written while holding the lock
+
+
+    public RawDataLog() {
+        this(DEFAULT_BYTES, DEFAULT_ENTRIES);
+    }
+
+
+    /**
+     * @param bytes capacity for line bytes
+     * @param entries maximum number of entries, must be a power of two
+     */
+    public RawDataLog(int bytes, int entries) {
+        if (entries <= 0 || Integer.bitCount(entries) != 1) {
+            throw new IllegalArgumentException("entries must be a power of two: " + entries);
+        }
+        data = ByteBuffer.allocateDirect(bytes);
+        writeView = data.duplicate();
+        entryMask = entries - 1;
+        offsets = new int[entries];
+        lengths = new short[entries];
+        directions = new byte[entries];
+        timestamps = new long[entries];
+    }
+
+
+    /**
+     * Appends a line, evicting the oldest entries if needed. Lines longer than 64KB or the
+     * whole byte capacity are truncated.
+     *
+     * @param direction DIRECTION_IN or DIRECTION_OUT
+     * @param src line bytes
+     * @param offset first byte in src
+     * @param length number of bytes
+     */
+    public synchronized void append(int direction, byte[] src, int offset, int length) {
+        final int capacity = data.capacity();
+        length = Math.min(length, Math.min(capacity, MAX_LINE_LENGTH));
+
+        long seq = endSequence;
+        long first = firstSequence;
+
+        // Make room in the index and in the byte ring, oldest entries go first
+        while (seq - first > entryMask
+                || (seq > first && writeOffset + length - firstOffset > capacity)) {
+            first++;
+            firstOffset = first < seq
+                    ? firstOffset + (lengths[(int) (first - 1) & entryMask] & 0xffff)
+                    : writeOffset;
+        }
+        // Publish eviction before the bytes get overwritten
+        evictedCount += first - firstSequence;
+        firstSequence = first;
+
+        int position = (int) (writeOffset % capacity);
+        int head = Math.min(length, capacity - position);
+        writeView.position(position);
+        writeView.put(src, offset, head);
+        if (head < length) {
+            writeView.position(0);
+            writeView.put(src, offset + head, length - head);
+        }
+
+        int slot = (int) seq & entryMask;
+        offsets[slot] = position;
+        lengths[slot] = (short) length;
+        directions[slot] = (byte) direction;
+        timestamps[slot] = System.currentTimeMillis();
+
+        writeOffset += length;
+        endSequence = seq + 1;
+    }
+
+
+    public void append(int direction, String line) {
+        byte[] bytes = line.getBytes(ASCII);
+        append(direction, bytes, 0, bytes.length);
+    }
+
+
+    /**
+     * Drops all entries, sequence numbers keep growing
+     */
+    public synchronized void clear() {
+        firstSequence = endSequence;
+        firstOffset = writeOffset;
+    }
+
+
+    /**
+     * @return sequence of the oldest entry still in the log
+     */
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+
+    /**
+     * @return sequence the next appended entry will get
+     */
+    public long getEndSequence() {
+        return endSequence;
+    }
+
+
+    /**
+     * @return number of entries evicted to make room for new ones, not counting cleared ones
+     */
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+
+
+    /**
+     * Copies the bytes of an entry.
+     *
+     * @param sequence entry to read
+     * @param dst destination, must hold at least 64KB or the entry length
+     * @param dstOffset first byte to write in dst
+     * @return number of bytes copied, -1 if the entry is no longer (or not yet) in the log
+     */
+    public int read(long sequence, byte[] dst, int dstOffset) {
+        if (sequence >= endSequence) {
+            return -1;
+        }
+        return read(sequence, dst, dstOffset, lengths[(int) sequence & entryMask] & 0xffff);
+    }
+
+
+    /**
+     * Copies length bytes of an entry, length as read from the index before, so it can't
+     * change from what dst was sized for while copying
+     */
+    private int read(long sequence, byte[] dst, int dstOffset, int length) {
+        int position = offsets[(int) sequence & entryMask];
+        final int capacity = data.capacity();
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] = data.get((position + i) % capacity);
+        }
+
+        // Entry was evicted while copying, the bytes and the length may be torn
+        return isAvailable(sequence) ? length : -1;
+    }
+
+
+    /**
+     * @return direction of an entry, -1 if it is no longer in the log
+     */
+    public int getDirection(long sequence) {
+        int direction = directions[(int) sequence & entryMask];
+        return isAvailable(sequence) ? direction : -1;
+    }
+
+
+    /**
+     * @return System.currentTimeMillis() when the entry was appended, -1 if it is no longer in
+     * the log
+     */
+    public long getTimestamp(long sequence) {
+        long timestamp = timestamps[(int) sequence & entryMask];
+        return isAvailable(sequence) ? timestamp : -1;
+    }
+
+
+    /**
+     * Decodes an entry for display, prefixed with its direction.
+     *
+     * @return "In: line" or "Out: line", null if the entry is no longer in the log
+     */
+    public String getText(long sequence) {
+        if (sequence >= endSequence) {
+            return null;
+        }
+        int slot = (int) sequence & entryMask;
+        int direction = directions[slot];
+        byte[] bytes = new byte[lengths[slot] & 0xffff];
+        if (read(sequence, bytes, 0, bytes.length) < 0) {
+            return null;
+        }
+        return PREFIX[direction] + new String(bytes, ASCII);
+    }
+
+
+    /**
+     * Checks an entry whose index or bytes were just read without the lock. This catches an
+     * eviction that happened before or while reading, the usual case, but the Java memory model
+     * doesn't promise more: the writer's plain stores may become visible before its
+     * firstSequence store, and the reader's plain loads aren't ordered before this check.
+     * Closing that window needs load/store fences that Java 8 and older Android don't offer,
+     * so a reader racing an overwrite can still, rarely, get torn bytes reported as valid.
+     */
+    private boolean isAvailable(long sequence) {
+        return sequence >= firstSequence && sequence < endSequence;
+    }
+}
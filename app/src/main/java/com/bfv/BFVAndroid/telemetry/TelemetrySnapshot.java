@@ -0,0 +1,65 @@
+package com.bfv.BFVAndroid.telemetry;
+
+
+/**
+ * Immutable set of device values that all belong to the same sample.
+ *
+ * Snapshots are numbered in publish order, observers can compare {@link #getSequence()} with
+ * the last one they handled and skip anything they have already seen.
+ */
+public final class TelemetrySnapshot {
+
+    public static final TelemetrySnapshot EMPTY =
+            new TelemetrySnapshot(0, 0, 0.0, Double.NaN, Double.NaN, Double.NaN);
+
+    private final long sequence;
+    private final long sampleTimeNanos;
+    private final double vario;
+    private final double altitude;
+    private final double battery;
+    private final double temperature;
+
+
+    /**
+     * @param sequence publish order
+     * @param sampleTimeNanos System.nanoTime() when the sample's bytes were read
+     * @param vario filtered vertical speed in m/s
+     * @param altitude altitude in m, NaN if unknown
+     * @param battery battery voltage, NaN if unknown
+     * @param temperature temperature in C, NaN if unknown
+     */
+    public TelemetrySnapshot(long sequence, long sampleTimeNanos, double vario, double altitude,
+                             double battery, double temperature) {
+        this.sequence = sequence;
+        this.sampleTimeNanos = sampleTimeNanos;
+        this.vario = vario;
+        this.altitude = altitude;
+        this.battery = battery;
+        this.temperature = temperature;
+    }
+
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getSampleTimeNanos() {
+        return sampleTimeNanos;
+    }
+
+    public double getVario() {
+        return vario;
+    }
+
+    public double getAltitude() {
+        return altitude;
+    }
+
+    public double getBattery() {
+        return battery;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+}
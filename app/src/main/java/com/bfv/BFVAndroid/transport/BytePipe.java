@@ -0,0 +1,145 @@
+package com.bfv.BFVAndroid.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+
+/**
+ * Blocking in-memory byte pipe with one stream for each end.
+ *
+ * Unlike java.io.PipedInputStream it doesn't track writer threads, so any thread may write
+ * and the reader only sees end of stream after close().
+ */
+class BytePipe {
+
+    private final byte[] buffer;
+    private int readPos;
+    private int count;
+    private boolean closed;
+
+    private final InputStream input = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return BytePipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            synchronized (BytePipe.this) {
+                return count;
+            }
+        }
+
+        @Override
+        public void close() {
+            BytePipe.this.close();
+        }
+    };
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            BytePipe.this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            BytePipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            BytePipe.this.close();
+        }
+    };
+
+
+    BytePipe(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+
+    InputStream getInputStream() {
+        return input;
+    }
+
+
+    OutputStream getOutputStream() {
+        return output;
+    }
+
+
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+
+    private synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        try {
+            while (count == 0 && !closed) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        if (count == 0) {
+            return -1;
+        }
+
+        int n = Math.min(len, count);
+        int first = Math.min(n, buffer.length - readPos);
+        System.arraycopy(buffer, readPos, b, off, first);
+        System.arraycopy(buffer, 0, b, off + first, n - first);
+        readPos = (readPos + n) % buffer.length;
+        count -= n;
+
+        notifyAll();
+        return n;
+    }
+
+
+    private synchronized void write(byte[] b, int off, int len) throws IOException {
+        try {
+            while (len > 0) {
+                while (count == buffer.length && !closed) {
+                    wait();
+                }
+                if (closed) {
+                    throw new IOException("Pipe closed");
+                }
+
+                int writePos = (readPos + count) % buffer.length;
+                int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+                System.arraycopy(b, off, buffer, writePos, n);
+                count += n;
+                off += n;
+                len -= n;
+
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.bfv.BFVAndroid.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * Result of a command queued on a {@link CommandWriter}.
+ *
+ * Completes once the command was written to the transport or failed. {@link #get()} throws an
+ * ExecutionException wrapping the IOException of a failed write. Commands coalesced with a later
+ * write of the same key share that write's future.
+ */
+public class CommandFuture implements Future<Void> {
+
+    private boolean done;
+    private IOException error;
+    private List<Listener> listeners;
+
+
+    /**
+     * @return a future that already failed, for commands that couldn't even be queued
+     */
+    public static CommandFuture failed(IOException error) {
+        CommandFuture future = new CommandFuture();
+        future.complete(error);
+        return future;
+    }
+
+
+    /**
+     * Runs the listener once the future completes, right away if it already has. The listener is
+     * called on the writer thread.
+     */
+    public void addListener(Listener listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onComplete(this);
+    }
+
+
+    /**
+     * @return true if the command was written, false if it failed or is still queued
+     */
+    public synchronized boolean isSuccess() {
+        return done && error == null;
+    }
+
+
+    /**
+     * @return why the command failed, null if it didn't (yet)
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+
+    void complete(IOException error) {
+        List<Listener> toCall;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            this.error = error;
+            toCall = listeners;
+            listeners = null;
+            notifyAll();
+        }
+
+        if (toCall != null) {
+            for (Listener listener : toCall) {
+                listener.onComplete(this);
+            }
+        }
+    }
+
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        // Commands can't be taken back once queued
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized Void get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized Void get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+
+    private Void result() throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return null;
+    }
+
+
+    public interface Listener {
+        void onComplete(CommandFuture future);
+    }
+}
@@ -0,0 +1,264 @@
+package com.bfv.BFVAndroid.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Writes commands to a transport on its own thread.
+ *
+ * Callers only queue a command and get a {@link CommandFuture} back, so a stalled link never
+ * blocks them. The queue is bounded, a command that doesn't fit fails right away. A command
+ * queued with a key replaces a queued command with the same key that wasn't written yet, so
+ * only the last value of a parameter goes out and both callers share one future.
+ *
+ * Queue depth and write latency, from queueing to the end of the write, are kept as metrics.
+ */
+public class CommandWriter {
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final OutputStream out;
+    private final int capacity;
+    private final WriteListener writeListener;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final Map<String, Entry> queuedByKey = new HashMap<>();
+    private final Thread thread;
+    private boolean closed;
+
+    // Metrics
+    private int maxQueueDepth;
+    private long writtenCount;
+    private long failedCount;
+    private long coalescedCount;
+    private long rejectedCount;
+    private long latencyNanosSum;
+    private long maxLatencyNanos;
+    private long lastLatencyNanos;
+
+
+    /**
+     * @param out stream to write to
+     * @param capacity maximum number of queued commands
+     * @param writeListener told about every command written, may be null
+     */
+    public CommandWriter(OutputStream out, int capacity, WriteListener writeListener) {
+        this.out = out;
+        this.capacity = capacity;
+        this.writeListener = writeListener;
+        thread = new Thread(this::run, "CommandWriterThread");
+        thread.setDaemon(true);
+    }
+
+
+    public void start() {
+        thread.start();
+    }
+
+
+    /**
+     * Queues a command that is never coalesced
+     */
+    public CommandFuture write(String command) {
+        return write(null, command);
+    }
+
+
+    /**
+     * Queues a command.
+     *
+     * @param key commands with the same key replace each other while queued, null for none
+     * @param command text to send
+     * @return completes when the command was written or failed
+     */
+    public synchronized CommandFuture write(String key, String command) {
+        if (closed) {
+            return CommandFuture.failed(new IOException("Writer closed"));
+        }
+
+        long now = System.nanoTime();
+        if (key != null) {
+            Entry queued = queuedByKey.get(key);
+            if (queued != null) {
+                queued.command = command;
+                queued.queuedNanos = now;
+                coalescedCount++;
+                return queued.future;
+            }
+        }
+
+        if (queue.size() >= capacity) {
+            rejectedCount++;
+            return CommandFuture.failed(new IOException("Command queue full"));
+        }
+
+        Entry entry = new Entry(key, command, now);
+        queue.addLast(entry);
+        if (key != null) {
+            queuedByKey.put(key, entry);
+        }
+        maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+        notifyAll();
+        return entry.future;
+    }
+
+
+    /**
+     * Stops the writer, queued commands fail. Doesn't close the stream.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        thread.interrupt();
+        failQueued();
+    }
+
+
+    private void run() {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Woken up by close()
+                    }
+                }
+                if (closed) {
+                    break;
+                }
+                entry = queue.pollFirst();
+                if (entry.key != null) {
+                    queuedByKey.remove(entry.key);
+                }
+            }
+
+            IOException error = null;
+            try {
+                out.write(entry.command.getBytes(ASCII));
+                out.flush();
+            } catch (IOException e) {
+                error = e;
+            }
+
+            long latency = System.nanoTime() - entry.queuedNanos;
+            synchronized (this) {
+                if (error == null) {
+                    writtenCount++;
+                    latencyNanosSum += latency;
+                    maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+                    lastLatencyNanos = latency;
+                }
+                else {
+                    failedCount++;
+                }
+            }
+
+            if (error == null && writeListener != null) {
+                writeListener.onWritten(entry.command, latency);
+            }
+            entry.future.complete(error);
+        }
+        failQueued();
+    }
+
+
+    private void failQueued() {
+        Entry[] entries;
+        synchronized (this) {
+            entries = queue.toArray(new Entry[0]);
+            queue.clear();
+            queuedByKey.clear();
+        }
+        IOException error = new IOException("Writer closed");
+        for (Entry entry : entries) {
+            entry.future.complete(error);
+        }
+    }
+
+
+    /**
+     * @return number of commands waiting to be written
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return most commands that were ever waiting at once
+     */
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public synchronized long getWrittenCount() {
+        return writtenCount;
+    }
+
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return number of commands replaced by a later one with the same key before being written
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return number of commands refused because the queue was full
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return average time from queueing to written, 0 if nothing was written yet
+     */
+    public synchronized long getAverageLatencyNanos() {
+        return writtenCount > 0 ? latencyNanosSum / writtenCount : 0;
+    }
+
+    public synchronized long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    public synchronized long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+
+    private static final class Entry {
+        final String key;
+        final CommandFuture future = new CommandFuture();
+        String command;
+        long queuedNanos;
+
+        Entry(String key, String command, long queuedNanos) {
+            this.key = key;
+            this.command = command;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+
+    /**
+     * Called on the writer thread after a command was written
+     */
+    public interface WriteListener {
+        void onWritten(String command, long latencyNanos);
+    }
+}
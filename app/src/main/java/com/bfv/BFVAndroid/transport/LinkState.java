@@ -0,0 +1,146 @@
+package com.bfv.BFVAndroid.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Connection state and generation of a link in one atomic word, changed only by CAS.
+ *
+ * Every connection attempt starts a new generation and every end of a connection starts
+ * another one. Threads working for a connection remember the generation they belong to and
+ * pass it to {@link #transition(long, int, int)} and {@link #end(long)}, which fail once that
+ * generation is over, so a thread left over from an earlier connection can't change the state
+ * of the current one. The word only grows, a newer word is always a later state.
+ *
+ * States are small non negative ints chosen by the caller, below {@value #STATE_LIMIT}.
+ */
+public class LinkState {
+
+    public static final int STATE_LIMIT = 1 << 8;
+
+    private static final int STATE_BITS = 8;
+    private static final long STATE_MASK = STATE_LIMIT - 1;
+
+    private final AtomicLong word;
+    private final int idleState;
+
+
+    /**
+     * @param idleState state when no connection is running
+     */
+    public LinkState(int idleState) {
+        checkState(idleState);
+        this.idleState = idleState;
+        word = new AtomicLong(pack(0, idleState));
+    }
+
+
+    /**
+     * @return current word, read state and generation with {@link #state(long)} and
+     * {@link #generation(long)}
+     */
+    public long get() {
+        return word.get();
+    }
+
+
+    public int getState() {
+        return state(word.get());
+    }
+
+
+    public long getGeneration() {
+        return generation(word.get());
+    }
+
+
+    /**
+     * Starts a new connection in the given state, ending whatever connection was running
+     *
+     * @return word of the new connection
+     */
+    public long begin(int state) {
+        checkState(state);
+        while (true) {
+            long current = word.get();
+            long next = pack(generation(current) + 1, state);
+            if (word.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+
+    /**
+     * Moves a connection from one state to another
+     *
+     * @return false if the generation is over or the connection isn't in state from
+     */
+    public boolean transition(long generation, int from, int to) {
+        checkState(to);
+        return word.compareAndSet(pack(generation, from), pack(generation, to));
+    }
+
+
+    /**
+     * Ends a connection, the state goes back to idle in a new generation
+     *
+     * @return false if the generation was already over
+     */
+    public boolean end(long generation) {
+        while (true) {
+            long current = word.get();
+            if (generation(current) != generation) {
+                return false;
+            }
+            if (word.compareAndSet(current, pack(generation + 1, idleState))) {
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * Ends whatever connection is running
+     *
+     * @return word before the end, its state is idle if nothing was running
+     */
+    public long endAny() {
+        while (true) {
+            long current = word.get();
+            if (state(current) == idleState) {
+                return current;
+            }
+            if (word.compareAndSet(current, pack(generation(current) + 1, idleState))) {
+                return current;
+            }
+        }
+    }
+
+
+    public boolean isCurrent(long generation) {
+        return generation(word.get()) == generation;
+    }
+
+
+    public static int state(long word) {
+        return (int) (word & STATE_MASK);
+    }
+
+
+    public static long generation(long word) {
+        return word >>> STATE_BITS;
+    }
+
+
+    private static long pack(long generation, int state) {
+        return generation << STATE_BITS | state;
+    }
+
+
+    private static void checkState(int state) {
+        if (state < 0 || state >= STATE_LIMIT) {
+            throw new IllegalArgumentException("state out of range: " + state);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.bfv.BFVAndroid.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * In-memory transport, the test or benchmark plays the device.
+ *
+ * Bytes written to {@link #getDeviceOutputStream()} show up on {@link #getInputStream()} and
+ * everything the app writes to {@link #getOutputStream()} can be read back from
+ * {@link #getDeviceInputStream()}.
+ */
+public class LoopbackTransport implements Transport {
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final String address;
+    private final BytePipe fromDevice;
+    private final BytePipe toDevice;
+
+
+    public LoopbackTransport(String address) {
+        this(address, DEFAULT_CAPACITY);
+    }
+
+
+    public LoopbackTransport(String address, int capacity) {
+        this.address = address;
+        fromDevice = new BytePipe(capacity);
+        toDevice = new BytePipe(capacity);
+    }
+
+
+    @Override
+    public void connect() throws IOException {
+        if (fromDevice.isClosed()) {
+            throw new IOException("Loopback already closed");
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return fromDevice.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return toDevice.getOutputStream();
+    }
+
+    @Override
+    public void close() {
+        fromDevice.close();
+        toDevice.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return fromDevice.isClosed();
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+
+    /**
+     * @return device side, bytes written here are received by the app
+     */
+    public OutputStream getDeviceOutputStream() {
+        return fromDevice.getOutputStream();
+    }
+
+
+    /**
+     * @return device side, bytes sent by the app can be read here
+     */
+    public InputStream getDeviceInputStream() {
+        return toDevice.getInputStream();
+    }
+}
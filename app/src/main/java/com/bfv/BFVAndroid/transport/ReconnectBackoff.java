@@ -0,0 +1,96 @@
+package com.bfv.BFVAndroid.transport;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Delays between attempts to reconnect a lost link.
+ *
+ * Delays grow exponentially from {@link #BASE_NANOS} up to {@link #MAX_NANOS} and are jittered,
+ * each one is picked at random from the upper half of its step, so a device that drops
+ * repeatedly isn't hammered at a fixed rhythm. A device needs time to close its end of the
+ * link before it accepts a new connection that actually sends data, so no attempt starts
+ * sooner than {@link #CLOSE_SETTLE_NANOS} after the link to the same address was closed.
+ *
+ * Thread safe without locks, any thread may report a close or ask for a delay.
+ */
+public class ReconnectBackoff {
+
+    public static final long BASE_NANOS = 250000000L;           // 250ms
+    public static final long MAX_NANOS = 8000000000L;           // 8s
+    public static final long CLOSE_SETTLE_NANOS = 1500000000L;  // 1.5s
+
+    private final Random random;
+    private final AtomicInteger attempt = new AtomicInteger();
+    private volatile Closed closed;
+
+
+    public ReconnectBackoff(Random random) {
+        this.random = random;
+    }
+
+
+    /**
+     * @return delay before the next attempt, attempts after the first wait longer
+     */
+    public long nextDelayNanos() {
+        long step = BASE_NANOS << Math.min(attempt.getAndIncrement(), 30);
+        if (step <= 0 || step > MAX_NANOS) {
+            step = MAX_NANOS;
+        }
+        long half = step / 2;
+        return half + (long) (random.nextDouble() * (step - half));
+    }
+
+
+    /**
+     * The link works again, the next loss starts over with the shortest delay
+     */
+    public void reset() {
+        attempt.set(0);
+    }
+
+
+    public int getAttempt() {
+        return attempt.get();
+    }
+
+
+    /**
+     * A link was closed
+     *
+     * @param address address of the link
+     * @param nowNanos System.nanoTime() of the close
+     */
+    public void onClosed(String address, long nowNanos) {
+        closed = new Closed(address, nowNanos);
+    }
+
+
+    /**
+     * @return how much longer a connect to address has to wait for its last link to settle,
+     * 0 if it may connect right away
+     */
+    public long settleRemainingNanos(String address, long nowNanos) {
+        Closed last = closed;
+        if (last == null || !last.address.equals(address)) {
+            return 0;
+        }
+        return Math.max(0, last.nanos + CLOSE_SETTLE_NANOS - nowNanos);
+    }
+
+
+    /**
+     * Address and time of the last close, replaced as a whole
+     */
+    private static class Closed {
+        final String address;
+        final long nanos;
+
+        Closed(String address, long nanos) {
+            this.address = address;
+            this.nanos = nanos;
+        }
+    }
+}
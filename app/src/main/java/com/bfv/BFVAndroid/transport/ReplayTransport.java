@@ -0,0 +1,155 @@
+package com.bfv.BFVAndroid.transport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+
+/**
+ * Plays a recorded BlueFly line stream back as if it came from a device.
+ *
+ * Every line of the recording is either a plain device line, which is sent one sample period
+ * after the previous one, or "millis\tline" where millis is the time since start of recording.
+ * Lines starting with '#' are comments and skipped, exported logs use them for sent commands.
+ * Playback speed is a multiple of real time, {@link #AS_FAST_AS_POSSIBLE} disables pacing.
+ * The input stream ends when the recording does. Everything written by the app is discarded.
+ */
+public class ReplayTransport implements Transport {
+
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+    public static final long DEFAULT_PERIOD_MILLIS = 20;  // 50Hz PRS output
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] LINE_END = {'\r', '\n'};
+
+    private final File recording;
+    private final double speed;
+    private final long periodMillis;
+    private final BytePipe pipe;
+    private Thread replayThread;
+
+    private final OutputStream discard = new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    };
+
+
+    public ReplayTransport(File recording, double speed) {
+        this(recording, speed, DEFAULT_PERIOD_MILLIS);
+    }
+
+
+    /**
+     * @param recording file to play
+     * @param speed multiple of real time, must be > 0
+     * @param periodMillis spacing of lines without a timestamp
+     */
+    public ReplayTransport(File recording, double speed, long periodMillis) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be > 0: " + speed);
+        }
+        this.recording = recording;
+        this.speed = speed;
+        this.periodMillis = periodMillis;
+        pipe = new BytePipe(LoopbackTransport.DEFAULT_CAPACITY);
+    }
+
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (replayThread != null || pipe.isClosed()) {
+            throw new IOException("Replay already started");
+        }
+
+        final InputStream in = new FileInputStream(recording);
+        replayThread = new Thread(() -> replay(in), "ReplayThread");
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return pipe.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return discard;
+    }
+
+    @Override
+    public synchronized void close() {
+        pipe.close();
+        if (replayThread != null) {
+            replayThread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return pipe.isClosed();
+    }
+
+    @Override
+    public String getAddress() {
+        return recording.getAbsolutePath();
+    }
+
+
+    private void replay(InputStream in) {
+        OutputStream out = pipe.getOutputStream();
+        long startNanos = System.nanoTime();
+        long lineMillis = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+
+                int tab = line.indexOf('\t');
+                if (tab > 0 && isDigits(line, tab)) {
+                    lineMillis = Long.parseLong(line.substring(0, tab));
+                    line = line.substring(tab + 1);
+                }
+                else {
+                    lineMillis += periodMillis;
+                }
+
+                if (speed != AS_FAST_AS_POSSIBLE) {
+                    long dueNanos = startNanos + (long) (lineMillis * 1000000L / speed);
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+                    }
+                }
+
+                out.write(line.getBytes(ASCII));
+                out.write(LINE_END);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Closed while replaying, nothing left to do
+        } finally {
+            pipe.close();
+        }
+    }
+
+
+    private static boolean isDigits(String s, int end) {
+        for (int i = 0; i < end; i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+package com.bfv.BFVAndroid.transport;
+
+
+/**
+ * Detects a link that stays open but stops sending.
+ *
+ * A device that goes silent without closing the link leaves the reader blocked forever. The
+ * watchdog is fed the pressure samples only, together with the sample period the link's
+ * SampleClock fitted, and calls the link stalled once no sample arrived for a number of those
+ * periods. The arrival times themselves are no measure of the period, the link delivers lines
+ * in bursts and other lines come in between. They do bound the timeout from below though: it
+ * is never shorter than {@link #MIN_MISSED_PERIODS} times the longest recent gap between
+ * arrivals, so a period estimate that is still off can't stall a link that keeps sending.
+ * Until the first sample the BlueFly default of 50 samples a second is assumed, and until the
+ * second one the timeout gets {@link #STARTUP_NANOS} on top.
+ *
+ * Used from the thread consuming the lines, only the number of periods may be set from any
+ * thread.
+ */
+public class StallWatchdog {
+
+    public static final int DEFAULT_MISSED_PERIODS = 25;
+    public static final int MIN_MISSED_PERIODS = 2;
+    public static final long DEFAULT_PERIOD_NANOS = 20000000L;  // 50Hz
+    public static final long STARTUP_NANOS = 3000000000L;       // device starts sending after connect
+
+    private static final long MAX_PERIOD_NANOS = 5000000000L;   // longer isn't a sample period
+    private static final double GAP_DECAY = 1.0 - 1.0 / 64;     // per arrival, of the longest gap
+
+    private volatile int missedPeriods = DEFAULT_MISSED_PERIODS;
+
+    private long startNanos;
+    private long lastNanos;
+    private boolean seen;
+    private boolean gapSeen;
+    private double maxGapNanos;
+    private double periodNanos = DEFAULT_PERIOD_NANOS;
+
+
+    /**
+     * Starts watching a new connection
+     *
+     * @param nowNanos System.nanoTime() of the connect
+     */
+    public void start(long nowNanos) {
+        startNanos = nowNanos;
+        lastNanos = nowNanos;
+        seen = false;
+        gapSeen = false;
+        maxGapNanos = 0;
+    }
+
+
+    /**
+     * A pressure sample arrived
+     *
+     * @param timestampNanos System.nanoTime() when its bytes were read
+     * @param samplePeriodNanos sample period of the link, as its SampleClock measures it
+     */
+    public void onSample(long timestampNanos, double samplePeriodNanos) {
+        if (samplePeriodNanos > 0 && samplePeriodNanos <= MAX_PERIOD_NANOS) {
+            periodNanos = samplePeriodNanos;
+        }
+        if (seen && timestampNanos > lastNanos) {
+            maxGapNanos = Math.max(timestampNanos - lastNanos, maxGapNanos * GAP_DECAY);
+            gapSeen = true;
+        }
+        if (timestampNanos > lastNanos || !seen) {
+            lastNanos = timestampNanos;
+        }
+        seen = true;
+    }
+
+
+    /**
+     * @return ns left until the link counts as stalled, 0 or less if it is
+     */
+    public long getRemainingNanos(long nowNanos) {
+        long deadline = lastNanos + getTimeoutNanos();
+        if (!seen) {
+            deadline = startNanos + STARTUP_NANOS + getTimeoutNanos();
+        }
+        else if (!gapSeen) {
+            deadline += STARTUP_NANOS;
+        }
+        return deadline - nowNanos;
+    }
+
+
+    public boolean isStalled(long nowNanos) {
+        return getRemainingNanos(nowNanos) <= 0;
+    }
+
+
+    /**
+     * @return silence after the last sample that counts as a stall
+     */
+    public long getTimeoutNanos() {
+        return (long) Math.max(periodNanos * missedPeriods, maxGapNanos * MIN_MISSED_PERIODS);
+    }
+
+
+    /**
+     * @return System.nanoTime() of the last sample, or of the connect if nothing arrived yet
+     */
+    public long getLastLineNanos() {
+        return lastNanos;
+    }
+
+
+    public double getPeriodNanos() {
+        return periodNanos;
+    }
+
+
+    public int getMissedPeriods() {
+        return missedPeriods;
+    }
+
+
+    /**
+     * @param missedPeriods sample periods without a sample before the link counts as stalled
+     */
+    public void setMissedPeriods(int missedPeriods) {
+        if (missedPeriods < MIN_MISSED_PERIODS) {
+            throw new IllegalArgumentException("missedPeriods must be >= " + MIN_MISSED_PERIODS
+                    + ": " + missedPeriods);
+        }
+        this.missedPeriods = missedPeriods;
+    }
+}
@@ -0,0 +1,54 @@
+package com.bfv.BFVAndroid.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Byte stream link to a BlueFly device.
+ *
+ * Lifecycle is connect() once, then read/write the streams, then close(). close() may be
+ * called from any thread and unblocks a pending connect() or read.
+ */
+public interface Transport {
+
+    /**
+     * Opens the link. This is a blocking call and only returns on success or exception.
+     *
+     * @throws IOException if the link cannot be opened
+     */
+    void connect() throws IOException;
+
+    /**
+     * @return stream of bytes coming from the device, valid after connect()
+     * @throws IOException if the stream is not available
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * @return stream of bytes going to the device, valid after connect()
+     * @throws IOException if the stream is not available
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Closes the link and both streams
+     *
+     * @throws IOException if closing fails
+     */
+    void close() throws IOException;
+
+    /**
+     * Lets a reader that never blocks see the end of the stream, which available() can't tell
+     * from a quiet link. Bytes sent before the end can still be read.
+     *
+     * @return true once the link was closed by either end, as far as the transport knows
+     */
+    boolean isClosed();
+
+    /**
+     * @return address identifying the remote end, used to detect repeated connect requests
+     */
+    String getAddress();
+}
@@ -0,0 +1,93 @@
+package com.bfv.BFVAndroid.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class VarioToneGeneratorTest {
+
+    private static final int RATE = 48000;
+    private static final int CHUNK = 240;  // 5ms
+
+
+    @Test
+    public void silentBetweenThresholds() {
+        VarioToneGenerator generator = new VarioToneGenerator(RATE);
+        generator.setVario(-1.0, 1);
+
+        short[] buffer = new short[RATE];
+        fill(generator, buffer);
+        assertEquals(0, peak(buffer, 0, buffer.length));
+    }
+
+
+    @Test
+    public void climbBeepsAtItsCadence() {
+        VarioToneGenerator generator = new VarioToneGenerator(RATE);
+        generator.setVario(2.0, 1);
+
+        short[] buffer = new short[RATE];
+        fill(generator, buffer);
+
+        // 0.4s period at 2 m/s: on for the first half, off for the second
+        int period = (int) (VarioToneGenerator.beepPeriod(2.0) * RATE);
+        assertTrue(peak(buffer, 0, period / 2) > 10000);
+        assertEquals(0, peak(buffer, period / 2 + RATE / 100, period - RATE / 100));
+        assertTrue(peak(buffer, period, period + period / 2) > 10000);
+        assertNoClicks(buffer);
+    }
+
+
+    @Test
+    public void sinkToneIsContinuous() {
+        VarioToneGenerator generator = new VarioToneGenerator(RATE);
+        generator.setVario(-3.0, 1);
+
+        short[] buffer = new short[RATE];
+        fill(generator, buffer);
+        for (int start = RATE / 100; start < RATE; start += RATE / 100) {
+            assertTrue(peak(buffer, start, start + RATE / 100) > 10000);
+        }
+        assertNoClicks(buffer);
+    }
+
+
+    @Test
+    public void reportsNewVarioOnce() {
+        VarioToneGenerator generator = new VarioToneGenerator(RATE);
+        short[] buffer = new short[CHUNK];
+
+        generator.setVario(1.0, 1234);
+        assertTrue(generator.fill(buffer, 0, CHUNK));
+        assertEquals(1234, generator.getUsedSampleTimeNanos());
+        assertFalse(generator.fill(buffer, 0, CHUNK));
+    }
+
+
+    private static void fill(VarioToneGenerator generator, short[] buffer) {
+        for (int offset = 0; offset < buffer.length; offset += CHUNK) {
+            generator.fill(buffer, offset, Math.min(CHUNK, buffer.length - offset));
+        }
+    }
+
+
+    private static int peak(short[] buffer, int from, int to) {
+        int peak = 0;
+        for (int i = from; i < to; i++) {
+            peak = Math.max(peak, Math.abs(buffer[i]));
+        }
+        return peak;
+    }
+
+
+    // Steps between frames stay within what the highest tone at full volume produces
+    private static void assertNoClicks(short[] buffer) {
+        double maxStep = 2 * Math.PI * 2000.0 / RATE * Short.MAX_VALUE;
+        for (int i = 1; i < buffer.length; i++) {
+            assertTrue("step at " + i, Math.abs(buffer[i] - buffer[i - 1]) <= maxStep);
+        }
+    }
+}
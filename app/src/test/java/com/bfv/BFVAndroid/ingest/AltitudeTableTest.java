@@ -0,0 +1,40 @@
+package com.bfv.BFVAndroid.ingest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class AltitudeTableTest {
+
+    @Test
+    public void staysWithinErrorBound() {
+        AltitudeTable table = new AltitudeTable();
+        double[] qnhs = {90000.0, PressureAltitude.QNH_STANDARD, 104000.0};
+
+        for (double qnh : qnhs) {
+            double maxError = 0;
+            for (int pressure = AltitudeTable.MIN_PRESSURE - 100; pressure < AltitudeTable.MAX_PRESSURE + 100; pressure++) {
+                double error = Math.abs(table.altitude(pressure, qnh) - PressureAltitude.altitude(pressure, qnh));
+                maxError = Math.max(maxError, error);
+            }
+            assertTrue("qnh " + qnh + " error " + maxError, maxError <= AltitudeTable.MAX_ERROR);
+        }
+    }
+
+
+    @Test
+    public void rebuildsOnlyWhenQnhChanges() {
+        AltitudeTable table = new AltitudeTable();
+
+        table.altitude(95000, PressureAltitude.QNH_STANDARD);
+        table.altitude(95001, PressureAltitude.QNH_STANDARD);
+        assertEquals(1, table.getBuildCount());
+
+        double lower = table.altitude(95000, 100000.0);
+        assertEquals(2, table.getBuildCount());
+        assertEquals(100000.0, table.getQnh(), 0.0);
+        assertEquals(PressureAltitude.altitude(95000, 100000.0), lower, AltitudeTable.MAX_ERROR);
+    }
+}
@@ -0,0 +1,68 @@
+package com.bfv.BFVAndroid.ingest;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import BFVLib.BFV;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class LineDispatcherTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+
+    @Test
+    public void decodesPressureAndPassesOtherLinesOn() {
+        final List<Integer> pressures = new ArrayList<>();
+        final List<String> others = new ArrayList<>();
+        final List<String> malformed = new ArrayList<>();
+        LineDispatcher dispatcher = new LineDispatcher(new LineDispatcher.Handler() {
+            @Override
+            public void onPressure(int pressure, long timestampNanos) {
+                pressures.add(pressure);
+            }
+
+            @Override
+            public void onOtherLine(int type, byte[] buffer, int offset, int length, long timestampNanos) {
+                others.add(type + ":" + new String(buffer, offset, length, ASCII));
+            }
+
+            @Override
+            public void onMalformedLine(int type, byte[] buffer, int offset, int length, long timestampNanos) {
+                malformed.add(new String(buffer, offset, length, ASCII));
+            }
+        });
+
+        for (String line : new String[]{"PRS 17F2A", "PRS 17f2b", "BAT 3E8", "PRS 17G2A", "PRS ", "BFV 11", "$BST*"}) {
+            byte[] bytes = line.getBytes(ASCII);
+            dispatcher.dispatch(bytes, 0, bytes.length, 0);
+        }
+
+        assertEquals(2, pressures.size());
+        assertEquals(0x17F2A, (int) pressures.get(0));
+        assertEquals(0x17F2B, (int) pressures.get(1));
+        assertEquals(3, others.size());
+        assertEquals(LineDispatcher.TYPE_BAT + ":BAT 3E8", others.get(0));
+        assertEquals(LineDispatcher.TYPE_BFV + ":BFV 11", others.get(1));
+        assertEquals(LineDispatcher.TYPE_OTHER + ":$BST*", others.get(2));
+        assertEquals(4, dispatcher.getCount(LineDispatcher.TYPE_PRS));
+        assertEquals(2, dispatcher.getMalformedCount());
+        assertEquals(2, malformed.size());
+        assertEquals("PRS 17G2A", malformed.get(0));
+    }
+
+
+    @Test
+    public void altitudeMatchesBfv() {
+        BFV bfv = new BFV();
+        for (int pressure = 30000; pressure <= 110000; pressure += 997) {
+            bfv.parseLine("PRS " + Integer.toHexString(pressure));
+            assertEquals(bfv.getAltitude(), PressureAltitude.altitude(pressure, PressureAltitude.QNH_STANDARD), 0.0);
+        }
+    }
+}
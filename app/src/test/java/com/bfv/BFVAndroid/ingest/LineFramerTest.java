@@ -0,0 +1,60 @@
+package com.bfv.BFVAndroid.ingest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class LineFramerTest {
+
+    private final List<String> lines = new ArrayList<>();
+    private final LineFramer.LineListener collect =
+            (buffer, offset, length) -> lines.add(LineFramer.decode(buffer, offset, length));
+
+
+    @Test
+    public void splitsOnCrLfAcrossChunks() {
+        LineFramer framer = new LineFramer(16);
+        byte[] data = "PRS 17F2A\r\nBAT 3E8\r\nPRS 1".getBytes();
+
+        framer.feed(data, 0, 7, collect);
+        framer.feed(data, 7, data.length - 7, collect);
+        assertEquals(2, lines.size());
+        assertEquals("PRS 17F2A", lines.get(0));
+        assertEquals("BAT 3E8", lines.get(1));
+
+        framer.feed("7F2B\n\r\n".getBytes(), 0, 7, collect);
+        assertEquals(3, lines.size());
+        assertEquals("PRS 17F2B", lines.get(2));
+    }
+
+
+    @Test
+    public void discardsLinesLongerThanBuffer() {
+        LineFramer framer = new LineFramer(8);
+        byte[] data = "0123456789ABCDEF\r\nPRS 1\r\n".getBytes();
+
+        framer.feed(data, 0, data.length, collect);
+        assertEquals(1, lines.size());
+        assertEquals("PRS 1", lines.get(0));
+        assertEquals(1, framer.getDiscardedLines());
+    }
+
+
+    @Test
+    public void readsUntilEndOfStream() throws IOException {
+        LineFramer framer = new LineFramer();
+        ByteArrayInputStream in = new ByteArrayInputStream("BFV 10\r\nPRS 17F2A\r\n".getBytes());
+
+        while (framer.read(in, collect) >= 0) {
+            // read everything
+        }
+        assertEquals(2, lines.size());
+        assertEquals("BFV 10", lines.get(0));
+    }
+}
@@ -0,0 +1,104 @@
+package com.bfv.BFVAndroid.ingest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class LineRingTest {
+
+    private final List<String> lines = new ArrayList<>();
+    private final LineRing.LineConsumer collect =
+            (buffer, offset, length, timestampNanos) -> lines.add(LineFramer.decode(buffer, offset, length) + "@" + timestampNanos);
+
+
+    @Test
+    public void countsOverflowAndHighWaterMark() {
+        LineRing ring = new LineRing(4, 16);
+        byte[] line = "PRS 17F2A".getBytes();
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(line, 0, line.length, i));
+        }
+        assertFalse(ring.offer(line, 0, line.length, 4));
+        assertEquals(1, ring.getOverflowCount());
+        assertEquals(4, ring.getHighWaterMark());
+
+        assertEquals(4, ring.drain(collect));
+        assertEquals("PRS 17F2A@3", lines.get(3));
+        assertTrue(ring.isEmpty());
+
+        assertTrue(ring.offer(line, 4, 5, 5));
+        assertEquals(1, ring.drain(collect));
+        assertEquals("17F2A@5", lines.get(4));
+        assertEquals(4, ring.getHighWaterMark());
+    }
+
+
+    @Test
+    public void reportsMissedSamplesBeforeTheNextLine() {
+        LineRing ring = new LineRing(4, 16);
+        byte[] line = "PRS 17F2A".getBytes();
+        final List<String> events = new ArrayList<>();
+        LineRing.LineConsumer consumer = new LineRing.LineConsumer() {
+            @Override
+            public void onLine(byte[] buffer, int offset, int length, long timestampNanos) {
+                events.add("line@" + timestampNanos);
+            }
+
+            @Override
+            public void onMissed(int samples) {
+                events.add("missed " + samples);
+            }
+        };
+
+        assertTrue(ring.offer(line, 0, line.length, 0));
+        ring.markMissed();
+        ring.markMissed();
+        assertTrue(ring.offer(line, 0, line.length, 3));
+        assertTrue(ring.offer(line, 0, line.length, 4));
+        assertEquals(3, ring.drain(consumer));
+        assertEquals("[line@0, missed 2, line@3, line@4]", events.toString());
+    }
+
+
+    @Test
+    public void dropsLinesLongerThanSlot() {
+        LineRing ring = new LineRing(4, 4);
+        byte[] line = "PRS 17F2A".getBytes();
+
+        assertFalse(ring.offer(line, 0, line.length, 0));
+        assertEquals(1, ring.getOversizedCount());
+        assertEquals(0, ring.getOverflowCount());
+    }
+
+
+    @Test
+    public void passesLinesBetweenThreads() throws InterruptedException {
+        final int count = 100000;
+        LineRing ring = new LineRing(64, 16);
+        byte[] line = "PRS 17F2A".getBytes();
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (!ring.offer(line, 0, line.length, i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        long[] next = {0};
+        while (next[0] < count) {
+            if (ring.drain((b, o, l, t) -> assertEquals(next[0]++, t)) == 0) {
+                ring.await(1000000L);
+            }
+        }
+        producer.join();
+    }
+}
@@ -0,0 +1,111 @@
+package com.bfv.BFVAndroid.ingest;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class SampleClockTest {
+
+    private static final long MS = 1000000L;
+
+
+    @Test
+    public void burstsGetEvenTimes() {
+        SampleClock clock = new SampleClock();
+        Random random = new Random(5);
+
+        // The device samples every 20.2ms of our clock, the link delivers whatever is
+        // waiting every 50 to 150ms, a few ms late
+        long period = 20200000L;
+        long delivery = 100 * MS;
+        long lastTime = 0;
+        for (int i = 0; i < 3000; i++) {
+            long taken = i * period;
+            while (taken > delivery) {
+                delivery += (50 + random.nextInt(100)) * MS;
+            }
+            long time = clock.onSample(delivery + random.nextInt(3) * MS);
+            if (i > 0) {
+                assertTrue(time > lastTime);
+            }
+            if (i >= 1000) {
+                assertEquals(period, time - lastTime, 1 * MS);
+            }
+            lastTime = time;
+        }
+
+        assertEquals(period, clock.getPeriodNanos(), 0.01 * MS);
+        assertEquals(-9901, clock.getRateOffsetPpm(), 500);
+        assertTrue(clock.getRawIntervalStdNanos() > 20 * MS);
+        assertTrue(clock.getIntervalStdNanos() < 0.5 * MS);
+        assertTrue(clock.getResidualRmsNanos() < 100 * MS);
+        assertEquals(3000 - SampleClock.MIN_FIT_SAMPLES + 1, clock.getResiduals().getCount());
+        assertEquals(0, clock.getResyncCount());
+    }
+
+
+    @Test
+    public void slowRatesConvergeWithoutResyncs() {
+        // outputFrequency 2, 5 and 50, the clock still assumes the 50Hz default
+        for (long period : new long[] {40 * MS, 100 * MS, 1000 * MS}) {
+            SampleClock clock = new SampleClock();
+            Random random = new Random(7);
+            long delivery = 0;
+            long lastTime = 0;
+            for (int i = 0; i < 2000; i++) {
+                long taken = i * period;
+                while (taken > delivery) {
+                    delivery += (50 + random.nextInt(100)) * MS;
+                }
+                long time = clock.onSample(delivery + random.nextInt(3) * MS);
+                if (i >= 500) {
+                    assertEquals("period " + period, period, time - lastTime, 1 * MS);
+                }
+                lastTime = time;
+            }
+
+            assertEquals("period " + period, period, clock.getPeriodNanos(), 0.01 * MS);
+            assertEquals("period " + period, 0, clock.getResyncCount());
+        }
+    }
+
+
+    @Test
+    public void missedSamplesKeepTheirPlace() {
+        SampleClock clock = new SampleClock();
+        long time = 0;
+        for (int i = 0; i < 100; i++) {
+            time = clock.onSample(i * 20 * MS);
+        }
+        assertEquals(99 * 20 * MS, time, 0.01 * MS);
+
+        // Sample 100 couldn't be decoded, 101 follows two periods later
+        clock.onMissedSample();
+        assertEquals(101 * 20 * MS, clock.onSample(101 * 20 * MS), 0.01 * MS);
+        assertEquals(20 * MS, clock.getPeriodNanos(), 0.01 * MS);
+    }
+
+
+    @Test
+    public void startsOverWhenArrivalsStopMatching() {
+        SampleClock clock = new SampleClock();
+        for (int i = 0; i < 100; i++) {
+            clock.onSample(i * 20 * MS);
+        }
+
+        // Lines lost without notice, arrivals are a second ahead of the count
+        long late = 1100 * 20 * MS;
+        assertEquals(late, clock.onSample(late));
+        assertEquals(1, clock.getResyncCount());
+        assertEquals(late + 20 * MS, clock.onSample(late + 20 * MS));
+
+        // After a reset the first sample is taken as it is
+        clock.reset();
+        assertEquals(5 * MS, clock.onSample(5 * MS));
+        assertEquals(1, clock.getResyncCount());
+    }
+}
@@ -0,0 +1,52 @@
+package com.bfv.BFVAndroid.kalmanFilteredVario;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class KalmanFilteredVarioTest {
+
+    private static final int SAMPLES = 10000;
+
+
+    @Test
+    public void batchMatchesScalarExactly() {
+        Random random = new Random(7);
+        double[] dts = new double[SAMPLES];
+        double[] alts = new double[SAMPLES];
+        double alt = 1000;
+        for (int i = 0; i < SAMPLES; i++) {
+            dts[i] = i == 0 ? 1.0 : 0.02 + random.nextGaussian() * 0.002;
+            alt += 0.02 * Math.sin(i / 300.0) + random.nextGaussian() * 0.1;
+            alts[i] = alt;
+        }
+
+        KalmanFilteredVario scalar = new KalmanFilteredVario(0.1, 0.3);
+        double[] scalarVar = new double[SAMPLES];
+        double[] scalarAlt = new double[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            scalarVar[i] = scalar.addData(dts[i], alts[i]);
+            scalarAlt[i] = scalar.getAltitude();
+        }
+
+        // Uneven batches, state has to carry over between them
+        KalmanFilteredVario batch = new KalmanFilteredVario(0.1, 0.3);
+        double[] batchVar = new double[SAMPLES];
+        double[] batchAlt = new double[SAMPLES];
+        int[] sizes = {1, 999, 4000, 5000};
+        int offset = 0;
+        for (int size : sizes) {
+            batch.addData(dts, alts, offset, size, batchVar, batchAlt, offset);
+            offset += size;
+        }
+
+        for (int i = 0; i < SAMPLES; i++) {
+            assertEquals("var " + i, Double.doubleToLongBits(scalarVar[i]), Double.doubleToLongBits(batchVar[i]));
+            assertEquals("alt " + i, Double.doubleToLongBits(scalarAlt[i]), Double.doubleToLongBits(batchAlt[i]));
+        }
+        assertEquals(Double.doubleToLongBits(scalar.getVar()), Double.doubleToLongBits(batch.getVar()));
+    }
+}
@@ -0,0 +1,168 @@
+package com.bfv.BFVAndroid.kalmanFilteredVario;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class VarioFilterBankTest {
+
+    @Test
+    public void matchesSingleVarios() {
+        VarioFilterBank bank = new VarioFilterBank(
+                VarioFilterBank.Config.regression(0.1, 25),
+                VarioFilterBank.Config.kalman(0.2, 0.5),
+                VarioFilterBank.Config.regression(0.05, 50),
+                VarioFilterBank.Config.kalman(0.1, 0.3));
+        Vario regression25 = new Vario(0.1, 25);
+        KalmanFilteredVario kalman1 = new KalmanFilteredVario(0.2, 0.5);
+        Vario regression50 = new Vario(0.05, 50);
+        KalmanFilteredVario kalman2 = new KalmanFilteredVario(0.1, 0.3);
+
+        Random random = new Random(3);
+        double alt = 500;
+        double time = 0;
+        for (int i = 0; i < 5000; i++) {
+            // Reset halfway, both sides have to start over the same way
+            if (i == 2500) {
+                bank.reset();
+                regression25 = new Vario(0.1, 25);
+                regression50 = new Vario(0.05, 50);
+                kalman1.reset();
+                kalman2.reset();
+                time = 0;
+            }
+
+            double dt = i % 2500 == 0 ? 1.0 : 0.02 + random.nextGaussian() * 0.001;
+            alt += Math.sin(i / 200.0) * 0.05 + random.nextGaussian() * 0.2;
+            time += dt;
+
+            bank.addData(dt, alt);
+            assertSame(regression25.addData(time, alt), bank.getVar(0));
+            assertSame(kalman1.addData(dt, alt), bank.getVar(1));
+            assertSame(regression50.addData(time, alt), bank.getVar(2));
+            assertSame(kalman2.addData(dt, alt), bank.getVar(3));
+        }
+        assertEquals(5000, bank.getSampleCount());
+        assertTrue(bank.getCostNanos(0) > 0);
+        assertTrue(bank.getCostNanos(1) > 0);
+    }
+
+
+    @Test
+    public void returnsSelectedOutput() {
+        VarioFilterBank bank = VarioFilterBank.createDefault();
+        bank.setSelected(2);
+
+        double var = 0;
+        for (int i = 0; i < 100; i++) {
+            var = bank.addData(i == 0 ? 1.0 : 0.02, 100 + i * 0.02);
+        }
+        assertSame(bank.getVar(2), var);
+        assertSame(bank.getVar(2), bank.getSelectedVar());
+    }
+
+
+    @Test
+    public void restoresCheckpointExactly() {
+        VarioFilterBank bank = VarioFilterBank.createDefault();
+        Random random = new Random(5);
+        for (int i = 0; i < 500; i++) {
+            bank.addData(0.02, 300 + i * 0.04 + random.nextGaussian() * 0.2);
+        }
+        VarioFilterBank.Checkpoint checkpoint = bank.checkpoint(1234);
+        assertEquals(1234, checkpoint.getTime());
+
+        double[] alts = new double[100];
+        double[] expected = new double[alts.length * bank.size()];
+        for (int i = 0; i < alts.length; i++) {
+            alts[i] = 320 + i * 0.04 + random.nextGaussian() * 0.2;
+            bank.addData(0.02, alts[i]);
+            for (int c = 0; c < bank.size(); c++) {
+                expected[i * bank.size() + c] = bank.getVar(c);
+            }
+        }
+
+        bank.restore(checkpoint);
+        for (int i = 0; i < alts.length; i++) {
+            bank.addData(0.02, alts[i]);
+            for (int c = 0; c < bank.size(); c++) {
+                assertSame(expected[i * bank.size() + c], bank.getVar(c));
+            }
+        }
+    }
+
+
+    @Test
+    public void warmStartSettlesFasterThanReset() {
+        // 3m/s climb through a 3s dropout, the way the app started over before is the baseline
+        double reset = 0;
+        double seeded = 0;
+        double resumed = 0;
+        for (int run = 0; run < 20; run++) {
+            reset += settlingSeconds(run, 0);
+            seeded += settlingSeconds(run, 1);
+            resumed += settlingSeconds(run, 2);
+        }
+        assertTrue("seeded " + seeded + " reset " + reset, seeded < reset);
+        assertTrue("resumed " + resumed + " seeded " + seeded, resumed < seeded);
+    }
+
+
+    /**
+     * @param mode 0 reset with a 1s first time delta, 1 seed, 2 resume
+     * @return seconds after the dropout until the default vario stays within 0.25m/s of the climb
+     */
+    private static double settlingSeconds(long seed, int mode) {
+        final double dt = 0.02;
+        final double climb = 3.0;
+        final double gap = 3.0;
+        Random random = new Random(seed);
+        VarioFilterBank bank = VarioFilterBank.createDefault();
+
+        double time = 0;
+        bank.addData(1.0, 1000 + random.nextGaussian() * 0.2);
+        for (int i = 1; i < 3000; i++) {
+            time += dt;
+            bank.addData(dt, 1000 + climb * time + random.nextGaussian() * 0.2);
+        }
+        VarioFilterBank.Checkpoint checkpoint = bank.checkpoint(0);
+        bank.reset();
+
+        time += gap;
+        int settled = -1;
+        for (int i = 0; i < 1500; i++) {
+            time += dt;
+            double alt = 1000 + climb * time + random.nextGaussian() * 0.2;
+            double var;
+            if (i > 0) {
+                var = bank.addData(dt, alt);
+            }
+            else if (mode == 0) {
+                var = bank.addData(1.0, alt);
+            }
+            else if (mode == 1) {
+                var = bank.seed(alt);
+            }
+            else {
+                var = bank.resume(checkpoint, gap + dt, alt);
+            }
+
+            if (Math.abs(var - climb) > 0.25) {
+                settled = -1;
+            }
+            else if (settled < 0) {
+                settled = i;
+            }
+        }
+        return settled * dt;
+    }
+
+
+    private static void assertSame(double expected, double actual) {
+        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+}
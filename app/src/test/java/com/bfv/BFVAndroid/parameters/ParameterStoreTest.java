@@ -0,0 +1,91 @@
+package com.bfv.BFVAndroid.parameters;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import BFVLib.BFV;
+import BFVLib.Command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class ParameterStoreTest {
+
+    @Test
+    public void publishesNewVersionWithOnlyChangedPositions() {
+        Map<String, Command> parameters = new BFV().getAllParameters();
+        ParameterStore store = new ParameterStore(parameters);
+        ParameterSnapshot before = store.getSnapshot();
+        BitSet changed = new BitSet();
+
+        assertEquals(parameters.size(), before.size());
+        assertFalse(store.update(parameters, changed));
+        assertTrue(changed.isEmpty());
+        assertSame(before, store.getSnapshot());
+
+        Command parameter = before.getCommand(3);
+        assertTrue(parameter.setValue(parameter.getDefaultValue()));
+        assertTrue(store.update(parameters, changed));
+        assertEquals(1, changed.cardinality());
+        assertTrue(changed.get(3));
+
+        ParameterSnapshot after = store.getSnapshot();
+        assertNotSame(before, after);
+        assertEquals(before.getVersion() + 1, after.getVersion());
+        assertTrue(after.hasValue(3));
+        assertEquals(parameter.getValueAsString(), after.getValueAsString(3));
+
+        // Earlier snapshot is left as it was
+        assertFalse(before.hasValue(3));
+        assertEquals("", before.getValueAsString(3));
+    }
+
+
+    @Test
+    public void preloadShowsCachedValuesAndReadbackOnlyPatchesDifferences() {
+        Map<String, Command> parameters = new BFV().getAllParameters();
+        ParameterStore store = new ParameterStore(parameters);
+        BitSet changed = new BitSet();
+
+        // Device had these values last time, parameters whose default is out of range have none
+        Map<String, Integer> cached = new HashMap<>();
+        for (Map.Entry<String, Command> entry : parameters.entrySet()) {
+            Command parameter = entry.getValue();
+            if (parameter.setValue(parameter.getDefaultValue())) {
+                cached.put(entry.getKey(), parameter.getValue());
+            }
+        }
+        assertTrue(store.preload(new ParameterProfile(cached), changed));
+        assertEquals(cached.size(), changed.cardinality());
+        assertEquals(0, store.getUpdateCount());
+
+        // Now it sends the same values except one
+        ParameterSnapshot preloaded = store.getSnapshot();
+        int position = 0;
+        while (preloaded.getCommand(position).getType() != BFV.TYPE_INT) {
+            position++;
+        }
+        Command parameter = preloaded.getCommand(position);
+        parameter.setValue(parameter.getValue() + 1);
+
+        changed.clear();
+        assertTrue(store.update(parameters, changed));
+        assertEquals(1, changed.cardinality());
+        assertTrue(changed.get(position));
+        assertEquals(1, store.getUpdateCount());
+
+        // Cached values are formatted the way BFV formats them
+        for (int i = 0; i < preloaded.size(); i++) {
+            if (i != position && preloaded.hasValue(i)) {
+                assertEquals(preloaded.getCommand(i).getValueAsString(), preloaded.getValueAsString(i));
+            }
+        }
+    }
+}
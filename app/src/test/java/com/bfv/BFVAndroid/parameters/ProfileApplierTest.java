@@ -0,0 +1,75 @@
+package com.bfv.BFVAndroid.parameters;
+
+import com.bfv.BFVAndroid.transport.CommandWriter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import BFVLib.BFV;
+import BFVLib.Command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class ProfileApplierTest {
+
+    @Test
+    public void sendsOnlyChangedParametersAndVerifiesWithOneReadback() throws Exception {
+        BFV bfv = new BFV();
+        final Map<String, Command> parameters = bfv.getAllParameters();
+        final ParameterStore store = new ParameterStore(parameters);
+        final Command getSettings = bfv.getAllCommands().get("getSettings");
+
+        // Device starts with all defaults
+        for (Command parameter : parameters.values()) {
+            parameter.setValue(parameter.getDefaultValue());
+        }
+        store.update(parameters, new BitSet());
+
+        // Change one integer parameter, integers are sent without unit conversion
+        ParameterSnapshot current = store.getSnapshot();
+        int position = 0;
+        while (current.getCommand(position).getType() != BFV.TYPE_INT) {
+            position++;
+        }
+        Command target = current.getCommand(position);
+        int newValue = target.getValue() == target.getMaxVal()
+                ? target.getMinVal() : target.getValue() + 1;
+        Map<String, Integer> desired = new HashMap<>(ParameterProfile.capture(current).asMap());
+        desired.put(current.getName(position), newValue);
+
+        // Fake device: applies written commands and answers getSettings with a readback
+        final String readback = getSettings.serializeCommand();
+        ByteArrayOutputStream link = new ByteArrayOutputStream();
+        CommandWriter writer = new CommandWriter(link, CommandWriter.DEFAULT_CAPACITY, (command, latencyNanos) -> {
+            if (command.equals(readback)) {
+                store.update(parameters, new BitSet());
+                return;
+            }
+            for (Command parameter : parameters.values()) {
+                if (command.startsWith("$" + parameter.getCommandCode() + " ")) {
+                    parameter.setValue(Integer.parseInt(
+                            command.substring(command.indexOf(' ') + 1, command.length() - 1)));
+                }
+            }
+        });
+        writer.start();
+
+        ProfileApplier applier = new ProfileApplier(store, writer::write, getSettings, 0, 1000);
+        ProfileApplier.Result result = applier.apply(new ParameterProfile(desired));
+        writer.close();
+
+        String expected = "$" + target.getCommandCode() + " " + newValue + "*" + readback;
+        assertEquals(expected, link.toString("US-ASCII"));
+        assertEquals(1, result.getSent().size());
+        assertEquals(current.getName(position), result.getSent().get(0).getName());
+        assertEquals(expected.length(), result.getBytesSent());
+        assertTrue(result.isVerified());
+        assertEquals(newValue, store.getSnapshot().getValue(position));
+    }
+}
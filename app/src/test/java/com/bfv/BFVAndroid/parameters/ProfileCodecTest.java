@@ -0,0 +1,35 @@
+package com.bfv.BFVAndroid.parameters;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class ProfileCodecTest {
+
+    @Test
+    public void roundTripsAndRejectsDamagedData() throws IOException {
+        Map<String, Integer> values = new HashMap<>();
+        values.put("volume", 100);
+        values.put("offset", -1200);
+        values.put("largest", Integer.MAX_VALUE);
+        values.put("smallest", Integer.MIN_VALUE);
+        ParameterProfile profile = new ParameterProfile(values);
+
+        byte[] data = ProfileCodec.encode(profile);
+        assertEquals(profile, ProfileCodec.decode(data));
+
+        data[data.length / 2] ^= 1;
+        try {
+            ProfileCodec.decode(data);
+            fail("damaged profile must be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
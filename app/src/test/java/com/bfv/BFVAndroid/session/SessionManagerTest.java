@@ -0,0 +1,173 @@
+package com.bfv.BFVAndroid.session;
+
+import com.bfv.BFVAndroid.ingest.PressureAltitude;
+import com.bfv.BFVAndroid.transport.LoopbackTransport;
+import com.bfv.BFVAndroid.transport.StallWatchdog;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class SessionManagerTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+
+    @Test
+    public void comparesDevices() throws Exception {
+        SessionManager manager = new SessionManager(2, System::nanoTime);
+        try {
+            LoopbackTransport[] devices = new LoopbackTransport[3];
+            for (int i = 0; i < devices.length; i++) {
+                devices[i] = new LoopbackTransport("device-" + i);
+                manager.add(devices[i]);
+            }
+
+            // Second device reads 100 Pa more, the third sends a broken line among its samples
+            send(devices[0], "PRS 17318", 50);
+            send(devices[1], "PRS 1737C", 50);
+            send(devices[2], "PRS 17318", 25);
+            send(devices[2], "PRS 17G18", 1);
+            send(devices[2], "PRS 17318", 25);
+            waitForSamples(manager, 50);
+
+            DeviceComparison comparison = manager.compare(0);
+            assertEquals(3, comparison.getRows().size());
+            DeviceComparison.Row first = comparison.getRows().get(0);
+            DeviceComparison.Row second = comparison.getRows().get(1);
+            assertEquals("device-0", first.getAddress());
+            assertEquals(0x17318, first.getMeanPressure(), 1e-9);
+            assertEquals(0.0, first.getPressureOffset(), 1e-9);
+            assertEquals(100.0, second.getPressureOffset(), 1e-9);
+            assertEquals(PressureAltitude.altitude(0x1737C, PressureAltitude.QNH_STANDARD)
+                    - PressureAltitude.altitude(0x17318, PressureAltitude.QNH_STANDARD),
+                    second.getAltitudeOffset(), 0.01);
+            assertEquals(0.0, comparison.getRows().get(2).getPressureOffset(), 1e-9);
+            assertEquals(1, manager.getSessions().get(2).getLinkStats().getMalformed());
+            assertTrue(first.getCpuNanos() > 0);
+
+            StringBuilder table = new StringBuilder();
+            comparison.writeTable(table);
+            assertEquals(4, table.toString().split("\n").length);
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+
+    @Test
+    public void oneSessionPerAddress() throws Exception {
+        SessionManager manager = new SessionManager(1, System::nanoTime);
+        try {
+            DeviceSession session = manager.add(new LoopbackTransport("device"));
+            try {
+                manager.add(new LoopbackTransport("device"));
+                fail("Second session for the same address");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+
+            // Removing closes the transport, the address is free again
+            manager.remove(session);
+            assertEquals(DeviceSession.STATE_CLOSED, session.getState());
+            assertEquals(0, manager.getSessions().size());
+            manager.add(new LoopbackTransport("device"));
+            assertEquals(1, manager.getSessions().size());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+
+    @Test
+    public void slowConnectDoesntHoldUpThePool() throws Exception {
+        SessionManager manager = new SessionManager(1, System::nanoTime);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // Device that doesn't answer until the end of the test
+            manager.add(new LoopbackTransport("slow") {
+                @Override
+                public void connect() throws IOException {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException("Interrupted");
+                    }
+                    super.connect();
+                }
+            });
+            LoopbackTransport device = new LoopbackTransport("device");
+            DeviceSession session = manager.add(device);
+
+            send(device, "PRS 17318", 10);
+            long deadline = System.nanoTime() + 5000000000L;
+            while (session.getSamples() < 10) {
+                if (System.nanoTime() > deadline) {
+                    fail("device has " + session.getSamples() + " samples");
+                }
+                Thread.sleep(5);
+            }
+            assertEquals(DeviceSession.STATE_CONNECTING, manager.getSessions().get(0).getState());
+        } finally {
+            release.countDown();
+            manager.shutdown();
+        }
+    }
+
+
+    @Test
+    public void endsWhenTheDeviceCloses() throws Exception {
+        SessionManager manager = new SessionManager(1, System::nanoTime);
+        try {
+            LoopbackTransport device = new LoopbackTransport("device");
+            DeviceSession session = manager.add(device);
+            while (session.getState() == DeviceSession.STATE_CONNECTING) {
+                Thread.sleep(5);
+            }
+            send(device, "PRS 17318", 10);
+            device.getDeviceOutputStream().close();
+
+            // Well before the watchdog's startup grace and timeout would end it
+            long deadline = System.nanoTime() + StallWatchdog.STARTUP_NANOS / 3;
+            while (session.getState() != DeviceSession.STATE_CLOSED) {
+                if (System.nanoTime() > deadline) {
+                    fail("session still " + session.getState());
+                }
+                Thread.sleep(5);
+            }
+            assertEquals("end of stream", session.getFailure());
+            assertEquals(10, session.getSamples());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+
+    private static void send(LoopbackTransport device, String line, int times) throws IOException {
+        OutputStream out = device.getDeviceOutputStream();
+        for (int i = 0; i < times; i++) {
+            out.write((line + "\r\n").getBytes(ASCII));
+        }
+    }
+
+
+    private static void waitForSamples(SessionManager manager, long samples) throws InterruptedException {
+        long deadline = System.nanoTime() + 5000000000L;
+        for (DeviceSession session : manager.getSessions()) {
+            while (session.getSamples() < samples) {
+                if (System.nanoTime() > deadline) {
+                    fail(session.getAddress() + " has " + session.getSamples() + " samples");
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.bfv.BFVAndroid.telemetry;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueInOrder() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value + " lower", LatencyHistogram.bucketLowerBound(index) <= value);
+            assertTrue(value + " upper", LatencyHistogram.bucketUpperBound(index) >= value);
+        }
+        for (int i = 1; i < LatencyHistogram.bucketIndex(Long.MAX_VALUE); i++) {
+            assertEquals(LatencyHistogram.bucketUpperBound(i - 1) + 1, LatencyHistogram.bucketLowerBound(i));
+        }
+    }
+
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1..100000 us in ns, uniform
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000000L, histogram.getMax());
+        assertNear(50000000L, histogram.getValueAtPercentile(50));
+        assertNear(99000000L, histogram.getValueAtPercentile(99));
+        assertNear(99900000L, histogram.getValueAtPercentile(99.9));
+        assertEquals(100000000L, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+
+    @Test
+    public void dumpsSummaryAndBuckets() throws IOException {
+        PipelineLatency latency = new PipelineLatency();
+        latency.getHistogram(PipelineLatency.STAGE_PARSE).record(2000000);
+        latency.getHistogram(PipelineLatency.STAGE_DRAW).record(40000000);
+
+        StringBuilder sb = new StringBuilder();
+        latency.dump(sb);
+        String dump = sb.toString();
+        assertTrue(dump, dump.contains("parse           1     2.00     2.00     2.00     2.00"));
+        assertTrue(dump, dump.contains("draw            1    40.00    40.00    40.00    40.00"));
+        assertTrue(dump, dump.contains("# filter buckets"));
+    }
+
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue(expected + " vs " + actual,
+                actual >= expected && actual <= expected + expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
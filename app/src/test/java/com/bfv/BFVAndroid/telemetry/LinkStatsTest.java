@@ -0,0 +1,83 @@
+package com.bfv.BFVAndroid.telemetry;
+
+import com.bfv.BFVAndroid.ingest.LineDispatcher;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class LinkStatsTest {
+
+    private static final long MS = 1000000L;
+
+
+    @Test
+    public void evenLinesHaveNoJitter() {
+        LinkStats stats = new LinkStats();
+        for (int i = 1; i <= 100; i++) {
+            stats.onLine(LineDispatcher.TYPE_PRS, i * 20 * MS);
+        }
+        assertEquals(100, stats.getLines(LineDispatcher.TYPE_PRS));
+        assertEquals(0.0, stats.getJitterNanos(), 0.0);
+    }
+
+
+    @Test
+    public void burstsShowAsJitter() {
+        LinkStats stats = new LinkStats();
+        // Pairs of lines in one chunk every 40 ms, intervals alternate 0 and 40 ms
+        long time = 40 * MS;
+        for (int i = 0; i < 200; i++) {
+            stats.onLine(LineDispatcher.TYPE_PRS, time);
+            stats.onLine(LineDispatcher.TYPE_PRS, time);
+            time += 40 * MS;
+        }
+        assertEquals(40.0 * MS, stats.getJitterNanos(), 1.0 * MS);
+
+        // An outage isn't jitter
+        double before = stats.getJitterNanos();
+        stats.onLine(LineDispatcher.TYPE_PRS, time + 5000 * MS);
+        assertEquals(before, stats.getJitterNanos(), 0.0);
+    }
+
+
+    @Test
+    public void windowRates() {
+        LinkStats stats = new LinkStats();
+        LinkStats.Window window = new LinkStats.Window(3);
+        window.sample(stats, 0);
+        assertEquals(0.0, window.getBytesPerSecond(), 0.0);
+
+        // 1000 bytes and 50 lines a second, one malformed line over the whole time
+        for (int second = 1; second <= 4; second++) {
+            stats.onBytes(1000);
+            for (int i = 0; i < 50; i++) {
+                stats.onLine(LineDispatcher.TYPE_PRS, second * 1000 * MS + i * 20 * MS);
+            }
+            if (second == 1) {
+                stats.onMalformed();
+            }
+            window.sample(stats, second * 1000 * MS);
+        }
+
+        assertEquals(1000.0, window.getBytesPerSecond(), 1e-9);
+        assertEquals(50.0, window.getLinesPerSecond(LineDispatcher.TYPE_PRS), 1e-9);
+        assertEquals(0.0, window.getLinesPerSecond(LineDispatcher.TYPE_BAT), 0.0);
+        // The malformed line is older than the window
+        assertEquals(0.0, window.getMalformedPerSecond(), 0.0);
+        assertEquals(1, stats.getMalformed());
+    }
+
+
+    @Test
+    public void reconnectsAfterFirstConnection() {
+        LinkStats stats = new LinkStats();
+        assertEquals(0, stats.getReconnects());
+        stats.onConnected();
+        assertEquals(0, stats.getReconnects());
+        stats.onConnected();
+        stats.onConnected();
+        assertEquals(2, stats.getReconnects());
+    }
+}
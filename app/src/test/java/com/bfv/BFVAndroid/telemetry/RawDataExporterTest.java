@@ -0,0 +1,40 @@
+package com.bfv.BFVAndroid.telemetry;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class RawDataExporterTest {
+
+    @Test
+    public void writesReplayableLinesAndCommentsOutSentCommands() throws IOException {
+        RawDataLog log = new RawDataLog(1024, 4);
+        log.append(RawDataLog.DIRECTION_IN, "PRS 17F2A");
+        log.append(RawDataLog.DIRECTION_OUT, "$BST*");
+        log.append(RawDataLog.DIRECTION_IN, "PRS 17F2B");
+
+        final long[] progress = new long[2];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RawDataExporter exporter = new RawDataExporter();
+        exporter.export(log, out, (done, total) -> {
+            progress[0] = done;
+            progress[1] = total;
+        });
+
+        String[] lines = out.toString("US-ASCII").split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("0\tPRS 17F2A", lines[0]);
+        assertTrue(lines[1].matches("# \\d+\t\\$BST\\*"));
+        assertTrue(lines[2].matches("\\d+\tPRS 17F2B"));
+
+        assertEquals(3, exporter.getExportedCount());
+        assertEquals(0, exporter.getSkippedCount());
+        assertEquals(3, progress[0]);
+        assertEquals(3, progress[1]);
+    }
+}
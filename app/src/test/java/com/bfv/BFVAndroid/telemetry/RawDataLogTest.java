@@ -0,0 +1,49 @@
+package com.bfv.BFVAndroid.telemetry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class RawDataLogTest {
+
+    @Test
+    public void evictsOldestWhenEntriesRunOut() {
+        RawDataLog log = new RawDataLog(1024, 4);
+        for (int i = 0; i < 6; i++) {
+            log.append(RawDataLog.DIRECTION_IN, "PRS " + i);
+        }
+
+        assertEquals(2, log.getFirstSequence());
+        assertEquals(6, log.getEndSequence());
+        assertEquals(2, log.getEvictedCount());
+        assertNull(log.getText(1));
+        assertEquals("In: PRS 2", log.getText(2));
+        assertEquals("In: PRS 5", log.getText(5));
+
+        // Cleared entries weren't evicted
+        log.clear();
+        assertEquals(6, log.getFirstSequence());
+        assertEquals(2, log.getEvictedCount());
+        assertNull(log.getText(5));
+    }
+
+
+    @Test
+    public void evictsOldestWhenBytesRunOutAndWrapsAround() {
+        RawDataLog log = new RawDataLog(16, 64);
+        log.append(RawDataLog.DIRECTION_IN, "PRS 17F2A");  // 9 bytes
+        log.append(RawDataLog.DIRECTION_OUT, "$BST*");     // 5 bytes
+        log.append(RawDataLog.DIRECTION_IN, "PRS 17F2B");  // wraps, evicts the first line
+
+        assertEquals(1, log.getFirstSequence());
+        assertEquals("Out: $BST*", log.getText(1));
+        assertEquals("In: PRS 17F2B", log.getText(2));
+
+        byte[] bytes = new byte[16];
+        assertEquals(9, log.read(2, bytes, 0));
+        assertEquals(-1, log.read(0, bytes, 0));
+        assertEquals(RawDataLog.DIRECTION_OUT, log.getDirection(1));
+    }
+}
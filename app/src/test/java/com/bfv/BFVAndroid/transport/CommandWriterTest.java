@@ -0,0 +1,82 @@
+package com.bfv.BFVAndroid.transport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class CommandWriterTest {
+
+    @Test
+    public void coalescesQueuedWritesWithSameKeyAndRejectsWhenFull() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        // Stalls on the first write like a blocked link
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) {
+                written.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                written.write(b, off, len);
+            }
+        };
+
+        CommandWriter writer = new CommandWriter(stalled, 2, null);
+        writer.start();
+
+        CommandFuture first = writer.write("$BST*");
+        assertTrue(writing.await(1, TimeUnit.SECONDS));
+
+        CommandFuture volume1 = writer.write("VOL", "$BVL 1*");
+        CommandFuture volume2 = writer.write("VOL", "$BVL 2*");
+        CommandFuture other = writer.write("$BFQ*");
+        CommandFuture rejected = writer.write("$BAB*");
+
+        assertSame(volume1, volume2);
+        assertEquals(2, writer.getQueueDepth());
+        assertEquals(1, writer.getCoalescedCount());
+        assertTrue(rejected.isDone());
+        assertFalse(rejected.isSuccess());
+
+        release.countDown();
+        first.get(1, TimeUnit.SECONDS);
+        volume2.get(1, TimeUnit.SECONDS);
+        other.get(1, TimeUnit.SECONDS);
+
+        assertEquals("$BST*$BVL 2*$BFQ*", written.toString("US-ASCII"));
+        assertEquals(3, writer.getWrittenCount());
+        assertEquals(1, writer.getRejectedCount());
+        assertEquals(2, writer.getMaxQueueDepth());
+        assertTrue(writer.getMaxLatencyNanos() > 0);
+
+        writer.close();
+        try {
+            writer.write("$BST*").get();
+            fail("write after close must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
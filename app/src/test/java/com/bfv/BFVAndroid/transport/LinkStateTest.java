@@ -0,0 +1,91 @@
+package com.bfv.BFVAndroid.transport;
+
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class LinkStateTest {
+
+    private static final int IDLE = 0;
+    private static final int CONNECTING = 1;
+    private static final int CONNECTED = 2;
+
+
+    @Test
+    public void staleGenerationCantChangeState() {
+        LinkState state = new LinkState(IDLE);
+        long first = LinkState.generation(state.begin(CONNECTING));
+        long second = LinkState.generation(state.begin(CONNECTING));
+        assertTrue(second > first);
+
+        // The first attempt connects late and then fails
+        assertFalse(state.transition(first, CONNECTING, CONNECTED));
+        assertFalse(state.end(first));
+        assertEquals(CONNECTING, state.getState());
+
+        assertTrue(state.transition(second, CONNECTING, CONNECTED));
+        assertFalse(state.transition(second, CONNECTING, CONNECTED));
+        assertTrue(state.end(second));
+        assertFalse(state.end(second));
+        assertEquals(IDLE, state.getState());
+        assertFalse(state.isCurrent(second));
+    }
+
+
+    @Test
+    public void endAnyOnlyEndsRunningConnections() {
+        LinkState state = new LinkState(IDLE);
+        long idle = state.get();
+        assertEquals(idle, state.endAny());
+        assertEquals(idle, state.get());
+
+        long word = state.begin(CONNECTING);
+        assertEquals(word, state.endAny());
+        assertEquals(IDLE, state.getState());
+        assertTrue(state.get() > word);
+    }
+
+
+    @Test
+    public void racingThreadsGetDistinctGenerations() throws InterruptedException {
+        final LinkState state = new LinkState(IDLE);
+        final int threads = 4;
+        final int perThread = 10000;
+        final ConcurrentHashMap<Long, Boolean> generations = new ConcurrentHashMap<>();
+        final AtomicInteger connected = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    long generation = LinkState.generation(state.begin(CONNECTING));
+                    generations.put(generation, Boolean.TRUE);
+                    if (state.transition(generation, CONNECTING, CONNECTED)) {
+                        connected.incrementAndGet();
+                    }
+                    state.end(generation);
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * perThread, generations.size());
+        assertTrue(connected.get() > 0);
+    }
+}
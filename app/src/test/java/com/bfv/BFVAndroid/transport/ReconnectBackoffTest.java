@@ -0,0 +1,47 @@
+package com.bfv.BFVAndroid.transport;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class ReconnectBackoffTest {
+
+    @Test
+    public void delaysGrowJitteredUpToMax() {
+        ReconnectBackoff backoff = new ReconnectBackoff(new Random(1));
+        long step = ReconnectBackoff.BASE_NANOS;
+        for (int attempt = 0; attempt < 20; attempt++) {
+            long delay = backoff.nextDelayNanos();
+            assertTrue(attempt + ": " + delay, delay >= step / 2 && delay <= step);
+            step = Math.min(step * 2, ReconnectBackoff.MAX_NANOS);
+        }
+
+        backoff.reset();
+        assertTrue(backoff.nextDelayNanos() <= ReconnectBackoff.BASE_NANOS);
+    }
+
+
+    @Test
+    public void jitterSpreadsDelays() {
+        ReconnectBackoff a = new ReconnectBackoff(new Random(1));
+        ReconnectBackoff b = new ReconnectBackoff(new Random(2));
+        assertTrue(a.nextDelayNanos() != b.nextDelayNanos());
+    }
+
+
+    @Test
+    public void sameAddressWaitsForSettle() {
+        ReconnectBackoff backoff = new ReconnectBackoff(new Random(1));
+        assertEquals(0, backoff.settleRemainingNanos("00:11", 0));
+
+        backoff.onClosed("00:11", 1000);
+        assertEquals(ReconnectBackoff.CLOSE_SETTLE_NANOS - 500,
+                backoff.settleRemainingNanos("00:11", 1500));
+        assertEquals(0, backoff.settleRemainingNanos("00:22", 1500));
+        assertEquals(0, backoff.settleRemainingNanos("00:11", 1000 + ReconnectBackoff.CLOSE_SETTLE_NANOS));
+    }
+}
@@ -0,0 +1,108 @@
+package com.bfv.BFVAndroid.transport;
+
+import com.bfv.BFVAndroid.ingest.SampleClock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class StallWatchdogTest {
+
+    private static final long MS = 1000000L;
+
+
+    @Test
+    public void stallAfterMissedPeriods() {
+        StallWatchdog watchdog = new StallWatchdog();
+        watchdog.setMissedPeriods(10);
+        watchdog.start(0);
+
+        // 100ms samples
+        long time = 0;
+        for (int i = 0; i < 100; i++) {
+            time += 100 * MS;
+            watchdog.onSample(time, 100 * MS);
+        }
+        assertEquals(100 * MS, watchdog.getPeriodNanos(), 1 * MS);
+
+        assertFalse(watchdog.isStalled(time + 900 * MS));
+        assertTrue(watchdog.isStalled(time + 1001 * MS));
+        assertEquals(time, watchdog.getLastLineNanos());
+    }
+
+
+    @Test
+    public void burstsDontStretchThePeriod() {
+        StallWatchdog watchdog = new StallWatchdog();
+        watchdog.start(0);
+
+        // Two 20ms samples per chunk every 40ms, the timeout counts sample periods
+        long time = 0;
+        for (int i = 0; i < 100; i++) {
+            time += 40 * MS;
+            watchdog.onSample(time, 20 * MS);
+            watchdog.onSample(time, 20 * MS);
+        }
+        assertEquals(20 * MS, watchdog.getPeriodNanos(), 1 * MS);
+        assertEquals(StallWatchdog.DEFAULT_MISSED_PERIODS * 20 * MS, watchdog.getTimeoutNanos());
+        assertEquals(time, watchdog.getLastLineNanos());
+    }
+
+
+    @Test
+    public void slowRateDoesntStall() {
+        StallWatchdog watchdog = new StallWatchdog();
+        SampleClock clock = new SampleClock();
+        watchdog.start(0);
+
+        // outputFrequency 50, one sample a second, the clock starts from the 50Hz default
+        long time = 0;
+        for (int i = 0; i < 100; i++) {
+            time = 500 * MS + i * 1000 * MS;
+            assertFalse("sample " + i, watchdog.isStalled(time - 1));
+            clock.onSample(time);
+            watchdog.onSample(time, clock.getPeriodNanos());
+        }
+        assertEquals(1000 * MS, watchdog.getPeriodNanos(), 1 * MS);
+        assertFalse(watchdog.isStalled(time + 24 * 1000 * MS));
+        assertTrue(watchdog.isStalled(time + 26 * 1000 * MS));
+    }
+
+
+    @Test
+    public void arrivalGapsBoundTheTimeout() {
+        StallWatchdog watchdog = new StallWatchdog();
+        watchdog.start(0);
+
+        // A period estimate far too short doesn't stall samples that keep arriving 500ms apart
+        long time = 0;
+        for (int i = 0; i < 10; i++) {
+            time += 500 * MS;
+            watchdog.onSample(time, 20 * MS);
+        }
+        assertEquals(2 * 500 * MS, watchdog.getTimeoutNanos());
+        assertFalse(watchdog.isStalled(time + 900 * MS));
+        assertTrue(watchdog.isStalled(time + 1001 * MS));
+    }
+
+
+    @Test
+    public void startupGraceBeforeFirstLine() {
+        StallWatchdog watchdog = new StallWatchdog();
+        watchdog.start(1000 * MS);
+
+        long timeout = watchdog.getTimeoutNanos();
+        assertEquals(StallWatchdog.DEFAULT_MISSED_PERIODS * StallWatchdog.DEFAULT_PERIOD_NANOS, timeout);
+        assertFalse(watchdog.isStalled(1000 * MS + StallWatchdog.STARTUP_NANOS));
+        assertTrue(watchdog.isStalled(1000 * MS + StallWatchdog.STARTUP_NANOS + timeout));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooFewPeriods() {
+        new StallWatchdog().setMissedPeriods(1);
+    }
+}
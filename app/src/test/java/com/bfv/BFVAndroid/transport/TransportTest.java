@@ -0,0 +1,62 @@
+package com.bfv.BFVAndroid.transport;
+
+import com.bfv.BFVAndroid.ingest.LineFramer;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TransportTest {
+
+    @Test
+    public void loopbackPassesBytesBothWays() throws IOException {
+        LoopbackTransport transport = new LoopbackTransport("loopback", 8);
+        transport.connect();
+
+        transport.getDeviceOutputStream().write("PRS 1\r\n".getBytes());
+        byte[] buffer = new byte[16];
+        assertEquals(7, transport.getInputStream().read(buffer, 0, buffer.length));
+
+        transport.getOutputStream().write("$BOM 1*".getBytes());
+        assertEquals(7, transport.getDeviceInputStream().read(buffer, 0, buffer.length));
+
+        transport.close();
+        assertEquals(-1, transport.getInputStream().read(buffer, 0, buffer.length));
+    }
+
+
+    @Test
+    public void replayKeepsRecordedTiming() throws IOException {
+        File recording = File.createTempFile("replay", ".txt");
+        recording.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(recording)) {
+            out.write("0\tBFV 10\n200\tPRS 17F2A\n400\tPRS 17F2B\n".getBytes());
+        }
+
+        // 400ms of recording at 4x real time
+        ReplayTransport transport = new ReplayTransport(recording, 4.0);
+        long start = System.nanoTime();
+        transport.connect();
+
+        List<String> lines = new ArrayList<>();
+        LineFramer framer = new LineFramer();
+        InputStream in = transport.getInputStream();
+        while (framer.read(in, (b, o, l) -> lines.add(LineFramer.decode(b, o, l))) >= 0) {
+            // read until the recording ends
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(3, lines.size());
+        assertEquals("PRS 17F2B", lines.get(2));
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 95);
+    }
+}
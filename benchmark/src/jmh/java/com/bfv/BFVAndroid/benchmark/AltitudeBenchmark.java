@@ -0,0 +1,78 @@
+package com.bfv.BFVAndroid.benchmark;
+
+import com.bfv.BFVAndroid.ingest.AltitudeTable;
+import com.bfv.BFVAndroid.ingest.PressureAltitude;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import BFVLib.BFV;
+
+
+/**
+ * Pressure to altitude per sample: BFV parsing a PRS line into a boxed Double, the
+ * Math.pow() formula on the decoded pressure, and the interpolation table. Scores are per sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AltitudeBenchmark {
+
+    private static final int SAMPLES = 4096;
+
+    private final int[] pressures = new int[SAMPLES];
+    private final String[] lines = new String[SAMPLES];
+    private final AltitudeTable table = new AltitudeTable();
+    private final BFV bfv = new BFV();
+
+
+    @Setup
+    public void setup() {
+        // A climb with sensor noise, as the device reports it
+        Random random = new Random(42);
+        double pressure = 95000;
+        for (int i = 0; i < SAMPLES; i++) {
+            pressure -= 0.5 + random.nextGaussian() * 2;
+            pressures[i] = (int) pressure;
+            lines[i] = "PRS " + Integer.toHexString(pressures[i]).toUpperCase();
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void bfvParseLine(Blackhole bh) {
+        for (int i = 0; i < SAMPLES; i++) {
+            bfv.parseLine(lines[i]);
+            bh.consume(bfv.getAltitude());
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void formula(Blackhole bh) {
+        for (int i = 0; i < SAMPLES; i++) {
+            bh.consume(PressureAltitude.altitude(pressures[i], PressureAltitude.QNH_STANDARD));
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void table(Blackhole bh) {
+        for (int i = 0; i < SAMPLES; i++) {
+            bh.consume(table.altitude(pressures[i], PressureAltitude.QNH_STANDARD));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.bfv.BFVAndroid.benchmark;
+
+import com.bfv.BFVAndroid.ingest.LineDispatcher;
+import com.bfv.BFVAndroid.ingest.LineFramer;
+import com.bfv.BFVAndroid.ingest.PressureAltitude;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Builds BlueFly style line streams for benchmarks.
+ *
+ * {@link #load(int)} uses a real recording when the "bfv.recording" system property names one,
+ * in the format ReplayTransport plays and the raw data export writes. Otherwise it falls back
+ * to {@link #generate(int)}.
+ */
+final class BlueFlyStream {
+
+    static final String RECORDING_PROPERTY = "bfv.recording";
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private BlueFlyStream() {}
+
+
+    /**
+     * Mostly "PRS" pressure lines like the device sends at 50Hz, with a battery
+     * and temperature line once per second.
+     *
+     * @param lines number of lines
+     * @return stream bytes, every line terminated with "\r\n"
+     */
+    static byte[] generate(int lines) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(lines * 12);
+        int pressure = 95000;
+
+        for (int i = 0; i < lines; i++) {
+            if (i % 50 == 49) {
+                sb.append("BAT 3E8\r\n");
+            }
+            else if (i % 50 == 24) {
+                sb.append("TMP 215\r\n");
+            }
+            else {
+                pressure += random.nextInt(7) - 3;
+                sb.append("PRS ").append(Integer.toHexString(pressure).toUpperCase()).append("\r\n");
+            }
+        }
+        return sb.toString().getBytes(ASCII);
+    }
+
+
+    /**
+     * @param lines number of lines, a shorter recording is repeated to fill them
+     * @return stream bytes of the recording named by {@value #RECORDING_PROPERTY}, or a
+     * generated stream if it isn't set
+     */
+    static byte[] load(int lines) {
+        String path = System.getProperty(RECORDING_PROPERTY);
+        if (path == null || path.isEmpty()) {
+            return generate(lines);
+        }
+
+        List<String> recorded = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(path), ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Sent commands are comments, timestamps are dropped
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                recorded.add(tab >= 0 ? line.substring(tab + 1) : line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read recording " + path, e);
+        }
+        if (recorded.isEmpty()) {
+            throw new IllegalArgumentException("Recording has no device lines: " + path);
+        }
+
+        StringBuilder sb = new StringBuilder(lines * 12);
+        for (int i = 0; i < lines; i++) {
+            sb.append(recorded.get(i % recorded.size())).append("\r\n");
+        }
+        return sb.toString().getBytes(ASCII);
+    }
+
+
+    /**
+     * @param samples number of altitudes
+     * @return altitudes in m of the first PRS lines of {@link #load(int)}, at standard QNH,
+     * however many other lines the stream has
+     */
+    static double[] loadAltitudes(int samples) {
+        int lines = samples;
+        while (true) {
+            double[] altitudes = altitudes(load(lines));
+            if (altitudes.length >= samples) {
+                return Arrays.copyOf(altitudes, samples);
+            }
+            if (altitudes.length == 0) {
+                throw new IllegalArgumentException("Stream has no PRS lines");
+            }
+            // Grow by the share of PRS lines seen so far
+            lines = (int) ((long) lines * samples / altitudes.length) + 1;
+        }
+    }
+
+
+    /**
+     * @return altitudes in m of the PRS lines in a stream, at standard QNH
+     */
+    static double[] altitudes(byte[] stream) {
+        final double[] altitudes = new double[stream.length / 6];
+        final int[] count = {0};
+        new LineFramer(stream.length + 1).feed(stream, 0, stream.length, (buffer, offset, length) -> {
+            if (LineDispatcher.classify(buffer, offset, length) == LineDispatcher.TYPE_PRS) {
+                int pressure = LineDispatcher.parseHex(buffer, offset + 4, length - 4);
+                if (pressure >= 0) {
+                    altitudes[count[0]++] = PressureAltitude.altitude(pressure, PressureAltitude.QNH_STANDARD);
+                }
+            }
+        });
+        double[] result = new double[count[0]];
+        System.arraycopy(altitudes, 0, result, 0, count[0]);
+        return result;
+    }
+}
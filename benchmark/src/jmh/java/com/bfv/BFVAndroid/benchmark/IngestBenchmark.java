@@ -0,0 +1,113 @@
+package com.bfv.BFVAndroid.benchmark;
+
+import com.bfv.BFVAndroid.ingest.AltitudeTable;
+import com.bfv.BFVAndroid.ingest.LineDispatcher;
+import com.bfv.BFVAndroid.ingest.LineFramer;
+import com.bfv.BFVAndroid.ingest.LineRing;
+import com.bfv.BFVAndroid.ingest.PressureAltitude;
+import com.bfv.BFVAndroid.kalmanFilteredVario.KalmanFilteredVario;
+import com.bfv.BFVAndroid.telemetry.RawDataLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import BFVLib.BFV;
+
+
+/**
+ * All per line work of a connection on one thread: what ConnectedThread does (framing the
+ * input stream, queueing lines in the LineRing) and what ProcessingThread does with every
+ * queued line (raw data log, dispatch, altitude, Kalman filter, BFV for non PRS lines).
+ * Publishing to the UI is left out, it is coalesced per frame. Scores are per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IngestBenchmark implements LineFramer.LineListener, LineRing.LineConsumer, LineDispatcher.Handler {
+
+    private static final int LINES = 10000;
+
+    private ByteArrayInputStream stream;
+    private LineFramer framer;
+    private LineRing ring;
+    private LineDispatcher dispatcher;
+    private RawDataLog rawData;
+    private AltitudeTable altitudeTable;
+    private KalmanFilteredVario vario;
+    private BFV bfv;
+    private Blackhole blackhole;
+
+
+    @Setup
+    public void setup(Blackhole bh) {
+        stream = new ByteArrayInputStream(BlueFlyStream.load(LINES));
+        framer = new LineFramer();
+        ring = new LineRing();
+        dispatcher = new LineDispatcher(this);
+        rawData = new RawDataLog();
+        altitudeTable = new AltitudeTable();
+        vario = new KalmanFilteredVario(0.2, 0.5);
+        bfv = new BFV();
+        blackhole = bh;
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void perLine() throws IOException {
+        stream.reset();
+        framer.reset();
+
+        // A read never completes more lines than the ring holds, drain after each one
+        while (framer.read(stream, this) >= 0) {
+            ring.drain(this);
+        }
+    }
+
+
+    @Override
+    public void onLine(byte[] buffer, int offset, int length) {
+        ring.offer(buffer, offset, length, framer.getReadTimeNanos());
+    }
+
+
+    @Override
+    public void onLine(byte[] buffer, int offset, int length, long timestampNanos) {
+        rawData.append(RawDataLog.DIRECTION_IN, buffer, offset, length);
+        dispatcher.dispatch(buffer, offset, length, timestampNanos);
+    }
+
+
+    @Override
+    public void onPressure(int pressure, long timestampNanos) {
+        double altitude = altitudeTable.altitude(pressure, PressureAltitude.QNH_STANDARD);
+        // Lines of one read share a timestamp here, use the device's 50Hz period
+        blackhole.consume(vario.addData(0.02, altitude));
+    }
+
+
+    @Override
+    public void onOtherLine(int type, byte[] buffer, int offset, int length, long timestampNanos) {
+        bfv.parseLine(LineFramer.decode(buffer, offset, length));
+        blackhole.consume(bfv.checkUpdatedValues());
+        blackhole.consume(bfv.isUpdatedBattery() ? bfv.getBattery() : null);
+        blackhole.consume(bfv.isUpdatedTemperature() ? bfv.getTemperature() : null);
+    }
+
+
+    @Override
+    public void onMalformedLine(int type, byte[] buffer, int offset, int length, long timestampNanos) {
+        blackhole.consume(type);
+    }
+}
@@ -0,0 +1,75 @@
+package com.bfv.BFVAndroid.benchmark;
+
+import com.bfv.BFVAndroid.kalmanFilteredVario.KalmanFilteredVario;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Offline reprocessing of a recorded flight, one addData() call per sample against the batch
+ * addData() on blocks of samples. Both write the vario value of every sample to an output block.
+ *
+ * Input is one block of samples replayed until the requested number of samples is done, so
+ * 10^8 samples don't need gigabytes of arrays. Scores are per run over all samples.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KalmanBatchBenchmark {
+
+    private static final int BLOCK = 64 * 1024;
+
+    @Param({"1000000", "10000000", "100000000"})
+    public int samples;
+
+    private final double[] dts = new double[BLOCK];
+    private final double[] alts = new double[BLOCK];
+    private final double[] vars = new double[BLOCK];
+    private KalmanFilteredVario vario;
+
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        double alt = 1000;
+        for (int i = 0; i < BLOCK; i++) {
+            dts[i] = 0.02 + random.nextGaussian() * 0.002;
+            alt += 0.02 * Math.sin(i / 300.0) + random.nextGaussian() * 0.1;
+            alts[i] = alt;
+        }
+        vario = new KalmanFilteredVario(0.1, 0.3);
+    }
+
+
+    @Benchmark
+    public double scalar() {
+        final KalmanFilteredVario v = vario;
+        for (int done = 0; done < samples; done += BLOCK) {
+            int count = Math.min(BLOCK, samples - done);
+            for (int i = 0; i < count; i++) {
+                vars[i] = v.addData(dts[i], alts[i]);
+            }
+        }
+        return v.getVar();
+    }
+
+
+    @Benchmark
+    public double batch() {
+        for (int done = 0; done < samples; done += BLOCK) {
+            int count = Math.min(BLOCK, samples - done);
+            vario.addData(dts, alts, 0, count, vars, null, 0);
+        }
+        return vario.getVar();
+    }
+}
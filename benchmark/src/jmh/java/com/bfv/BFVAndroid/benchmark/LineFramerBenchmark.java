@@ -0,0 +1,69 @@
+package com.bfv.BFVAndroid.benchmark;
+
+import com.bfv.BFVAndroid.ingest.LineFramer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Line splitting of the Bluetooth input stream, BufferedReader.readLine() as done before
+ * against LineFramer. Both consume the length of every line. Scores are per line, so
+ * throughput is lines/s and gc.alloc.rate.norm from the gc profiler is bytes allocated per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LineFramerBenchmark {
+
+    private static final int LINES = 10000;
+
+    private ByteArrayInputStream stream;
+    private LineFramer framer;
+
+
+    @Setup
+    public void setup() {
+        stream = new ByteArrayInputStream(BlueFlyStream.load(LINES));
+        framer = new LineFramer();
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void bufferedReader(Blackhole bh) throws IOException {
+        stream.reset();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            bh.consume(line.length());
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void lineFramer(Blackhole bh) throws IOException {
+        stream.reset();
+        framer.reset();
+
+        LineFramer.LineListener listener = (buffer, offset, length) -> bh.consume(length);
+        while (framer.read(stream, listener) >= 0) {
+            // lines are consumed by the listener
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.bfv.BFVAndroid.benchmark;
+
+import com.bfv.BFVAndroid.ingest.LineDispatcher;
+import com.bfv.BFVAndroid.ingest.LineFramer;
+import com.bfv.BFVAndroid.ingest.PressureAltitude;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import BFVLib.BFV;
+
+
+/**
+ * Per line parsing on the processing thread: BFV.parseLine() plus polling all of its updated
+ * flags as done before, against LineDispatcher decoding PRS lines from the bytes and only
+ * falling back to BFV for the rest. Scores are per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LineParserBenchmark {
+
+    private static final int LINES = 10000;
+
+    private byte[] stream;
+    private int[] offsets;
+    private int[] lengths;
+    private BFV bfv;
+    private LineDispatcher dispatcher;
+    private Blackhole blackhole;
+
+
+    @Setup
+    public void setup(Blackhole bh) {
+        stream = BlueFlyStream.load(LINES);
+        offsets = new int[LINES];
+        lengths = new int[LINES];
+
+        // Split once, the whole stream fits in the framer so its views line up with stream
+        final int[] count = {0};
+        new LineFramer(stream.length + 1).feed(stream, 0, stream.length, (buffer, offset, length) -> {
+            offsets[count[0]] = offset;
+            lengths[count[0]] = length;
+            count[0]++;
+        });
+
+        bfv = new BFV();
+        blackhole = bh;
+        dispatcher = new LineDispatcher(new LineDispatcher.Handler() {
+            @Override
+            public void onPressure(int pressure, long timestampNanos) {
+                blackhole.consume(PressureAltitude.altitude(pressure, PressureAltitude.QNH_STANDARD));
+            }
+
+            @Override
+            public void onOtherLine(int type, byte[] buffer, int offset, int length, long timestampNanos) {
+                bfv.parseLine(LineFramer.decode(buffer, offset, length));
+                blackhole.consume(bfv.isUpdatedBattery() ? bfv.getBattery() : null);
+                blackhole.consume(bfv.isUpdatedTemperature() ? bfv.getTemperature() : null);
+            }
+
+            @Override
+            public void onMalformedLine(int type, byte[] buffer, int offset, int length, long timestampNanos) {
+                blackhole.consume(type);
+            }
+        });
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void bfvParseLine(Blackhole bh) {
+        for (int i = 0; i < LINES; i++) {
+            bfv.parseLine(LineFramer.decode(stream, offsets[i], lengths[i]));
+
+            bh.consume(bfv.isUpdatedHardwareVersion());
+            bh.consume(bfv.checkUpdatedValues());
+            if (bfv.isUpdatedBattery()) {
+                bh.consume(bfv.getBattery());
+            }
+            if (bfv.isUpdatedTemperature()) {
+                bh.consume(bfv.getTemperature());
+            }
+            if (bfv.isUpdatedAltitude()) {
+                bh.consume(bfv.getAltitude());
+            }
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void lineDispatcher() {
+        for (int i = 0; i < LINES; i++) {
+            dispatcher.dispatch(stream, offsets[i], lengths[i], 0);
+        }
+    }
+}
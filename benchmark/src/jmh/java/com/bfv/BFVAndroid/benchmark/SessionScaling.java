@@ -0,0 +1,129 @@
+package com.bfv.BFVAndroid.benchmark;
+
+import com.bfv.BFVAndroid.ingest.LineDispatcher;
+import com.bfv.BFVAndroid.ingest.LineFramer;
+import com.bfv.BFVAndroid.session.DeviceComparison;
+import com.bfv.BFVAndroid.session.SessionManager;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+
+/**
+ * CPU cost of SessionManager sessions as the number of devices grows.
+ *
+ * Runs 1, 2, 4, 8 and 16 {@link SimulatedTransport} devices at 50 lines a second in bursts of
+ * 3 lines on the default pool, each device sending the same stream with its own pressure
+ * offset. Each run reports the CPU time per device and per sample, measured by the sessions,
+ * and the CPU time of all pool threads, which also covers the scheduling between polls. If
+ * devices are independent, the cost per device stays flat and the pool's CPU grows linearly.
+ * This is a real time measurement and not a JMH benchmark, so each run takes as long as it
+ * measures.
+ *
+ * Run with: ./gradlew :benchmark:sessionScaling [-Pseconds=n], n seconds per run, default 10.
+ */
+public final class SessionScaling {
+
+    private static final int[] LINKS = {1, 2, 4, 8, 16};
+    private static final long PERIOD_NANOS = 20000000L;  // 50Hz
+    private static final int BURST_LINES = 3;
+    private static final int LINES = 3000;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private SessionScaling() {}
+
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        byte[] stream = BlueFlyStream.load(LINES);
+
+        System.out.printf(Locale.US, "%d s per run, %d pool threads, %d cores%n", seconds,
+                SessionManager.DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
+        System.out.printf(Locale.US, "%5s %12s %12s %12s %10s %10s%n", "links", "samples/s",
+                "us/sample", "cpu%/link", "pool cpu%", "pool/link");
+
+        // Untimed run with the most devices, so the JIT has compiled the pipeline before
+        // the first run that counts
+        run(threads, stream, LINKS[LINKS.length - 1], seconds, false);
+        for (int links : LINKS) {
+            run(threads, stream, links, seconds, true);
+        }
+    }
+
+
+    private static void run(ThreadMXBean threads, byte[] stream, int links, int seconds,
+                            boolean report) throws InterruptedException, IOException {
+        SessionManager manager = new SessionManager(SessionManager.DEFAULT_THREADS,
+                threads::getCurrentThreadCpuTime);
+        for (int i = 0; i < links; i++) {
+            manager.add(new SimulatedTransport(String.format(Locale.US, "sim-%02d", i),
+                    offset(stream, 10 * i), PERIOD_NANOS, BURST_LINES));
+        }
+
+        // Let the sessions connect and the filters settle, then measure
+        Thread.sleep(2000);
+        long poolStart = poolCpuNanos(threads);
+        DeviceComparison start = manager.compare(0);
+        long startNanos = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long elapsed = System.nanoTime() - startNanos;
+        DeviceComparison end = manager.compare(0);
+        long poolCpu = poolCpuNanos(threads) - poolStart;
+        manager.shutdown();
+        if (!report) {
+            return;
+        }
+
+        long samples = 0;
+        long cpu = 0;
+        for (int i = 0; i < links; i++) {
+            samples += end.getRows().get(i).getSamples() - start.getRows().get(i).getSamples();
+            cpu += end.getRows().get(i).getCpuNanos() - start.getRows().get(i).getCpuNanos();
+        }
+        System.out.printf(Locale.US, "%5d %12.1f %12.2f %12.3f %10.3f %10.3f%n", links,
+                samples * 1e9 / elapsed, (double) cpu / samples / 1e3,
+                100.0 * cpu / elapsed / links, 100.0 * poolCpu / elapsed,
+                100.0 * poolCpu / elapsed / links);
+        if (links == LINKS[LINKS.length - 1]) {
+            end.writeTable(System.out);
+        }
+    }
+
+
+    /**
+     * @return CPU time of all SessionManager pool threads alive now
+     */
+    private static long poolCpuNanos(ThreadMXBean threads) {
+        long total = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith("SessionPool-")) {
+                total += Math.max(0, threads.getThreadCpuTime(info.getThreadId()));
+            }
+        }
+        return total;
+    }
+
+
+    /**
+     * @return stream with every PRS pressure raised by pascal
+     */
+    private static byte[] offset(byte[] stream, final int pascal) {
+        final StringBuilder sb = new StringBuilder(stream.length + 64);
+        new LineFramer(stream.length + 1).feed(stream, 0, stream.length, (buffer, offset, length) -> {
+            if (LineDispatcher.classify(buffer, offset, length) == LineDispatcher.TYPE_PRS) {
+                int pressure = LineDispatcher.parseHex(buffer, offset + 4, length - 4);
+                sb.append("PRS ").append(Integer.toHexString(pressure + pascal).toUpperCase());
+            }
+            else {
+                sb.append(LineFramer.decode(buffer, offset, length));
+            }
+            sb.append("\r\n");
+        });
+        return sb.toString().getBytes(ASCII);
+    }
+}
@@ -0,0 +1,138 @@
+package com.bfv.BFVAndroid.benchmark;
+
+import com.bfv.BFVAndroid.transport.Transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Stand-in for a BlueFly on a bluetooth link, without a thread of its own.
+ *
+ * The device "sends" one line of a {@link BlueFlyStream} every period from connect() on, and
+ * the link hands them out in bursts of several lines like SPP does. Which bytes are available
+ * is worked out from System.nanoTime() whenever the input stream is asked, so a simulated
+ * device costs nothing while nobody reads it and only the reader's work gets measured.
+ * The stream repeats when it runs out. Everything written to the device is discarded.
+ */
+final class SimulatedTransport implements Transport {
+
+    private final String address;
+    private final byte[] stream;
+    private final int[] lineEnds;
+    private final long periodNanos;
+    private final int burstLines;
+    private volatile long connectNanos;
+    private volatile boolean closed;
+    private long position;  // bytes handed out, repeating stream
+
+    private final InputStream input = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) <= 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return SimulatedTransport.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, due() - position);
+        }
+    };
+
+    private final OutputStream discard = new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    };
+
+
+    /**
+     * @param address address of the simulated device
+     * @param stream lines the device sends, each terminated with "\r\n"
+     * @param periodNanos time between lines
+     * @param burstLines lines handed out together
+     */
+    SimulatedTransport(String address, byte[] stream, long periodNanos, int burstLines) {
+        this.address = address;
+        this.stream = stream;
+        this.periodNanos = periodNanos;
+        this.burstLines = burstLines;
+
+        int lines = 0;
+        for (byte b : stream) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        lineEnds = new int[lines];
+        for (int i = 0, line = 0; i < stream.length; i++) {
+            if (stream[i] == '\n') {
+                lineEnds[line++] = i + 1;
+            }
+        }
+    }
+
+
+    @Override
+    public void connect() {
+        connectNanos = System.nanoTime();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return discard;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+
+    /**
+     * @return bytes of the repeating stream sent up to the last complete burst
+     */
+    private long due() throws IOException {
+        if (closed) {
+            throw new IOException("Closed");
+        }
+        long lines = (System.nanoTime() - connectNanos) / periodNanos;
+        lines -= lines % burstLines;
+        long rounds = lines / lineEnds.length;
+        int rest = (int) (lines % lineEnds.length);
+        return rounds * stream.length + (rest > 0 ? lineEnds[rest - 1] : 0);
+    }
+
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        int n = (int) Math.min(len, due() - position);
+        for (int i = 0; i < n; i++) {
+            b[off + i] = stream[(int) ((position + i) % stream.length)];
+        }
+        position += n;
+        return n;
+    }
+}
@@ -0,0 +1,114 @@
+package com.bfv.BFVAndroid.benchmark;
+
+import com.bfv.BFVAndroid.kalmanFilteredVario.KalmanFilter;
+import com.bfv.BFVAndroid.kalmanFilteredVario.KalmanFilteredVario;
+import com.bfv.BFVAndroid.kalmanFilteredVario.RegressionSlope;
+import com.bfv.BFVAndroid.kalmanFilteredVario.Vario;
+import com.bfv.BFVAndroid.kalmanFilteredVario.VarioFilterBank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Vario filters fed with the altitudes of a BlueFly stream at 50Hz, one sample at a time as
+ * the processing thread does. Scores are per sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class VarioBenchmark {
+
+    private static final int SAMPLES = 10000;
+    private static final double DT = 0.02;
+    private static final int WINDOW = 50;  // one second of samples
+
+    private double[] altitudes;
+    private KalmanFilter kalmanFilter;
+    private KalmanFilteredVario kalmanFilteredVario;
+    private Vario vario;
+    private RegressionSlope regression;
+    private VarioFilterBank filterBank;
+    private double time;
+
+
+    @Setup
+    public void setup() {
+        altitudes = BlueFlyStream.loadAltitudes(SAMPLES);
+
+        // Same settings as BluetoothProvider
+        kalmanFilter = new KalmanFilter(0.5);
+        kalmanFilteredVario = new KalmanFilteredVario(0.2, 0.5);
+        vario = new Vario(0.05, WINDOW);
+        regression = new RegressionSlope();
+        filterBank = VarioFilterBank.createDefault();
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double kalmanFilterUpdate() {
+        for (int i = 0; i < SAMPLES; i++) {
+            kalmanFilter.update(altitudes[i], 0.2, DT);
+        }
+        return kalmanFilter.getXVel();
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void kalmanFilteredVarioAddData(Blackhole bh) {
+        for (int i = 0; i < SAMPLES; i++) {
+            bh.consume(kalmanFilteredVario.addData(DT, altitudes[i]));
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void varioAddData(Blackhole bh) {
+        for (int i = 0; i < SAMPLES; i++) {
+            time += DT;
+            bh.consume(vario.addData(time, altitudes[i]));
+        }
+    }
+
+
+    /**
+     * Sliding window maintenance on its own: add the new sample, remove the one leaving the
+     * window, read the slope
+     */
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void regressionSlope(Blackhole bh) {
+        regression.clear();
+        for (int i = 0; i < SAMPLES; i++) {
+            regression.addData(i * DT, altitudes[i]);
+            if (i >= WINDOW) {
+                regression.removeData((i - WINDOW) * DT, altitudes[i - WINDOW]);
+            }
+            bh.consume(regression.getSlope());
+        }
+    }
+
+
+    /**
+     * All default configurations of the filter bank, including its own cost accounting
+     */
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void filterBank(Blackhole bh) {
+        for (int i = 0; i < SAMPLES; i++) {
+            bh.consume(filterBank.addData(DT, altitudes[i]));
+        }
+    }
+}